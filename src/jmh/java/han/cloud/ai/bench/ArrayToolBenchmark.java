@@ -0,0 +1,191 @@
+package han.cloud.ai.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.util.ArrayTool;
+import han.cloud.ai.util.ImageTool;
+
+/**
+ * The normalization kernels on standard size faces of 18,750 pixels.
+ * <p>
+ * The {@code separate} benchmarks run the steps one pass at a time, the way
+ * the eigenface recognizer used to, with the stream based max and norm and the
+ * column-major cross means; the {@code fused} ones use the kernels it runs now.
+ * Each benchmark first copies its input, so that it never works on its own
+ * output.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArrayToolBenchmark {
+
+	@Param({ "50" })
+	public int gallerySize;
+
+	private double[][] gallery;
+	private double[][] galleryWork;
+	private float[][] floatGallery;
+	private float[][] floatGalleryWork;
+
+	private double[] probe;
+	private double[] probeWork;
+	private float[] floatProbe;
+	private float[] floatProbeWork;
+
+	private double[] means;
+	private float[] floatMeans;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		gallery = SyntheticFaces.gallery(gallerySize, 0) //
+				.stream() //
+				.map(ImageTool::toPixels) //
+				.toArray(double[][]::new);
+
+		galleryWork = new double[gallerySize][gallery[0].length];
+		floatGallery = new float[gallerySize][];
+		floatGalleryWork = new float[gallerySize][gallery[0].length];
+		for (int row = 0; row < gallerySize; row++) {
+			floatGallery[row] = toFloats(gallery[row]);
+		}
+
+		probe = ImageTool.toPixels(SyntheticFaces.face(gallerySize / 2, 1));
+		probeWork = new double[probe.length];
+		floatProbe = toFloats(probe);
+		floatProbeWork = new float[probe.length];
+
+		means = ArrayTool.normalizeAndCenter(copy(gallery, galleryWork));
+		floatMeans = ArrayTool.normalizeAndCenter(copy(floatGallery, floatGalleryWork));
+	}
+
+	@Benchmark
+	public double[] probeSeparate() {
+		System.arraycopy(probe, 0, probeWork, 0, probe.length);
+		streamDivideByMax(probeWork);
+		ArrayTool.minusCrossMeans(probeWork, means);
+		return probeWork;
+	}
+
+	@Benchmark
+	public double[] probeFused() {
+		System.arraycopy(probe, 0, probeWork, 0, probe.length);
+		ArrayTool.normalizeAndCenter(probeWork, means);
+		return probeWork;
+	}
+
+	@Benchmark
+	public float[] probeFusedFloat() {
+		System.arraycopy(floatProbe, 0, floatProbeWork, 0, floatProbe.length);
+		ArrayTool.normalizeAndCenter(floatProbeWork, floatMeans);
+		return floatProbeWork;
+	}
+
+	@Benchmark
+	public double[] gallerySeparate() {
+		double[][] arrays = copy(gallery, galleryWork);
+		for (double[] array : arrays) {
+			streamDivideByMax(array);
+		}
+		double[] crossMeans = columnMajorCrossMeans(arrays);
+		ArrayTool.minusCrossMeans(arrays, crossMeans);
+		return crossMeans;
+	}
+
+	@Benchmark
+	public double[] galleryFused() {
+		return ArrayTool.normalizeAndCenter(copy(gallery, galleryWork));
+	}
+
+	@Benchmark
+	public float[] galleryFusedFloat() {
+		return ArrayTool.normalizeAndCenter(copy(floatGallery, floatGalleryWork));
+	}
+
+	@Benchmark
+	public double[] crossMeansColumnMajor() {
+		return columnMajorCrossMeans(gallery);
+	}
+
+	@Benchmark
+	public double[] crossMeansBlocked() {
+		return ArrayTool.findCrossMeans(gallery);
+	}
+
+	@Benchmark
+	public double normStream() {
+		return Arrays.stream(probe).map(a -> a * a).sum();
+	}
+
+	@Benchmark
+	public double normUnrolled() {
+		return ArrayTool.sumOfSquares(probe);
+	}
+
+	@Benchmark
+	public double normUnrolledFloat() {
+		return ArrayTool.sumOfSquares(floatProbe);
+	}
+
+	private static void streamDivideByMax(double[] array) {
+		Arrays.stream(array).max().ifPresent(max -> {
+			for (int i = 0; i < array.length; i++) {
+				array[i] /= max;
+			}
+		});
+	}
+
+	private static double[] columnMajorCrossMeans(double[][] arrays) {
+		double[] columnMeans = new double[arrays[0].length];
+		for (int col = 0; col < columnMeans.length; col++) {
+			double sum = 0;
+			for (int row = 0; row < arrays.length; row++) {
+				sum += arrays[row][col];
+			}
+			columnMeans[col] = sum / arrays.length;
+		}
+		return columnMeans;
+	}
+
+	private static double[][] copy(double[][] from, double[][] to) {
+		for (int row = 0; row < from.length; row++) {
+			System.arraycopy(from[row], 0, to[row], 0, from[row].length);
+		}
+		return to;
+	}
+
+	private static float[][] copy(float[][] from, float[][] to) {
+		for (int row = 0; row < from.length; row++) {
+			System.arraycopy(from[row], 0, to[row], 0, from[row].length);
+		}
+		return to;
+	}
+
+	private static float[] toFloats(double[] values) {
+		float[] floats = new float[values.length];
+		for (int i = 0; i < values.length; i++) {
+			floats[i] = (float) values[i];
+		}
+		return floats;
+	}
+}
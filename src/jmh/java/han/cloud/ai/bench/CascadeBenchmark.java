@@ -0,0 +1,84 @@
+package han.cloud.ai.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.face.CascadeFaceRecognizer;
+import han.cloud.ai.face.EigenFaceModel;
+import han.cloud.ai.model.MatchInfo;
+
+/**
+ * The accuracy/latency trade-off of {@link CascadeFaceRecognizer} over the
+ * shortlist size {@code k}.
+ * <p>
+ * The second stage is a {@link PixelDistanceRecognizer}, so the latency shows
+ * the shape of the trade-off rather than landmark timings. Accuracy is the
+ * ratio of the {@code correct} counter to {@code correct + wrong}.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CascadeBenchmark {
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Accuracy {
+
+		public long correct;
+		public long wrong;
+	}
+
+	@Param({ "100" })
+	public int gallerySize;
+
+	@Param({ "1", "5", "20", "100" })
+	public int k;
+
+	private CascadeFaceRecognizer recognizer;
+	private List<BufferedImage> gallery;
+	private BufferedImage[] probes;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		gallery = SyntheticFaces.gallery(gallerySize, 0);
+		recognizer = new CascadeFaceRecognizer(EigenFaceModel.train(gallery), new PixelDistanceRecognizer(), k);
+		probes = SyntheticFaces.gallery(gallerySize, 1).toArray(new BufferedImage[0]);
+	}
+
+	@Benchmark
+	public MatchInfo recognize(Accuracy accuracy) {
+
+		int identity = next;
+		next = (next + 1) % probes.length;
+
+		MatchInfo matchInfo = recognizer.recognize(gallery, probes[identity]);
+		if (matchInfo.getIndex() == identity) {
+			accuracy.correct++;
+		} else {
+			accuracy.wrong++;
+		}
+		return matchInfo;
+	}
+}
@@ -0,0 +1,58 @@
+package han.cloud.ai.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.face.EigenFaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+
+/**
+ * Eigenface training and recognition across gallery sizes.
+ * <p>
+ * {@link EigenFaceRecognizer#recognize(List, BufferedImage)} trains on the
+ * gallery on every call, so it measures training plus one recognition.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EigenFaceBenchmark {
+
+	@Param({ "10", "50", "200" })
+	public int gallerySize;
+
+	private EigenFaceRecognizer recognizer;
+	private List<BufferedImage> gallery;
+	private BufferedImage probe;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		recognizer = new EigenFaceRecognizer(false);
+		gallery = SyntheticFaces.gallery(gallerySize, 0);
+		probe = SyntheticFaces.face(gallerySize / 2, 1);
+	}
+
+	@Benchmark
+	public MatchInfo trainAndRecognize() {
+		return recognizer.recognize(gallery, probe);
+	}
+}
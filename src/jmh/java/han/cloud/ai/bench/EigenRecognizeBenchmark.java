@@ -0,0 +1,66 @@
+package han.cloud.ai.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.face.EigenFaceModel;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.ImageTool;
+
+/**
+ * Recognizing one face against a trained {@link EigenFaceModel}, through the
+ * per-thread single precision path of {@link EigenFaceModel#recognize(BufferedImage)}
+ * versus reading the pixels into a fresh {@code double[]} and projecting them.
+ * <p>
+ * Run with {@code -prof gc}: {@code gc.alloc.rate.norm} of {@link #recognize()}
+ * should be the size of the returned {@link MatchInfo} alone.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EigenRecognizeBenchmark {
+
+	@Param({ "50", "200" })
+	public int gallerySize;
+
+	private EigenFaceModel model;
+	private BufferedImage probe;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		model = EigenFaceModel.train(SyntheticFaces.gallery(gallerySize, 0));
+		probe = SyntheticFaces.face(gallerySize / 2, 1);
+	}
+
+	@Benchmark
+	public MatchInfo recognize() {
+		return model.recognize(probe);
+	}
+
+	@Benchmark
+	public MatchInfo doublePixels() {
+		double[] pixels = ImageTool.toPixels(probe, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
+		double[] weights = model.getSpace().project(pixels, new double[model.getSpace().getDimension()]);
+		return model.recognize(weights);
+	}
+}
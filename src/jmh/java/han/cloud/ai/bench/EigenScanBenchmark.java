@@ -0,0 +1,89 @@
+package han.cloud.ai.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.face.EigenFaceModel;
+import han.cloud.ai.face.EigenSpace;
+import han.cloud.ai.face.FaceSources;
+import han.cloud.ai.model.MatchInfo;
+
+/**
+ * The pruned gallery scan of {@link EigenFaceModel} against a full scan of the
+ * same weights held row by row, over large galleries projected into a space of
+ * 150 synthetic faces.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EigenScanBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int gallerySize;
+
+	private EigenFaceModel model;
+	private double[] rows;
+	private double[] probe;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		EigenSpace space = EigenFaceModel.train(SyntheticFaces.gallery(150, 0)).getSpace();
+
+		List<BufferedImage> faces = new ArrayList<>(gallerySize);
+		for (int i = 0; i < gallerySize; i++) {
+			faces.add(SyntheticFaces.face(i % 2000, i / 2000));
+		}
+		model = EigenFaceModel.build(space, FaceSources.of(faces));
+
+		int dimension = space.getDimension();
+		rows = new double[gallerySize * dimension];
+		for (int row = 0; row < gallerySize; row++) {
+			System.arraycopy(model.getWeights(row), 0, rows, row * dimension, dimension);
+		}
+
+		probe = space.project(SyntheticFaces.face(gallerySize / 3 % 2000, 7));
+	}
+
+	@Benchmark
+	public MatchInfo pruned() {
+		return model.recognize(probe);
+	}
+
+	@Benchmark
+	public double fullScan() {
+		int dimension = probe.length;
+		double minSum = Double.MAX_VALUE;
+		for (int row = 0; row < gallerySize; row++) {
+			int offset = row * dimension;
+			double sum = 0;
+			for (int col = 0; col < dimension; col++) {
+				double value = rows[offset + col] - probe[col];
+				sum += value * value;
+			}
+			minSum = Math.min(minSum, sum);
+		}
+		return Math.sqrt(minSum);
+	}
+}
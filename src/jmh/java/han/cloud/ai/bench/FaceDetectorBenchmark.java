@@ -0,0 +1,65 @@
+package han.cloud.ai.bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.face.FaceDetector;
+
+/**
+ * Haar cascade detection over photos of growing size.
+ * <p>
+ * Needs the cascade under {@code PYTHON_HOME}, like {@link FaceDetector} itself.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FaceDetectorBenchmark {
+
+	@Param({ "320x240", "640x480", "1280x960" })
+	public String size;
+
+	@Param({ "1", "4" })
+	public int faces;
+
+	private FaceDetector detector;
+	private BufferedImage photo;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		String[] dims = size.split("x");
+		photo = SyntheticFaces.photo(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]), faces);
+		detector = FaceDetector.instance();
+	}
+
+	@Benchmark
+	public List<Rectangle> findFaces() {
+		return detector.findFaces(photo, -1);
+	}
+
+	@Benchmark
+	public Optional<Rectangle> findBiggestFace() {
+		return detector.findBiggestFace(photo);
+	}
+}
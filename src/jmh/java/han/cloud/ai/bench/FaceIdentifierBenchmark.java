@@ -0,0 +1,81 @@
+package han.cloud.ai.bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.face.EigenFaceModel;
+import han.cloud.ai.face.FaceDetector;
+import han.cloud.ai.face.FaceIdentifier;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.ImageTool;
+import han.cloud.ai.util.KeyValuePair;
+
+/**
+ * Detecting and recognizing every face of a photo, chained call by call versus
+ * in one {@link FaceIdentifier#identifyAll(BufferedImage)}.
+ * <p>
+ * Sampled to show the tail latencies; run with {@code -prof gc} to compare the
+ * allocation rates. Needs the cascade under {@code PYTHON_HOME}, like
+ * {@link FaceDetector} itself.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FaceIdentifierBenchmark {
+
+	@Param({ "1", "4", "8" })
+	public int faces;
+
+	@Param({ "200" })
+	public int gallerySize;
+
+	private FaceDetector detector;
+	private EigenFaceModel model;
+	private FaceIdentifier identifier;
+	private BufferedImage photo;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		photo = SyntheticFaces.photo(1280, 960, faces);
+		detector = FaceDetector.instance();
+		model = EigenFaceModel.train(SyntheticFaces.gallery(gallerySize, 0));
+		identifier = new FaceIdentifier(detector, model);
+	}
+
+	@Benchmark
+	public List<KeyValuePair<Rectangle, MatchInfo>> chained() {
+		List<KeyValuePair<Rectangle, MatchInfo>> results = new ArrayList<>();
+		for (Rectangle rect : detector.findFaces(photo, -1)) {
+			BufferedImage face = ImageTool.grayAndResizeToFace(ImageTool.extract(photo, rect));
+			results.add(new KeyValuePair<>(rect, model.recognize(face)));
+		}
+		return results;
+	}
+
+	@Benchmark
+	public List<KeyValuePair<Rectangle, MatchInfo>> identifyAll() {
+		return identifier.identifyAll(photo);
+	}
+}
@@ -0,0 +1,74 @@
+package han.cloud.ai.bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.FaceNormalizer;
+import han.cloud.ai.util.GrayDecoder;
+
+/**
+ * Getting a normalized face out of an encoded photo, read by
+ * {@link ImageIO} into a {@link BufferedImage} versus decoded straight into
+ * gray by {@link GrayDecoder}, at full size and reduced.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GrayDecoderBenchmark {
+
+	@Param({ "jpg", "png" })
+	public String format;
+
+	@Param({ "1", "4" })
+	public int reduction;
+
+	private ByteBuffer encoded;
+	private final Rectangle region = new Rectangle(300, 200, 400, 400);
+	private final byte[] face = new byte[FaceConstants.columns];
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(SyntheticFaces.photo(1280, 960, 3), format, out);
+		encoded = ByteBuffer.wrap(out.toByteArray());
+	}
+
+	@Benchmark
+	public byte[] imageIO() throws IOException {
+		BufferedImage photo = ImageIO.read(new ByteArrayInputStream(encoded.array()));
+		return FaceNormalizer.normalize(photo, region, face, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
+	}
+
+	@Benchmark
+	public byte[] grayDecoder() {
+		return GrayDecoder.normalize(encoded, reduction, region, face, FaceConstants.FACE_WIDTH,
+				FaceConstants.FACE_HEIGHT);
+	}
+}
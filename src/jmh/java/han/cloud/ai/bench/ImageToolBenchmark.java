@@ -0,0 +1,90 @@
+package han.cloud.ai.bench;
+
+import static org.bytedeco.javacpp.opencv_core.cvReleaseImage;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.FaceNormalizer;
+import han.cloud.ai.util.ImageTool;
+
+/**
+ * Image conversion costs paid on every detection and recognition request.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageToolBenchmark {
+
+	@Param({ "320x240", "640x480", "1280x960" })
+	public String size;
+
+	private BufferedImage photo;
+	private BufferedImage face;
+	private IplImage intel;
+	private byte[] normalized = new byte[FaceConstants.columns];
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		String[] dims = size.split("x");
+		photo = SyntheticFaces.photo(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]), 1);
+		face = SyntheticFaces.face(0, 0);
+		intel = ImageTool.toIntelImage(photo);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		intel.release();
+	}
+
+	@Benchmark
+	public double[] toPixels() {
+		return ImageTool.toPixels(face);
+	}
+
+	@Benchmark
+	public BufferedImage grayAndResizeToFace() {
+		return ImageTool.grayAndResizeToFace(photo);
+	}
+
+	@Benchmark
+	public byte[] normalizeInto() {
+		return FaceNormalizer.normalize(photo, null, normalized, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
+	}
+
+	@Benchmark
+	public IplImage toIntelImage() {
+		IplImage image = ImageTool.toIntelImage(photo);
+		image.release();
+		return image;
+	}
+
+	@Benchmark
+	public IplImage copyGray() {
+		IplImage gray = ImageTool.copyGray(intel);
+		cvReleaseImage(gray); // created with no deallocator, so release() frees nothing
+		return gray;
+	}
+}
@@ -0,0 +1,74 @@
+package han.cloud.ai.bench;
+
+import java.awt.image.BufferedImage;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.ImageTool;
+
+/**
+ * The Java side of handing faces over to Python in
+ * {@link han.cloud.ai.face.LandmarkFaceRegcognizer}: copying the gray samples
+ * into the direct buffers numpy reads from. The interpreter itself is not
+ * needed, so this runs offline.
+ *
+ * @author Jiayun Han
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LandmarkHandoffBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int gallerySize;
+
+	private List<BufferedImage> gallery;
+	private BufferedImage probe;
+	private ByteBuffer probeBuffer;
+	private ByteBuffer galleryBuffer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int faceSize = FaceConstants.FACE_WIDTH * FaceConstants.FACE_HEIGHT;
+		gallery = SyntheticFaces.gallery(gallerySize, 0);
+		probe = SyntheticFaces.face(0, 1);
+		probeBuffer = ByteBuffer.allocateDirect(faceSize);
+		galleryBuffer = ByteBuffer.allocateDirect(gallerySize * faceSize);
+	}
+
+	@Benchmark
+	public ByteBuffer probe() {
+		((Buffer) probeBuffer).clear();
+		ImageTool.copyGrayBytes(probe, probeBuffer);
+		return probeBuffer;
+	}
+
+	@Benchmark
+	public ByteBuffer gallery() {
+		((Buffer) galleryBuffer).clear();
+		for (BufferedImage face : gallery) {
+			ImageTool.copyGrayBytes(face, galleryBuffer);
+		}
+		return galleryBuffer;
+	}
+}
@@ -0,0 +1,532 @@
+package han.cloud.ai.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.opencv_core;
+
+import han.cloud.ai.face.EigenFaceModel;
+import han.cloud.ai.face.FaceDetector;
+import han.cloud.ai.face.FaceIdentifier;
+import han.cloud.ai.face.PooledLandmarkFaceRecognizer;
+import han.cloud.ai.face.PythonWorkerPool;
+import han.cloud.ai.metrics.LatencyHistogram;
+import han.cloud.ai.util.ImageTool;
+import han.cloud.ai.util.IoTool;
+
+/**
+ * <p>
+ * A closed-loop load test of detection and recognition: a number of clients
+ * each issue one request after the other, picked at random by a weighted mix,
+ * for a fixed duration after a warm-up.
+ *
+ * <p>
+ * Unlike the JMH benchmarks, it shows what concurrency does to the shared
+ * parts: the {@link FaceDetector} cascade, the Python workers and the garbage
+ * collector. Every interval, and once more at the end, it reports the
+ * throughput and latency percentiles of each kind of request, the allocation
+ * rate, the garbage collections, the heap and the native memory held through
+ * JavaCPP. It runs offline on {@link SyntheticFaces} unless folders of images
+ * are given:
+ *
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec@load -Dload.args="--clients 16 --mix recognize=4,identify=1"
+ * </pre>
+ *
+ * <p>
+ * The {@code detect} and {@code identify} requests need the cascade under
+ * {@code PYTHON_HOME}, and {@code landmark} needs the Python workers too.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class LoadTest {
+
+	private enum Operation {
+		DETECT, RECOGNIZE, IDENTIFY, LANDMARK;
+
+		private String label() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/*
+	 * The command line options, with their defaults
+	 */
+	private static final class Options {
+
+		private int clients = Runtime.getRuntime().availableProcessors();
+		private long warmup = 10;
+		private long duration = 60;
+		private long interval = 5;
+		private int gallerySize = 500;
+		private int photoFaces = 3;
+		private Map<Operation, Integer> mix = parseMix("recognize=4,detect=1,identify=1");
+		private Path photos;
+		private Path faces;
+		private Path csv;
+
+		private static Options parse(String[] args) {
+
+			Options options = new Options();
+
+			for (int i = 0; i < args.length; i += 2) {
+
+				if (i + 1 == args.length) {
+					throw new IllegalArgumentException("Missing the value of " + args[i]);
+				}
+
+				String value = args[i + 1];
+
+				switch (args[i]) {
+				case "--clients":
+					options.clients = Integer.parseInt(value);
+					break;
+				case "--warmup":
+					options.warmup = Long.parseLong(value);
+					break;
+				case "--duration":
+					options.duration = Long.parseLong(value);
+					break;
+				case "--interval":
+					options.interval = Long.parseLong(value);
+					break;
+				case "--gallery":
+					options.gallerySize = Integer.parseInt(value);
+					break;
+				case "--photo-faces":
+					options.photoFaces = Integer.parseInt(value);
+					break;
+				case "--mix":
+					options.mix = parseMix(value);
+					break;
+				case "--photos":
+					options.photos = Paths.get(value);
+					break;
+				case "--faces":
+					options.faces = Paths.get(value);
+					break;
+				case "--csv":
+					options.csv = Paths.get(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+
+			if (options.clients < 1 || options.duration < 1 || options.interval < 1 || options.gallerySize < 1) {
+				throw new IllegalArgumentException("The clients, duration, interval and gallery must be positive");
+			}
+
+			return options;
+		}
+
+		// detect=1,recognize=4 -> the weight of each operation
+		private static Map<Operation, Integer> parseMix(String mix) {
+
+			Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+
+			for (String entry : mix.split(",")) {
+				String[] pair = entry.split("=");
+				Operation operation = Operation.valueOf(pair[0].trim().toUpperCase(Locale.ROOT));
+				int weight = pair.length == 1 ? 1 : Integer.parseInt(pair[1].trim());
+				if (weight > 0) {
+					weights.put(operation, weight);
+				}
+			}
+
+			if (weights.isEmpty()) {
+				throw new IllegalArgumentException("The mix has no operation: " + mix);
+			}
+
+			return weights;
+		}
+
+		private boolean uses(Operation operation) {
+			return mix.containsKey(operation);
+		}
+	}
+
+	/*
+	 * The latencies and errors of one operation, over the last interval and over
+	 * the whole run
+	 */
+	private static final class OperationStats {
+
+		private final LatencyHistogram interval = new LatencyHistogram();
+		private final LatencyHistogram total = new LatencyHistogram();
+		private final LongAdder intervalErrors = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+
+		private void record(long nanos) {
+			interval.record(nanos);
+			total.record(nanos);
+		}
+
+		private void fail() {
+			intervalErrors.increment();
+			errors.increment();
+		}
+	}
+
+	/*
+	 * The resource counters at one point in time
+	 */
+	private static final class Snapshot {
+
+		private final long time = System.nanoTime();
+		private final long allocated;
+		private final long collections;
+		private final long collectionMillis;
+
+		private Snapshot() {
+
+			long count = 0;
+			long millis = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				count += Math.max(0, gc.getCollectionCount());
+				millis += Math.max(0, gc.getCollectionTime());
+			}
+
+			this.allocated = allocatedBytes();
+			this.collections = count;
+			this.collectionMillis = millis;
+		}
+
+		// The bytes allocated so far by the live threads, or -1 if the JVM cannot
+		// tell
+		private static long allocatedBytes() {
+
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+				return -1;
+			}
+
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+				return -1;
+			}
+
+			long sum = 0;
+			for (long bytes : hotspot.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+				sum += Math.max(0, bytes);
+			}
+			return sum;
+		}
+	}
+
+	private static final double MB = 1024 * 1024;
+
+	private final Options options;
+	private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+	private final Operation[] draws;
+
+	private final List<BufferedImage> gallery;
+	private final List<BufferedImage> probes;
+	private final List<BufferedImage> photos;
+
+	private EigenFaceModel model;
+	private FaceDetector detector;
+	private FaceIdentifier identifier;
+	private PythonWorkerPool pool;
+	private PooledLandmarkFaceRecognizer landmark;
+
+	private volatile boolean measuring;
+	private volatile boolean stopped;
+
+	private LoadTest(Options options) throws IOException {
+
+		this.options = options;
+
+		List<Operation> draws = new ArrayList<>();
+		options.mix.forEach((operation, weight) -> {
+			stats.put(operation, new OperationStats());
+			for (int i = 0; i < weight; i++) {
+				draws.add(operation);
+			}
+		});
+		this.draws = draws.toArray(new Operation[0]);
+
+		if (options.faces == null) {
+			gallery = SyntheticFaces.gallery(options.gallerySize, 0);
+			probes = new ArrayList<>();
+			for (int i = 0; i < Math.min(64, options.gallerySize); i++) {
+				probes.add(SyntheticFaces.face(i, 1));
+			}
+		} else {
+			gallery = ImageTool.grayAndResizeToFaces(readImages(options.faces, options.gallerySize));
+			probes = gallery;
+		}
+
+		if (options.photos == null) {
+			photos = new ArrayList<>();
+			for (int faces = 1; faces <= options.photoFaces; faces++) {
+				photos.add(SyntheticFaces.photo(1280, 960, faces));
+			}
+		} else {
+			photos = readImages(options.photos, Integer.MAX_VALUE);
+		}
+	}
+
+	private static List<BufferedImage> readImages(Path directory, int max) throws IOException {
+
+		List<BufferedImage> images = new ArrayList<>();
+		for (Path path : IoTool.listImages(directory)) {
+			if (images.size() == max) {
+				break;
+			}
+			images.add(IoTool.readImage(path));
+		}
+
+		if (images.isEmpty()) {
+			throw new IllegalArgumentException("No image in " + directory);
+		}
+
+		return images;
+	}
+
+	/*
+	 * Builds what the mix needs and checks that it works before any client
+	 * starts, so that a missing cascade or Python fails the run at once
+	 */
+	private void setUp() throws IOException {
+
+		// Reading the native memory needs the natives of JavaCPP, even when the mix
+		// does not touch OpenCV
+		Loader.load(opencv_core.class);
+
+		long start = System.nanoTime();
+		model = EigenFaceModel.train(gallery);
+		System.out.printf("Trained on %d faces in %.1f s%n", gallery.size(), seconds(System.nanoTime() - start));
+
+		if (options.uses(Operation.DETECT) || options.uses(Operation.IDENTIFY)) {
+			detector = FaceDetector.instance();
+			identifier = new FaceIdentifier(detector, model);
+			check(Operation.DETECT);
+		}
+
+		if (options.uses(Operation.LANDMARK)) {
+			pool = new PythonWorkerPool();
+			landmark = new PooledLandmarkFaceRecognizer(pool);
+			check(Operation.LANDMARK);
+		}
+	}
+
+	private void check(Operation operation) {
+		try {
+			execute(operation, ThreadLocalRandom.current());
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("Cannot " + operation.label() + "; drop it from --mix or set PYTHON_HOME",
+					e);
+		}
+	}
+
+	private Object execute(Operation operation, ThreadLocalRandom random) {
+		switch (operation) {
+		case DETECT:
+			return detector.findFaces(pick(photos, random), -1);
+		case RECOGNIZE:
+			return model.recognize(pick(probes, random));
+		case IDENTIFY:
+			return identifier.identifyAll(pick(photos, random));
+		case LANDMARK:
+			return landmark.recognize(gallery, pick(probes, random));
+		default:
+			throw new IllegalArgumentException(operation.name());
+		}
+	}
+
+	private static <T> T pick(List<T> items, ThreadLocalRandom random) {
+		return items.get(random.nextInt(items.size()));
+	}
+
+	private void client(CountDownLatch done) {
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		try {
+			while (!stopped) {
+
+				Operation operation = draws[random.nextInt(draws.length)];
+				boolean measured = measuring;
+				long start = System.nanoTime();
+
+				try {
+					execute(operation, random);
+					if (measured) {
+						stats.get(operation).record(System.nanoTime() - start);
+					}
+				} catch (RuntimeException e) {
+					if (measured) {
+						stats.get(operation).fail();
+					}
+				}
+			}
+		} finally {
+			done.countDown();
+		}
+	}
+
+	private void run() throws IOException, InterruptedException {
+
+		System.out.printf("%d clients, mix %s, gallery %d, %d photos, warm-up %d s, duration %d s%n", options.clients,
+				options.mix, gallery.size(), photos.size(), options.warmup, options.duration);
+
+		CountDownLatch done = new CountDownLatch(options.clients);
+		for (int i = 0; i < options.clients; i++) {
+			Thread thread = new Thread(() -> client(done), "load-client-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		TimeUnit.SECONDS.sleep(options.warmup);
+		stats.values().forEach(s -> s.interval.reset());
+		measuring = true;
+
+		try (PrintWriter csv = options.csv == null ? null
+				: new PrintWriter(Files.newBufferedWriter(options.csv, StandardCharsets.UTF_8))) {
+
+			if (csv != null) {
+				csv.println("seconds,operation,count,errors,opsPerSecond,p50Millis,p99Millis,maxMillis,"
+						+ "allocMBPerSecond,gcCount,gcMillis,heapMB,nativeMB,physicalMB");
+			}
+
+			Snapshot first = new Snapshot();
+			Snapshot last = first;
+			long end = first.time + TimeUnit.SECONDS.toNanos(options.duration);
+
+			while (System.nanoTime() < end) {
+				long pause = Math.min(TimeUnit.SECONDS.toNanos(options.interval), end - System.nanoTime());
+				TimeUnit.NANOSECONDS.sleep(Math.max(0, pause));
+
+				Snapshot now = new Snapshot();
+				report(first, last, now, csv);
+				last = now;
+			}
+
+			stopped = true;
+			measuring = false;
+			done.await(1, TimeUnit.MINUTES);
+
+			summarize(first, last);
+		} finally {
+			if (pool != null) {
+				pool.close();
+			}
+		}
+	}
+
+	private void report(Snapshot first, Snapshot last, Snapshot now, PrintWriter csv) {
+
+		double elapsed = seconds(now.time - first.time);
+		double seconds = seconds(now.time - last.time);
+		double allocRate = last.allocated < 0 ? Double.NaN : (now.allocated - last.allocated) / MB / seconds;
+		long collections = now.collections - last.collections;
+		long collectionMillis = now.collectionMillis - last.collectionMillis;
+		double heap = heapBytes() / MB;
+		double nativeTotal = Pointer.totalBytes() / MB;
+		double physical = Pointer.physicalBytes() / MB;
+
+		System.out.printf("%n[%6.1f s] alloc %8.1f MB/s, gc %3d (%5d ms), heap %7.1f MB, native %7.1f MB, rss %7.1f MB%n",
+				elapsed, allocRate, collections, collectionMillis, heap, nativeTotal, physical);
+
+		stats.forEach((operation, s) -> {
+
+			LatencyHistogram histogram = s.interval;
+			long count = histogram.getCount();
+			long errors = s.intervalErrors.sumThenReset();
+
+			System.out.printf("  %-10s %8.1f ops/s  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms  errors %d%n",
+					operation.label(), count / seconds, millis(histogram.getPercentile(50)),
+					millis(histogram.getPercentile(99)), millis(histogram.getMax()), errors);
+
+			if (csv != null) {
+				csv.printf(Locale.ROOT, "%.1f,%s,%d,%d,%.1f,%.3f,%.3f,%.3f,%.1f,%d,%d,%.1f,%.1f,%.1f%n", elapsed,
+						operation.label(), count, errors, count / seconds, millis(histogram.getPercentile(50)),
+						millis(histogram.getPercentile(99)), millis(histogram.getMax()), allocRate, collections,
+						collectionMillis, heap, nativeTotal, physical);
+			}
+
+			histogram.reset();
+		});
+
+		if (csv != null) {
+			csv.flush();
+		}
+	}
+
+	private void summarize(Snapshot first, Snapshot last) {
+
+		double seconds = seconds(last.time - first.time);
+		double allocRate = first.allocated < 0 ? Double.NaN : (last.allocated - first.allocated) / MB / seconds;
+
+		System.out.printf("%nTotal over %.1f s: alloc %.1f MB/s, gc %d (%d ms)%n", seconds, allocRate,
+				last.collections - first.collections, last.collectionMillis - first.collectionMillis);
+
+		stats.forEach((operation, s) -> {
+			LatencyHistogram histogram = s.total;
+			System.out.printf(
+					"  %-10s %8d ops  %8.1f ops/s  mean %8.2f ms  p50 %8.2f  p90 %8.2f  p99 %8.2f  p99.9 %8.2f  max %8.2f ms  errors %d%n",
+					operation.label(), histogram.getCount(), histogram.getCount() / seconds,
+					millis((long) histogram.getMean()), millis(histogram.getPercentile(50)),
+					millis(histogram.getPercentile(90)), millis(histogram.getPercentile(99)),
+					millis(histogram.getPercentile(99.9)), millis(histogram.getMax()), s.errors.sum());
+		});
+	}
+
+	private static long heapBytes() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static void usage() {
+		System.err.println("Options: --clients N --warmup SECONDS --duration SECONDS --interval SECONDS --gallery N"
+				+ " --photo-faces N --mix detect=1,recognize=4,identify=1,landmark=0"
+				+ " --photos DIR --faces DIR --csv FILE");
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+			System.exit(2);
+			return;
+		}
+
+		LoadTest test = new LoadTest(options);
+		test.setUp();
+		test.run();
+	}
+}
@@ -0,0 +1,42 @@
+package han.cloud.ai.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.ImageTool;
+
+/**
+ * An offline stand-in for the landmark recognizer: exact on the synthetic faces
+ * and, like the landmark recognizer, paying a fixed cost per gallery face.
+ *
+ * @author Jiayun Han
+ *
+ */
+public class PixelDistanceRecognizer implements FaceRecognizer {
+
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face) {
+
+		double[] probe = ImageTool.toPixels(face);
+
+		int index = -1;
+		double minSum = Double.MAX_VALUE;
+
+		for (int i = 0; i < faces.size(); i++) {
+			double[] pixels = ImageTool.toPixels(faces.get(i));
+			double sum = 0;
+			for (int j = 0; j < pixels.length; j++) {
+				double value = pixels[j] - probe[j];
+				sum += value * value;
+			}
+			if (sum < minSum) {
+				minSum = sum;
+				index = i;
+			}
+		}
+
+		return new MatchInfo(Math.sqrt(minSum), index);
+	}
+}
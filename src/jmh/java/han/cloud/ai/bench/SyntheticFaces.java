@@ -0,0 +1,180 @@
+package han.cloud.ai.bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import han.cloud.ai.util.FaceConstants;
+
+/**
+ * A deterministic generator of face-like images, so that the benchmarks run
+ * offline and always measure the same data.
+ *
+ * <p>
+ * Each identity is a set of facial proportions derived from its number; a
+ * capture of an identity jitters those proportions and adds noise, so that two
+ * captures of one identity are close but not equal.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class SyntheticFaces {
+
+	private static final long SEED = 0x5EEDFACEL;
+
+	private SyntheticFaces() {
+	}
+
+	/**
+	 * Returns one gray capture in standard face size for each of the first
+	 * {@code count} identities
+	 *
+	 * @param count
+	 *            The number of identities
+	 * @param capture
+	 *            Which capture of each identity to return
+	 * @return One capture per identity, identity {@code i} at index {@code i}
+	 */
+	public static List<BufferedImage> gallery(int count, int capture) {
+		List<BufferedImage> faces = new ArrayList<>(count);
+		for (int identity = 0; identity < count; identity++) {
+			faces.add(face(identity, capture));
+		}
+		return faces;
+	}
+
+	/**
+	 * Returns a gray capture of {@code identity} in standard face size
+	 *
+	 * @param identity
+	 *            The identity of the face
+	 * @param capture
+	 *            The capture number; different captures differ slightly
+	 * @return A gray capture of {@code identity}
+	 */
+	public static BufferedImage face(int identity, int capture) {
+
+		BufferedImage image = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+				BufferedImage.TYPE_BYTE_GRAY);
+
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.DARK_GRAY);
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		drawFace(g, identity, capture, 0, 0, image.getWidth(), image.getHeight());
+		g.dispose();
+
+		addNoise(image, new Random(seed(identity, capture) ^ 1));
+		return image;
+	}
+
+	/**
+	 * Returns a color photo of the given size with {@code faces} faces laid out
+	 * in a row, on a textured background
+	 *
+	 * @param width
+	 *            The width of the photo
+	 * @param height
+	 *            The height of the photo
+	 * @param faces
+	 *            The number of faces in the photo
+	 * @return A color photo with {@code faces} faces
+	 */
+	public static BufferedImage photo(int width, int height, int faces) {
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Random random = new Random(seed(width * 65536 + height, faces));
+
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+		for (int y = 0; y < height; y += 16) {
+			for (int x = 0; x < width; x += 16) {
+				int shade = 60 + random.nextInt(60);
+				g.setColor(new Color(shade, shade + 10, shade + 20));
+				g.fillRect(x, y, 16, 16);
+			}
+		}
+
+		int slot = width / Math.max(1, faces);
+		int faceWidth = Math.min(slot * 3 / 4, height * 5 / 8);
+		int faceHeight = faceWidth * 6 / 5;
+
+		for (int i = 0; i < faces; i++) {
+			int x = i * slot + (slot - faceWidth) / 2;
+			int y = (height - faceHeight) / 2;
+			drawFace(g, i, 0, x, y, faceWidth, faceHeight);
+		}
+
+		g.dispose();
+		return image;
+	}
+
+	private static void drawFace(Graphics2D g, int identity, int capture, int x, int y, int width, int height) {
+
+		Random shape = new Random(seed(identity, -1));
+		Random jitter = new Random(seed(identity, capture));
+
+		double faceScale = 0.80 + 0.15 * shape.nextDouble() + 0.002 * jitter.nextGaussian();
+		double eyeSpacing = 0.18 + 0.08 * shape.nextDouble() + 0.002 * jitter.nextGaussian();
+		double eyeHeight = 0.35 + 0.08 * shape.nextDouble();
+		double eyeSize = 0.08 + 0.05 * shape.nextDouble();
+		double noseLength = 0.12 + 0.08 * shape.nextDouble();
+		double mouthWidth = 0.25 + 0.15 * shape.nextDouble() + 0.002 * jitter.nextGaussian();
+		double mouthHeight = 0.70 + 0.06 * shape.nextDouble();
+		int skin = 150 + shape.nextInt(80) + (int) (2 * jitter.nextGaussian());
+
+		int faceWidth = (int) (width * faceScale);
+		int faceHeight = (int) (height * faceScale);
+		int left = x + (width - faceWidth) / 2;
+		int top = y + (height - faceHeight) / 2;
+
+		g.setColor(gray(skin));
+		g.fillOval(left, top, faceWidth, faceHeight);
+
+		int eyeWidth = (int) (faceWidth * eyeSize);
+		int eyeY = top + (int) (faceHeight * eyeHeight);
+		int centerX = left + faceWidth / 2;
+		int eyeOffset = (int) (faceWidth * eyeSpacing);
+
+		g.setColor(gray(skin - 110));
+		g.fillOval(centerX - eyeOffset - eyeWidth / 2, eyeY, eyeWidth, eyeWidth / 2 + 1);
+		g.fillOval(centerX + eyeOffset - eyeWidth / 2, eyeY, eyeWidth, eyeWidth / 2 + 1);
+
+		g.setColor(gray(skin - 40));
+		int noseTop = eyeY + eyeWidth / 2;
+		g.fillRect(centerX - 2, noseTop, 4, (int) (faceHeight * noseLength));
+
+		g.setColor(gray(skin - 80));
+		int mouth = (int) (faceWidth * mouthWidth);
+		g.fillRect(centerX - mouth / 2, top + (int) (faceHeight * mouthHeight), mouth, Math.max(2, faceHeight / 40));
+	}
+
+	// Spreads nearby numbers over the seed space, since Random's first outputs
+	// for nearby seeds are nearly equal
+	private static long seed(int a, int b) {
+		long z = SEED + a * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static Color gray(int value) {
+		int clamped = Math.max(0, Math.min(255, value));
+		return new Color(clamped, clamped, clamped);
+	}
+
+	private static void addNoise(BufferedImage image, Random random) {
+		int[] row = new int[image.getWidth()];
+		for (int y = 0; y < image.getHeight(); y++) {
+			image.getRaster().getSamples(0, y, row.length, 1, 0, row);
+			for (int x = 0; x < row.length; x++) {
+				row[x] = Math.max(0, Math.min(255, row[x] + (int) (3 * random.nextGaussian())));
+			}
+			image.getRaster().setSamples(0, y, row.length, 1, 0, row);
+		}
+	}
+}
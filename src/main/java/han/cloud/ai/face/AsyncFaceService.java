@@ -0,0 +1,299 @@
+package han.cloud.ai.face;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+
+/**
+ * <p>
+ * This class runs face detection and recognition asynchronously on a bounded
+ * executor.
+ *
+ * <p>
+ * At most {@code maxInFlight} tasks are admitted at a time, queued or running;
+ * any task beyond that is rejected at once with a future failed by
+ * {@link RejectedExecutionException}, so that overload sheds requests instead
+ * of piling them up. Cancelling a returned future interrupts the thread running
+ * it, which makes the recognizers stop their gallery scans with a
+ * {@link java.util.concurrent.CancellationException}. A task keeps its place
+ * until its work returns, even once cancelled, so no more than
+ * {@code maxInFlight} tasks ever run at once.
+ *
+ * @author Jiayun Han
+ *
+ */
+public class AsyncFaceService implements AutoCloseable {
+
+	/*
+	 * A task run by the executor, which interrupts its thread when cancelled, as
+	 * CompletableFuture alone never does, and frees its place once its work has
+	 * returned
+	 */
+	private static final class Task<T> extends CompletableFuture<T> implements Runnable {
+
+		private final Supplier<T> work;
+		private final Semaphore admission;
+
+		// The thread running the work, null before and after; guarded by this
+		private Thread runner;
+
+		private Task(Supplier<T> work, Semaphore admission) {
+			this.work = work;
+			this.admission = admission;
+		}
+
+		@Override
+		public void run() {
+
+			synchronized (this) {
+				if (isDone()) {
+					admission.release(); // cancelled while queued
+					return;
+				}
+				runner = Thread.currentThread();
+			}
+
+			T result = null;
+			Throwable failure = null;
+			try {
+				result = work.get();
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				synchronized (this) {
+					runner = null;
+				}
+				// freed before completing, so that a caller waiting for the task can
+				// submit the next one at once
+				admission.release();
+			}
+
+			if (failure == null) {
+				complete(result);
+			} else {
+				completeExceptionally(failure);
+			}
+		}
+
+		// Fails the task that the executor will never run
+		private void reject(RejectedExecutionException cause) {
+			completeExceptionally(cause);
+			admission.release();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				synchronized (this) {
+					if (runner != null) {
+						runner.interrupt();
+					}
+				}
+			}
+			return cancelled;
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncFaceService.class);
+
+	private final FaceDetector detector;
+	private final FaceRecognizer recognizer;
+	private final ExecutorService executor;
+	private final Semaphore admission;
+
+	/**
+	 * Constructs an instance running on {@code executor}
+	 *
+	 * @param detector
+	 *            The detector to find faces with
+	 * @param recognizer
+	 *            The recognizer to recognize faces with
+	 * @param executor
+	 *            The executor to run the tasks on, which must take
+	 *            {@code maxInFlight} tasks at once without rejecting any and is
+	 *            shut down by {@link #close()}
+	 * @param maxInFlight
+	 *            The maximal number of tasks queued or running at a time
+	 */
+	public AsyncFaceService(FaceDetector detector, FaceRecognizer recognizer, ExecutorService executor,
+			int maxInFlight) {
+		this.detector = detector;
+		this.recognizer = recognizer;
+		this.executor = executor;
+		this.admission = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Returns an instance running on {@code threads} daemon platform threads, with
+	 * room for {@code queueCapacity} waiting tasks
+	 *
+	 * @param detector
+	 *            The detector to find faces with
+	 * @param recognizer
+	 *            The recognizer to recognize faces with
+	 * @param threads
+	 *            The number of threads
+	 * @param queueCapacity
+	 *            The maximal number of tasks waiting for a thread; 0 for none, in
+	 *            which case a task is admitted only if a thread can take it
+	 * @return An instance running on platform threads
+	 */
+	public static AsyncFaceService withPlatformThreads(FaceDetector detector, FaceRecognizer recognizer,
+			int threads, int queueCapacity) {
+
+		if (threads < 1) {
+			throw new IllegalArgumentException("Expected at least one thread but got " + threads);
+		}
+		if (queueCapacity < 0) {
+			throw new IllegalArgumentException("The queue capacity must not be negative: " + queueCapacity);
+		}
+
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, "async-face-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		// room for every admitted task, so that a task admitted while the thread of
+		// its predecessor is still finishing waits for it rather than be rejected
+		int maxInFlight = threads + queueCapacity;
+		ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(maxInFlight), factory);
+
+		return new AsyncFaceService(detector, recognizer, executor, maxInFlight);
+	}
+
+	/**
+	 * Returns an instance running each task on its own virtual thread when the JDK
+	 * supports them, otherwise on platform threads, admitting at most
+	 * {@code maxInFlight} tasks at a time
+	 * <p>
+	 * Without virtual threads, the tasks run on one platform thread per processor,
+	 * or {@code maxInFlight} threads if fewer, and the rest of the tasks wait in a
+	 * queue.
+	 *
+	 * @param detector
+	 *            The detector to find faces with
+	 * @param recognizer
+	 *            The recognizer to recognize faces with
+	 * @param maxInFlight
+	 *            The maximal number of tasks queued or running at a time
+	 * @return An instance running on virtual threads when possible
+	 */
+	public static AsyncFaceService withVirtualThreads(FaceDetector detector, FaceRecognizer recognizer,
+			int maxInFlight) {
+
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("Expected at least one task in flight but got " + maxInFlight);
+		}
+
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ExecutorService executor = (ExecutorService) factory.invoke(null);
+			return new AsyncFaceService(detector, recognizer, executor, maxInFlight);
+
+		} catch (ReflectiveOperationException e) {
+			LOGGER.info("Virtual threads are not available; falling back to platform threads");
+			int threads = Math.min(Runtime.getRuntime().availableProcessors(), maxInFlight);
+			return withPlatformThreads(detector, recognizer, threads, maxInFlight - threads);
+		}
+	}
+
+	/**
+	 * @see FaceDetector#findFaces(BufferedImage, int)
+	 */
+	public CompletableFuture<List<Rectangle>> findFaces(BufferedImage image, int max) {
+		return submit(() -> detector.findFaces(image, max));
+	}
+
+	/**
+	 * @see FaceDetector#findBiggestFace(BufferedImage)
+	 */
+	public CompletableFuture<Optional<Rectangle>> findBiggestFace(BufferedImage image) {
+		return submit(() -> detector.findBiggestFace(image));
+	}
+
+	/**
+	 * @see FaceDetector#extractFaces(BufferedImage, int)
+	 */
+	public CompletableFuture<List<BufferedImage>> extractFaces(BufferedImage image, int max) {
+		return submit(() -> detector.extractFaces(image, max));
+	}
+
+	/**
+	 * @see FaceRecognizer#recognize(List, BufferedImage)
+	 */
+	public CompletableFuture<MatchInfo> recognize(List<BufferedImage> faces, BufferedImage face) {
+		return submit(() -> recognizer.recognize(faces, face));
+	}
+
+	/**
+	 * @see FaceRecognizer#recognize(List, BufferedImage, ScanLimit)
+	 */
+	public CompletableFuture<MatchInfo> recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
+		return submit(() -> recognizer.recognize(faces, face, limit));
+	}
+
+	/**
+	 * Returns the number of tasks that can still be admitted
+	 *
+	 * @return The number of tasks that can still be admitted
+	 */
+	public int availableCapacity() {
+		return admission.availablePermits();
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> work) {
+
+		Task<T> task = new Task<>(work, admission);
+
+		if (!admission.tryAcquire()) {
+			task.completeExceptionally(new RejectedExecutionException("Too many face tasks in flight"));
+			return task;
+		}
+
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.reject(e);
+		}
+
+		return task;
+	}
+
+	/**
+	 * Stops the executor, interrupting the running tasks and failing the queued
+	 * ones
+	 */
+	@Override
+	public void close() {
+		RejectedExecutionException cause = new RejectedExecutionException("The face service is closed");
+		for (Runnable dropped : executor.shutdownNow()) {
+			if (dropped instanceof Task) {
+				((Task<?>) dropped).reject(cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+
+/**
+ * <p>
+ * This class recognizes a face in two stages: an {@link EigenFaceModel} of the
+ * gallery first shortlists the {@code k} closest faces, then an accurate but
+ * expensive recognizer, such as {@link LandmarkFaceRegcognizer}, picks the best
+ * match among them.
+ * 
+ * <p>
+ * The model is trained or built once for the gallery, so the first stage only
+ * scans its weights. The cost of the second stage grows with {@code k} rather
+ * than with the size of the gallery, at the risk of missing a match the
+ * eigenfaces rank below the shortlist.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public class CascadeFaceRecognizer implements FaceRecognizer {
+
+	private final EigenFaceModel coarse;
+	private final FaceRecognizer fine;
+	private final int k;
+
+	/**
+	 * Constructs an instance of this class
+	 * 
+	 * @param coarse
+	 *            The model of the gallery to shortlist the candidates with
+	 * @param fine
+	 *            The recognizer to re-rank the candidates with
+	 * @param k
+	 *            The number of candidates passed on to {@code fine}
+	 */
+	public CascadeFaceRecognizer(EigenFaceModel coarse, FaceRecognizer fine, int k) {
+
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+
+		this.coarse = coarse;
+		this.fine = fine;
+		this.k = k;
+	}
+
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face) {
+		return recognize(faces, face, ScanLimit.NONE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The deadline of {@code limit} bounds both stages: a shortlist cut short by
+	 * it holds the closest of the faces scanned, and the match is then
+	 * incomplete. The accept distance only applies to the fine recognizer.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if {@code faces} is not the gallery of the coarse model
+	 */
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
+
+		if (faces.size() != coarse.size()) {
+			throw new IllegalArgumentException(
+					"The gallery has " + faces.size() + " faces but the model " + coarse.size());
+		}
+
+		if (faces.size() <= k) {
+			return fine.recognize(faces, face, limit);
+		}
+
+		int[] candidates = coarse.shortlist(face, k, limit);
+
+		// conservative: the shortlist may have been complete just before expiring
+		boolean shortlisted = !limit.isExpired();
+
+		List<BufferedImage> shortlist = new ArrayList<>(candidates.length);
+		for (int index : candidates) {
+			shortlist.add(faces.get(index));
+		}
+
+		// keeps everything else the fine recognizer says, such as the version and
+		// the quality
+		MatchInfo matchInfo = fine.recognize(shortlist, face, limit);
+
+		int index = matchInfo.getIndex();
+		matchInfo.setIndex(index == -1 ? -1 : candidates[index]);
+		matchInfo.setComplete(shortlisted && matchInfo.isComplete());
+		return matchInfo;
+	}
+
+	public int getK() {
+		return k;
+	}
+}
@@ -0,0 +1,170 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+
+/**
+ * <p>
+ * A gallery whose near-duplicate faces have been collapsed by a
+ * {@link GalleryDeduplicator}, keeping one representative face per cluster.
+ *
+ * <p>
+ * The representatives are what gets trained on and scanned; every index they
+ * are found at can be mapped back to the original gallery, so that a
+ * {@link MatchInfo} stays meaningful to the caller.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class DeduplicatedGallery {
+
+	private final List<BufferedImage> faces;
+	private final int[] representatives;
+	private final int[] clusters;
+
+	/**
+	 * @param original
+	 *            The original gallery
+	 * @param clusters
+	 *            The cluster of each original face, numbered in the order of
+	 *            their first face
+	 * @param count
+	 *            The number of clusters
+	 */
+	DeduplicatedGallery(List<BufferedImage> original, int[] clusters, int count) {
+
+		BufferedImage[] faces = new BufferedImage[count];
+		int[] representatives = new int[count];
+
+		for (int i = clusters.length - 1; i >= 0; i--) {
+			faces[clusters[i]] = original.get(i);
+			representatives[clusters[i]] = i;
+		}
+
+		this.faces = Collections.unmodifiableList(Arrays.asList(faces));
+		this.representatives = representatives;
+		this.clusters = clusters;
+	}
+
+	/**
+	 * Returns the representative face of each cluster, which is its first face in
+	 * the original gallery
+	 *
+	 * @return The faces to train on and scan, in the order of the original
+	 *         gallery
+	 */
+	public List<BufferedImage> getFaces() {
+		return faces;
+	}
+
+	/**
+	 * Returns the number of clusters
+	 *
+	 * @return The number of representative faces
+	 */
+	public int size() {
+		return representatives.length;
+	}
+
+	/**
+	 * Returns the number of faces before deduplication
+	 *
+	 * @return The size of the original gallery
+	 */
+	public int originalSize() {
+		return clusters.length;
+	}
+
+	/**
+	 * Returns the position in the original gallery of the {@code index}-th
+	 * representative
+	 *
+	 * @param index
+	 *            The position of the representative, -1 for none
+	 * @return The position of the representative in the original gallery, or -1
+	 *         if {@code index} is -1
+	 */
+	public int originalIndex(int index) {
+		return index == -1 ? -1 : representatives[index];
+	}
+
+	/**
+	 * Returns the positions in the original gallery of all the faces collapsed
+	 * into the {@code index}-th representative
+	 *
+	 * @param index
+	 *            The position of the representative
+	 * @return The positions of its cluster in the original gallery, ascending
+	 */
+	public int[] members(int index) {
+		int count = 0;
+		for (int cluster : clusters) {
+			if (cluster == index) {
+				count++;
+			}
+		}
+
+		int[] members = new int[count];
+		for (int i = 0, j = 0; i < clusters.length; i++) {
+			if (clusters[i] == index) {
+				members[j++] = i;
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * Returns the representative a face of the original gallery was collapsed
+	 * into
+	 *
+	 * @param originalIndex
+	 *            The position of the face in the original gallery
+	 * @return The position of its representative in {@link #getFaces()}
+	 */
+	public int representativeOf(int originalIndex) {
+		return clusters[originalIndex];
+	}
+
+	/**
+	 * Maps the index of {@code matchInfo}, found among the representatives, back
+	 * to the original gallery
+	 *
+	 * @param matchInfo
+	 *            The result of recognizing a face among {@link #getFaces()}
+	 * @return The same result indexing the original gallery
+	 */
+	public MatchInfo toOriginal(MatchInfo matchInfo) {
+		return new MatchInfo(matchInfo.getDistance(), originalIndex(matchInfo.getIndex()), matchInfo.isComplete(),
+				matchInfo.isAccepted());
+	}
+
+	/**
+	 * Recognizes {@code face} among the representatives with {@code recognizer}
+	 *
+	 * @param recognizer
+	 *            The recognizer to use
+	 * @param face
+	 *            The face to be recognized
+	 * @return The result of trying to recognize {@code face}, whose index is the
+	 *         position in the original gallery
+	 */
+	public MatchInfo recognize(FaceRecognizer recognizer, BufferedImage face) {
+		return toOriginal(recognizer.recognize(faces, face));
+	}
+
+	/**
+	 * Recognizes {@code face} among the representatives with {@code recognizer},
+	 * scanning them only until {@code limit} says to stop
+	 *
+	 * @see #recognize(FaceRecognizer, BufferedImage)
+	 */
+	public MatchInfo recognize(FaceRecognizer recognizer, BufferedImage face, ScanLimit limit) {
+		return toOriginal(recognizer.recognize(faces, face, limit));
+	}
+}
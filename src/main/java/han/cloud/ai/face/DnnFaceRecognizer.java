@@ -0,0 +1,391 @@
+package han.cloud.ai.face;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+import static org.bytedeco.javacpp.opencv_dnn.blobFromImages;
+import static org.bytedeco.javacpp.opencv_dnn.readNet;
+import static org.bytedeco.javacpp.opencv_imgproc.COLOR_GRAY2BGR;
+import static org.bytedeco.javacpp.opencv_imgproc.cvtColor;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+import org.bytedeco.javacpp.opencv_core.Scalar;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.bytedeco.javacpp.opencv_dnn.Net;
+
+import han.cloud.ai.face.ifs.FaceEncoder;
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+import han.cloud.ai.util.ImageTool;
+import han.cloud.ai.util.ThreadTool;
+
+/**
+ * <p>
+ * This class recognizes faces by the embeddings of a face-embedding network run
+ * with OpenCV's dnn module, such as OpenFace's <i>nn4.small2</i>.
+ *
+ * <p>
+ * The faces are pushed through the network in batches and the embeddings are
+ * compared in Java by their Euclidean distance, without any Python involved.
+ * A network cannot be run by several threads at once, so each batch borrows
+ * one from a bounded pool. The networks are loaded on demand, up to the size of
+ * the pool; beyond that, threads wait for a network to be returned. However
+ * many threads use the recognizer, the model is loaded at most that many times.
+ *
+ * @author Jiayun Han
+ *
+ */
+public class DnnFaceRecognizer implements FaceRecognizer, FaceEncoder, AutoCloseable {
+
+	private final String modelPath;
+	private final int channels;
+	private final double scale;
+	private final Size inputSize;
+	private final Scalar mean;
+	private final int batchSize;
+	private final int poolSize;
+
+	private final BlockingQueue<Net> idle;
+	private final AtomicInteger loaded = new AtomicInteger();
+	private volatile boolean closed;
+
+	/**
+	 * Constructs an instance for an OpenFace style model, taking 96x96 BGR inputs
+	 * scaled to [0, 1]
+	 *
+	 * @param modelPath
+	 *            The ONNX, Caffe, Torch or TensorFlow model file
+	 */
+	public DnnFaceRecognizer(String modelPath) {
+		this(modelPath, 96, 96, 3, 1 / 255.0, 0, 32);
+	}
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param modelPath
+	 *            The ONNX, Caffe, Torch or TensorFlow model file
+	 * @param inputWidth
+	 *            The input width of the model
+	 * @param inputHeight
+	 *            The input height of the model
+	 * @param channels
+	 *            1 if the model takes gray faces; 3 if it takes BGR faces
+	 * @param scale
+	 *            The factor each pixel is multiplied with
+	 * @param mean
+	 *            The value subtracted from each pixel before scaling
+	 * @param batchSize
+	 *            The maximal number of faces in one forward pass
+	 * @throws IllegalArgumentException
+	 *             if the model cannot be loaded
+	 */
+	public DnnFaceRecognizer(String modelPath, int inputWidth, int inputHeight, int channels, double scale,
+			double mean, int batchSize) {
+		this(modelPath, inputWidth, inputHeight, channels, scale, mean, batchSize,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param modelPath
+	 *            The ONNX, Caffe, Torch or TensorFlow model file
+	 * @param inputWidth
+	 *            The input width of the model
+	 * @param inputHeight
+	 *            The input height of the model
+	 * @param channels
+	 *            1 if the model takes gray faces; 3 if it takes BGR faces
+	 * @param scale
+	 *            The factor each pixel is multiplied with
+	 * @param mean
+	 *            The value subtracted from each pixel before scaling
+	 * @param batchSize
+	 *            The maximal number of faces in one forward pass
+	 * @param poolSize
+	 *            The maximal number of networks loaded, hence of batches run at
+	 *            once
+	 * @throws IllegalArgumentException
+	 *             if the model cannot be loaded
+	 */
+	public DnnFaceRecognizer(String modelPath, int inputWidth, int inputHeight, int channels, double scale,
+			double mean, int batchSize, int poolSize) {
+
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("The pool size must be positive: " + poolSize);
+		}
+
+		this.modelPath = modelPath;
+		this.channels = channels;
+		this.scale = scale;
+		this.inputSize = new Size(inputWidth, inputHeight);
+		this.mean = new Scalar(mean, mean, mean, 0);
+		this.batchSize = batchSize;
+		this.poolSize = poolSize;
+		this.idle = new ArrayBlockingQueue<>(poolSize);
+
+		// fails at once if the model cannot be loaded
+		loaded.incrementAndGet();
+		idle.add(loadNet());
+	}
+
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face) {
+		return recognize(faces, face, ScanLimit.NONE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The gallery is encoded and compared one batch at a time, and the limit is
+	 * checked between the batches.
+	 */
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
+
+		float[] probe = encode(face);
+		NearestMatch nearest = new NearestMatch(limit, true);
+		float[][] encodings = new float[Math.min(batchSize, faces.size())][];
+
+		int from = 0;
+		while (from < faces.size() && !limit.isExpired()) {
+
+			ThreadTool.checkInterrupted();
+			int to = Math.min(from + batchSize, faces.size());
+			encodeBatch(faces.subList(from, to), encodings, 0);
+
+			boolean accepted = false;
+			for (int row = from; row < to && !accepted; row++) {
+				accepted = nearest.offer(row, squaredDistance(encodings[row - from], probe));
+			}
+
+			from = to;
+			if (accepted) {
+				break;
+			}
+		}
+
+		return nearest.result(from == faces.size());
+	}
+
+	/**
+	 * Returns the result of trying to recognize {@code face} among the faces whose
+	 * embeddings are kept in {@code store}
+	 *
+	 * @param store
+	 *            The embeddings of the gallery faces, encoded by this recognizer
+	 * @param face
+	 *            The face to match the one in {@code store} that it resembles most
+	 * @return The result of trying to recognize {@code face}, whose index is the
+	 *         row in {@code store}
+	 */
+	public MatchInfo recognize(FaceEncodingStore store, BufferedImage face) {
+		return store.nearest(encode(face));
+	}
+
+	/**
+	 * Returns the result of trying to recognize {@code face} among the faces whose
+	 * embeddings are kept in {@code store}, scanning them only until
+	 * {@code limit} says to stop
+	 *
+	 * @param store
+	 *            The embeddings of the gallery faces, encoded by this recognizer
+	 * @param face
+	 *            The face to match the one in {@code store} that it resembles most
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The best match found, whose index is the row in {@code store}, and
+	 *         whether the scan was complete
+	 */
+	public MatchInfo recognize(FaceEncodingStore store, BufferedImage face, ScanLimit limit) {
+		return store.nearest(encode(face), limit);
+	}
+
+	@Override
+	public float[] encode(BufferedImage face) {
+		return encode(Collections.singletonList(face))[0];
+	}
+
+	/**
+	 * Returns the L2-normalized embeddings of {@code faces}, computed in batches
+	 *
+	 * @param faces
+	 *            The gray faces in standard size to be encoded
+	 * @return The embeddings of {@code faces}, in the same order
+	 */
+	public float[][] encode(List<BufferedImage> faces) {
+
+		float[][] encodings = new float[faces.size()][];
+
+		for (int from = 0; from < faces.size(); from += batchSize) {
+			ThreadTool.checkInterrupted();
+			int to = Math.min(from + batchSize, faces.size());
+			encodeBatch(faces.subList(from, to), encodings, from);
+		}
+
+		return encodings;
+	}
+
+	private void encodeBatch(List<BufferedImage> faces, float[][] encodings, int offset) {
+
+		Net net = acquire();
+		List<Mat> mats = new ArrayList<>(faces.size());
+
+		try (MatVector inputs = new MatVector(faces.size())) {
+
+			for (int i = 0; i < faces.size(); i++) {
+				Mat mat = toMat(faces.get(i));
+				mats.add(mat);
+				inputs.put(i, mat);
+			}
+
+			try (Mat blob = blobFromImages(inputs, scale, inputSize, mean, false, false)) {
+
+				net.setInput(blob);
+
+				try (Mat output = net.forward()) {
+
+					int dimension = (int) (output.total() / faces.size());
+					FloatBuffer buffer = output.createBuffer();
+
+					for (int i = 0; i < faces.size(); i++) {
+						float[] encoding = new float[dimension];
+						buffer.get(encoding);
+						normalize(encoding);
+						encodings[offset + i] = encoding;
+					}
+				}
+			}
+		} finally {
+			mats.forEach(Mat::close);
+			release(net);
+		}
+	}
+
+	// An idle network, a new one if the pool is not full, or the next returned
+	private Net acquire() {
+
+		if (closed) {
+			throw new IllegalStateException("The recognizer is closed");
+		}
+
+		Net net = idle.poll();
+		if (net != null) {
+			return net;
+		}
+
+		for (int count = loaded.get(); count < poolSize; count = loaded.get()) {
+			if (loaded.compareAndSet(count, count + 1)) {
+				try {
+					return loadNet();
+				} catch (RuntimeException e) {
+					loaded.decrementAndGet();
+					throw e;
+				}
+			}
+		}
+
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("The face task was cancelled");
+		}
+	}
+
+	private void release(Net net) {
+		idle.add(net);
+		if (closed) {
+			closeIdle();
+		}
+	}
+
+	private void closeIdle() {
+		Net net;
+		while ((net = idle.poll()) != null) {
+			net.close();
+		}
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	// The number of networks loaded so far, at most the pool size
+	int getLoaded() {
+		return loaded.get();
+	}
+
+	/**
+	 * Releases the idle networks at once and the others as their batches end
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		closeIdle();
+	}
+
+	private Mat toMat(BufferedImage face) {
+
+		Mat gray = new Mat(face.getHeight(), face.getWidth(), CV_8UC1);
+		ByteBuffer buffer = gray.createBuffer();
+		ImageTool.copyGrayBytes(face, buffer);
+
+		if (channels == 1) {
+			return gray;
+		}
+
+		Mat bgr = new Mat();
+		cvtColor(gray, bgr, COLOR_GRAY2BGR);
+		gray.close();
+
+		return bgr;
+	}
+
+	private Net loadNet() {
+
+		Net net = readNet(modelPath);
+
+		if (net == null || net.empty()) {
+			throw new IllegalArgumentException("Cannot load face embedding model " + modelPath);
+		}
+
+		return net;
+	}
+
+	private static void normalize(float[] encoding) {
+
+		double sum = 0;
+		for (float value : encoding) {
+			sum += value * value;
+		}
+
+		if (Double.compare(sum, 0) != 0) {
+			float norm = (float) Math.sqrt(sum);
+			for (int i = 0; i < encoding.length; i++) {
+				encoding[i] /= norm;
+			}
+		}
+	}
+
+	private static double squaredDistance(float[] a, float[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			double value = a[i] - b[i];
+			sum += value * value;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,446 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import han.cloud.ai.face.ifs.FaceSource;
+import han.cloud.ai.metrics.FaceMetrics;
+import han.cloud.ai.metrics.Stage;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+import han.cloud.ai.util.ThreadTool;
+
+/**
+ * <p>
+ * A gallery projected into an {@link EigenSpace}, ready to recognize faces
+ * against.
+ *
+ * <p>
+ * The weights of the gallery faces are held component by component in one
+ * primitive array. Since the distance over the leading components is a lower
+ * bound of the full distance, a recognition first sums the leading components
+ * of every gallery face and then completes, block of components by block, only
+ * the faces whose partial distance still beats the best full distance found.
+ * The result is exactly that of a full scan, at a fraction of its cost when
+ * most of the gallery is far from the probe.
+ *
+ * <p>
+ * The probe weights and the partial distances live in buffers of the calling
+ * thread, so recognizing a face allocates nothing but the {@link MatchInfo}.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class EigenFaceModel {
+
+	/*
+	 * The closest gallery face found so far
+	 */
+	private static final class Best {
+
+		private double sum;
+		private int row;
+
+		private void reset() {
+			sum = Double.MAX_VALUE;
+			row = -1;
+		}
+
+		private void offer(int row, double sum) {
+			if (Double.compare(sum, this.sum) < 0 || (sum == this.sum && row < this.row)) {
+				this.sum = sum;
+				this.row = row;
+			}
+		}
+	}
+
+	/*
+	 * The buffers a thread recognizes with
+	 */
+	private static final class Scratch {
+
+		private final Best best = new Best();
+		private double[] weights = new double[0];
+		private double[] partial = new double[0];
+		private int[] active = new int[0];
+
+		private double[] weights(int dimension) {
+			if (weights.length != dimension) {
+				weights = new double[dimension];
+			}
+			return weights;
+		}
+
+		private void ensure(int rows) {
+			if (partial.length < rows) {
+				partial = new double[rows];
+				active = new int[rows];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private static final int STAGE = 8;
+	private static final int BLOCK_ROWS = 1024;
+
+	private final EigenSpace space;
+	private final int size;
+	private final int dimension;
+	private final double[] columns;
+
+	/*
+	 * Takes the weights of the gallery row by row and keeps them component by
+	 * component
+	 */
+	private EigenFaceModel(EigenSpace space, int size, double[] weights) {
+		this.space = space;
+		this.size = size;
+		this.dimension = space.getDimension();
+		this.columns = new double[size * dimension];
+
+		for (int row = 0; row < size; row++) {
+			for (int col = 0; col < dimension; col++) {
+				columns[col * size + row] = weights[row * dimension + col];
+			}
+		}
+	}
+
+	/**
+	 * Trains a space exactly on {@code faces} and projects them into it
+	 *
+	 * @param faces
+	 *            The gray gallery faces in standard size
+	 * @return The model of {@code faces}
+	 */
+	public static EigenFaceModel train(List<BufferedImage> faces) {
+
+		ThreadTool.checkInterrupted();
+		FaceMetrics.gallerySize(faces.size());
+		long start = FaceMetrics.start();
+
+		double[][] refData = faces //
+				.stream() //
+				.map(EigenSpace::toPixels) //
+				.toArray(double[][]::new);
+
+		EigenSpace space = EigenSpace.train(refData);
+
+		int dimension = space.getDimension();
+		double[] weights = new double[refData.length * dimension];
+		double[] row = new double[dimension];
+
+		// projected as probes are, not from the training pixels, which are
+		// centered in double precision
+		for (int i = 0; i < refData.length; i++) {
+			space.project(faces.get(i), row);
+			System.arraycopy(row, 0, weights, i * dimension, dimension);
+		}
+
+		FaceMetrics.stop(Stage.EIGEN_TRAIN, start);
+		return new EigenFaceModel(space, refData.length, weights);
+	}
+
+	/**
+	 * Projects {@code source} into a space trained before, in parallel
+	 *
+	 * @param space
+	 *            The space to project the gallery into
+	 * @param source
+	 *            The gray gallery faces in standard size
+	 * @return The model of the gallery in {@code space}
+	 */
+	public static EigenFaceModel build(EigenSpace space, FaceSource source) {
+
+		ThreadTool.checkInterrupted();
+
+		int dimension = space.getDimension();
+		double[] weights = new double[Math.max(0, source.size()) * dimension];
+		int size = 0;
+
+		for (List<BufferedImage> chunk : FaceSources.chunks(source, FaceSources.CHUNK_SIZE)) {
+
+			ThreadTool.checkInterrupted();
+
+			if ((size + chunk.size()) * dimension > weights.length) {
+				weights = Arrays.copyOf(weights, Math.max((size + chunk.size()) * dimension, weights.length * 2));
+			}
+
+			int offset = size;
+			double[] target = weights;
+
+			IntStream.range(0, chunk.size()).parallel().forEach(i -> {
+				double[] row = space.project(chunk.get(i));
+				System.arraycopy(row, 0, target, (offset + i) * dimension, dimension);
+			});
+
+			size += chunk.size();
+		}
+
+		FaceMetrics.gallerySize(size);
+		return new EigenFaceModel(space, size, Arrays.copyOf(weights, size * dimension));
+	}
+
+	/**
+	 * Returns the result of trying to recognize {@code face} among the gallery
+	 *
+	 * @param face
+	 *            The gray face in standard size
+	 * @return The result of trying to recognize {@code face}, whose index is the
+	 *         position of the closest gallery face
+	 */
+	public MatchInfo recognize(BufferedImage face) {
+		return recognize(face, ScanLimit.NONE);
+	}
+
+	/**
+	 * Returns the gallery face closest to the face with {@code weights}
+	 *
+	 * @param weights
+	 *            The weights of a face in the space of this model
+	 * @return The result of trying to recognize the face
+	 */
+	public MatchInfo recognize(double[] weights) {
+		return recognize(weights, ScanLimit.NONE);
+	}
+
+	/**
+	 * Returns the result of trying to recognize {@code face} among the gallery,
+	 * stopping early when {@code limit} says so
+	 *
+	 * @param face
+	 *            The gray face in standard size
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The best match found, and whether the scan was complete
+	 */
+	public MatchInfo recognize(BufferedImage face, ScanLimit limit) {
+		double[] weights = SCRATCH.get().weights(dimension);
+		return recognize(space.project(face, weights), limit);
+	}
+
+	/**
+	 * Returns the gallery face closest to the face with {@code weights} among
+	 * those scanned before {@code limit} stops the scan
+	 * <p>
+	 * With a limit, the gallery is searched {@value #BLOCK_ROWS} faces at a time
+	 * and the limit is checked between the blocks.
+	 *
+	 * @param weights
+	 *            The weights of a face in the space of this model
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The best match found, and whether the scan was complete
+	 */
+	public MatchInfo recognize(double[] weights, ScanLimit limit) {
+
+		long start = FaceMetrics.start();
+
+		double accept = limit.getAcceptDistance();
+		double acceptSum = accept < 0 ? -1 : accept * accept;
+		int block = limit.isBounded() ? BLOCK_ROWS : Math.max(1, size);
+
+		Scratch scratch = SCRATCH.get();
+		scratch.ensure(Math.min(block, size));
+
+		double[] partial = scratch.partial;
+		int[] active = scratch.active;
+		Best best = scratch.best;
+		best.reset();
+
+		int from = 0;
+		while (from < size && !limit.isExpired()) {
+
+			int to = Math.min(from + block, size);
+			search(weights, from, to, partial, active, best);
+			from = to;
+
+			if (best.row != -1 && best.sum <= acceptSum) {
+				break;
+			}
+		}
+
+		FaceMetrics.stop(Stage.EIGEN_SCAN, start);
+
+		double distance = best.row == -1 ? Double.MAX_VALUE : Math.sqrt(best.sum);
+		return new MatchInfo(distance, best.row, from == size, best.row != -1 && best.sum <= acceptSum);
+	}
+
+	/*
+	 * Offers the closest of the rows in [from, to) to best, completing the
+	 * distance of a row only while its partial distance does not exceed the best
+	 * full distance. The partial sums add the components in the same order as a
+	 * full sum, so they never exceed it and the result is exact.
+	 */
+	private void search(double[] probe, int from, int to, double[] partial, int[] active, Best best) {
+
+		ThreadTool.checkInterrupted();
+
+		int rows = to - from;
+		int stage = Math.min(STAGE, dimension);
+
+		Arrays.fill(partial, 0, rows, 0);
+		for (int col = 0; col < stage; col++) {
+			int offset = col * size + from;
+			double p = probe[col];
+			for (int r = 0; r < rows; r++) {
+				double value = columns[offset + r] - p;
+				partial[r] += value * value;
+			}
+		}
+
+		int candidate = 0;
+		for (int r = 1; r < rows; r++) {
+			if (partial[r] < partial[candidate]) {
+				candidate = r;
+			}
+		}
+		best.offer(from + candidate, complete(probe, from + candidate, partial[candidate], stage));
+
+		int count = 0;
+		for (int r = 0; r < rows; r++) {
+			if (partial[r] <= best.sum) {
+				active[count++] = r;
+			}
+		}
+
+		for (int col = stage; col < dimension && count > 0; col += STAGE) {
+
+			ThreadTool.checkInterrupted();
+
+			int end = Math.min(col + STAGE, dimension);
+			for (int c = col; c < end; c++) {
+				int offset = c * size + from;
+				double p = probe[c];
+				for (int k = 0; k < count; k++) {
+					int r = active[k];
+					double value = columns[offset + r] - p;
+					partial[r] += value * value;
+				}
+			}
+
+			int kept = 0;
+			for (int k = 0; k < count; k++) {
+				if (partial[active[k]] <= best.sum) {
+					active[kept++] = active[k];
+				}
+			}
+			count = kept;
+		}
+
+		for (int k = 0; k < count; k++) {
+			best.offer(from + active[k], partial[active[k]]);
+		}
+	}
+
+	// The full squared distance of row, given its partial sum over the first
+	// components
+	private double complete(double[] probe, int row, double sum, int components) {
+		for (int col = components; col < dimension; col++) {
+			double value = columns[col * size + row] - probe[col];
+			sum += value * value;
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the positions of the {@code k} gallery faces closest to
+	 * {@code face}, closest first
+	 *
+	 * @param face
+	 *            The gray face in standard size
+	 * @param k
+	 *            The maximal number of candidates
+	 * @return The positions of the candidates in the gallery, closest first
+	 */
+	public int[] shortlist(BufferedImage face, int k) {
+		return shortlist(face, k, ScanLimit.NONE);
+	}
+
+	/**
+	 * Returns the positions of the {@code k} faces closest to {@code face} among
+	 * those scanned before the deadline of {@code limit}, closest first
+	 * <p>
+	 * With a deadline, the gallery is scanned {@value #BLOCK_ROWS} faces at a
+	 * time and the deadline is checked between the blocks; the accept distance
+	 * is ignored.
+	 *
+	 * @param face
+	 *            The gray face in standard size
+	 * @param k
+	 *            The maximal number of candidates
+	 * @param limit
+	 *            The deadline of the scan
+	 * @return The positions of the candidates in the gallery, closest first;
+	 *         empty if the deadline passed before the first block
+	 */
+	public int[] shortlist(BufferedImage face, int k, ScanLimit limit) {
+
+		double[] probe = space.project(face);
+
+		long start = FaceMetrics.start();
+		double[] sums = new double[size];
+		int block = limit.hasDeadline() ? BLOCK_ROWS : Math.max(1, size);
+
+		int scanned = 0;
+		while (scanned < size && !limit.isExpired()) {
+			int to = Math.min(scanned + block, size);
+			squaredDistances(probe, scanned, to, sums);
+			scanned = to;
+		}
+		FaceMetrics.stop(Stage.EIGEN_SCAN, start);
+
+		return IntStream.range(0, scanned) //
+				.boxed() //
+				.sorted((a, b) -> Double.compare(sums[a], sums[b])) //
+				.limit(k) //
+				.mapToInt(Integer::intValue) //
+				.toArray();
+	}
+
+	// The squared distances between probe and the weights of the gallery faces in
+	// [from, to)
+	private void squaredDistances(double[] probe, int from, int to, double[] sums) {
+
+		for (int col = 0; col < dimension; col++) {
+			ThreadTool.checkInterrupted();
+
+			int offset = col * size;
+			double p = probe[col];
+			for (int row = from; row < to; row++) {
+				double value = columns[offset + row] - p;
+				sums[row] += value * value;
+			}
+		}
+	}
+
+	public EigenSpace getSpace() {
+		return space;
+	}
+
+	/**
+	 * Returns the number of gallery faces
+	 *
+	 * @return The number of gallery faces
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the weights of the {@code row}-th gallery face
+	 *
+	 * @param row
+	 *            The position of the gallery face
+	 * @return A copy of its weights
+	 */
+	public double[] getWeights(int row) {
+		double[] weights = new double[dimension];
+		for (int col = 0; col < dimension; col++) {
+			weights[col] = columns[col * size + row];
+		}
+		return weights;
+	}
+}
@@ -0,0 +1,333 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.face.ifs.FaceSource;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+
+/**
+ * <p>
+ * This class holds the current {@link EigenFaceModel} of a service and swaps in
+ * a retrained one without ever blocking the recognitions.
+ *
+ * <p>
+ * Each published model gets a version, one higher than the previous one. A
+ * recognition acquires a {@link Snapshot} of the current model, runs to
+ * completion against it and stamps its {@link MatchInfo} with its version,
+ * however many models are published meanwhile. A published model counts the
+ * snapshots reading it: once it has been replaced and its last snapshot is
+ * closed, the resource published with it, such as the {@link FaceArchive} of
+ * its gallery, is closed.
+ *
+ * <p>
+ * New models are built on a single background thread, so retrainings are
+ * published in the order they were asked for. Reading takes no lock; it only
+ * counts the reader in and out of the model.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class EigenModelHolder implements AutoCloseable {
+
+	/*
+	 * A published model, which counts the snapshots reading it
+	 */
+	private static final class Published {
+
+		private final EigenFaceModel model;
+		private final long version;
+		private final AutoCloseable resource;
+
+		// the readers plus one for the holder while it is current
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private Published(EigenFaceModel model, long version, AutoCloseable resource) {
+			this.model = model;
+			this.version = version;
+			this.resource = resource;
+		}
+
+		private boolean retain() {
+			for (;;) {
+				int count = references.get();
+				if (count == 0) {
+					return false;
+				}
+				if (references.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		private void release() {
+			if (references.decrementAndGet() == 0) {
+				LOGGER.debug("Released the model of version {}", version);
+				if (resource != null) {
+					try {
+						resource.close();
+					} catch (Exception e) {
+						LOGGER.warn("Cannot release the resource of the model of version {}", version, e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * A published model with its version, as acquired by one reader.
+	 *
+	 * <p>
+	 * A snapshot returned by {@link EigenModelHolder#acquire()} stays usable,
+	 * along with its resource, until it is closed. Closing it again does nothing.
+	 */
+	public static final class Snapshot implements AutoCloseable {
+
+		private final Published published;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private Snapshot(Published published) {
+			this.published = published;
+		}
+
+		public EigenFaceModel getModel() {
+			return published.model;
+		}
+
+		public long getVersion() {
+			return published.version;
+		}
+
+		/**
+		 * Returns the resource published with the model
+		 *
+		 * @return The resource, or null if none
+		 */
+		public AutoCloseable getResource() {
+			return published.resource;
+		}
+
+		/**
+		 * Releases this snapshot, closing its resource if it is no longer current
+		 * and this was its last reader
+		 */
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) {
+				published.release();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot [version=" + published.version + ", size=" + published.model.size() + "]";
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EigenModelHolder.class);
+
+	private final AtomicReference<Published> current;
+	private final AtomicLong versions = new AtomicLong();
+	private final ExecutorService builder;
+
+	/**
+	 * Constructs an instance holding {@code model} as version 1
+	 *
+	 * @param model
+	 *            The initial model
+	 */
+	public EigenModelHolder(EigenFaceModel model) {
+		this(model, null);
+	}
+
+	/**
+	 * Constructs an instance holding {@code model} as version 1
+	 *
+	 * @param model
+	 *            The initial model
+	 * @param resource
+	 *            The resource to close once the model is replaced and no longer
+	 *            read, or null
+	 */
+	public EigenModelHolder(EigenFaceModel model, AutoCloseable resource) {
+
+		this.current = new AtomicReference<>(new Published(model, versions.incrementAndGet(), resource));
+
+		this.builder = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "eigen-model-builder");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the current snapshot, which the caller must close once done with it
+	 *
+	 * @return The current snapshot
+	 */
+	public Snapshot acquire() {
+		for (;;) {
+			Published published = current.get();
+			if (published == null) {
+				throw new IllegalStateException("The model holder is closed");
+			}
+			if (published.retain()) {
+				return new Snapshot(published);
+			}
+			// replaced and released between the read and the retain; read again
+		}
+	}
+
+	/**
+	 * @see #recognize(BufferedImage, ScanLimit)
+	 */
+	public MatchInfo recognize(BufferedImage face) {
+		return recognize(face, ScanLimit.NONE);
+	}
+
+	/**
+	 * Recognizes {@code face} against the current model
+	 *
+	 * @param face
+	 *            The gray face in standard size
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The result of trying to recognize {@code face}, stamped with the
+	 *         version of the model it was recognized against
+	 */
+	public MatchInfo recognize(BufferedImage face, ScanLimit limit) {
+		try (Snapshot snapshot = acquire()) {
+			MatchInfo matchInfo = snapshot.getModel().recognize(face, limit);
+			matchInfo.setVersion(snapshot.getVersion());
+			return matchInfo;
+		}
+	}
+
+	/**
+	 * @see #publish(EigenFaceModel, AutoCloseable)
+	 */
+	public long publish(EigenFaceModel model) {
+		return publish(model, null);
+	}
+
+	/**
+	 * Makes {@code model} the current model at once; the recognitions in flight
+	 * finish against the previous one
+	 *
+	 * @param model
+	 *            The new model
+	 * @param resource
+	 *            The resource to close once the model is replaced and no longer
+	 *            read, or null
+	 * @return The version of {@code model}
+	 * @throws IllegalStateException
+	 *             if this holder is closed
+	 */
+	public long publish(EigenFaceModel model, AutoCloseable resource) {
+
+		Published next;
+		Published previous;
+
+		synchronized (versions) { // so that versions are published in order
+			if (current.get() == null) {
+				throw new IllegalStateException("The model holder is closed");
+			}
+			next = new Published(model, versions.incrementAndGet(), resource);
+			previous = current.getAndSet(next);
+		}
+
+		previous.release();
+
+		LOGGER.info("Published the model of version {} with {} faces", next.version, model.size());
+		return next.version;
+	}
+
+	/**
+	 * Trains a model on {@code faces} in the background and publishes it
+	 *
+	 * @param faces
+	 *            The gray gallery faces in standard size
+	 * @return The future version of the new model, completed exceptionally if the
+	 *         training fails, in which case the current model stays
+	 */
+	public CompletableFuture<Long> retrain(List<BufferedImage> faces) {
+		return build(() -> EigenFaceModel.train(faces), null);
+	}
+
+	/**
+	 * Trains a model on the faces of {@code archive} in the background and
+	 * publishes it along with the archive, which is closed once the model is
+	 * replaced and no longer read
+	 *
+	 * @param archive
+	 *            The archive of the gallery, whose ids name the match indices
+	 * @return The future version of the new model, completed exceptionally if the
+	 *         training fails, in which case the archive is left open
+	 */
+	public CompletableFuture<Long> retrain(FaceArchive archive) {
+		return build(() -> EigenFaceModel.train(archive.faces()), archive);
+	}
+
+	/**
+	 * Projects {@code source} into {@code space} in the background and publishes
+	 * the model
+	 *
+	 * @param space
+	 *            The space to project the gallery into
+	 * @param source
+	 *            The gray gallery faces in standard size
+	 * @return The future version of the new model
+	 */
+	public CompletableFuture<Long> rebuild(EigenSpace space, FaceSource source) {
+		return build(() -> EigenFaceModel.build(space, source), null);
+	}
+
+	private CompletableFuture<Long> build(Supplier<EigenFaceModel> model, AutoCloseable resource) {
+		return CompletableFuture.supplyAsync(() -> publish(model.get(), resource), builder);
+	}
+
+	/**
+	 * Returns the version of the current model
+	 *
+	 * @return The version of the current model
+	 */
+	public long getVersion() {
+		Published published = current.get();
+		if (published == null) {
+			throw new IllegalStateException("The model holder is closed");
+		}
+		return published.version;
+	}
+
+	/**
+	 * Stops building models and releases the current one, which is closed once
+	 * its last reader is done
+	 */
+	@Override
+	public void close() {
+
+		builder.shutdownNow();
+
+		Published last;
+		synchronized (versions) {
+			last = current.getAndSet(null);
+		}
+
+		if (last != null) {
+			last.release();
+		}
+	}
+}
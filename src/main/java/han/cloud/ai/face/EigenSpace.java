@@ -0,0 +1,571 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.EigenvalueDecomposition;
+import han.cloud.ai.metrics.FaceMetrics;
+import han.cloud.ai.metrics.Stage;
+import han.cloud.ai.util.ArrayTool;
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.ImageTool;
+
+/**
+ * <p>
+ * The eigenfaces spanning a face space, with the mean face they are centered on.
+ *
+ * <p>
+ * A face is projected by scaling its pixels by their max, subtracting the mean
+ * face and taking the dot product with each eigenface. As in Turk and
+ * Pentland's paper, each eigenface is divided by its squared norm, which is
+ * its eigenvalue, so the weights of the weaker components count for more.
+ *
+ * <p>
+ * The eigenfaces are kept as one flat {@code float} array, which halves the
+ * memory a projection streams through, but the weights are summed in double
+ * precision. Gallery faces and probes go through the same kernel, so a face
+ * gets the same weights however it is projected. A face given as a
+ * {@link BufferedImage} is projected through per-thread buffers, without
+ * allocating anything.
+ *
+ * <p>
+ * A space is either trained exactly on a gallery in memory, as
+ * {@link EigenFaceRecognizer} does, or on a corpus of any size by
+ * {@link StreamingEigenTrainer}.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class EigenSpace {
+
+	private static final class Eigen {
+
+		private final double value;
+		private final DoubleMatrix1D vector;
+
+		private Eigen(double value, DoubleMatrix1D vector) {
+			this.value = value;
+			this.vector = vector;
+		}
+	}
+
+	/*
+	 * The buffers a thread projects a face with
+	 */
+	private static final class Scratch {
+
+		private byte[] bytes = new byte[0];
+		private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		private float[] pixels = new float[0];
+		private double[][] centered = new double[4][0];
+
+		private void ensure(int size) {
+			if (bytes.length != size) {
+				bytes = new byte[size];
+				buffer = ByteBuffer.wrap(bytes);
+				pixels = new float[size];
+				centered = new double[4][size];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private static final int MAGIC = 0x48465350; // HFSP
+	private static final int VERSION = 1;
+
+	private final int pixels;
+	private final int dimension;
+	private final double[] means;
+	private final float[] floatMeans;
+	private final float[] components;
+	private final double[] eigenValues;
+
+	/**
+	 * Constructs a space out of its parts
+	 *
+	 * @param means
+	 *            The mean of the max-scaled training faces, pixel by pixel
+	 * @param components
+	 *            The eigenfaces, each divided by its squared norm, one row of
+	 *            {@code means.length} values each, strongest first; they are kept
+	 *            in single precision
+	 * @param eigenValues
+	 *            The eigenvalue of each eigenface
+	 */
+	public EigenSpace(double[] means, double[] components, double[] eigenValues) {
+		this(means, toFloats(components), eigenValues);
+	}
+
+	private EigenSpace(double[] means, float[] components, double[] eigenValues) {
+
+		if (components.length != eigenValues.length * means.length) {
+			throw new IllegalArgumentException("Expected " + eigenValues.length + " eigenfaces of " + means.length
+					+ " pixels but got " + components.length + " values");
+		}
+
+		this.pixels = means.length;
+		this.dimension = eigenValues.length;
+		this.means = means;
+		this.floatMeans = toFloats(means);
+		this.components = components;
+		this.eigenValues = eigenValues;
+	}
+
+	private static float[] toFloats(double[] values) {
+		float[] floats = new float[values.length];
+		for (int i = 0; i < values.length; i++) {
+			floats[i] = (float) values[i];
+		}
+		return floats;
+	}
+
+	/**
+	 * Trains a space exactly on {@code faces}, keeping one eigenface less than
+	 * there are faces.
+	 * <p>
+	 * The training faces are normalized and centered in place.
+	 *
+	 * @param refData
+	 *            The pixels of the gray training faces in standard size
+	 * @return The space spanned by the faces
+	 */
+	static EigenSpace train(double[][] refData) {
+
+		int max = refData.length;
+		int subMax = max - 1;
+
+		double[] pixelMeans = ArrayTool.normalizeAndCenter(refData);
+		DoubleMatrix2D refFaces = new DenseDoubleMatrix2D(refData);
+
+		List<Eigen> eigens = buildAndSortEigens(refFaces);
+
+		DoubleMatrix2D vectors = new DenseDoubleMatrix2D(max, max);
+		double[] values = new double[subMax];
+
+		for (int i = 0; i < max; i++) {
+			Eigen eigen = eigens.get(i);
+			vectors.viewColumn(i).assign(eigen.vector);
+
+			if (i < subMax) {
+				values[i] = eigen.value;
+			}
+		}
+
+		DoubleMatrix2D eigenfaces = vectors.viewDice().zMult(refFaces, null);
+
+		int columns = refData[0].length;
+		double[] components = new double[subMax * columns];
+
+		for (int i = 0; i < subMax; i++) {
+			double[] eigenface = eigenfaces.viewRow(i).toArray();
+			ArrayTool.divideByNorm(eigenface);
+			System.arraycopy(eigenface, 0, components, i * columns, columns);
+		}
+
+		return new EigenSpace(pixelMeans, components, values);
+	}
+
+	private static List<Eigen> buildAndSortEigens(DoubleMatrix2D refFaces) {
+
+		DoubleMatrix2D covarMatrix = refFaces.zMult(refFaces.viewDice(), null);
+		EigenvalueDecomposition decom = new EigenvalueDecomposition(covarMatrix);
+
+		DoubleMatrix2D eigenvectors = decom.getV();
+		DoubleMatrix1D eigenvalues = decom.getRealEigenvalues();
+
+		List<Eigen> eigens = new ArrayList<>();
+
+		for (int column = 0; column < eigenvectors.columns(); column++) {
+			double eigenvalue = eigenvalues.get(column);
+			DoubleMatrix1D eigenvector = eigenvectors.viewColumn(column).copy();
+			Eigen eigen = new Eigen(eigenvalue, eigenvector);
+			eigens.add(eigen);
+		}
+
+		eigens.sort((a, b) -> Double.compare(b.value, a.value)); // descending
+		return eigens;
+	}
+
+	/**
+	 * Returns the weights of {@code face} in this space
+	 *
+	 * @param face
+	 *            The gray face in standard size
+	 * @return The {@link #getDimension()} weights of {@code face}
+	 */
+	public double[] project(BufferedImage face) {
+		return project(face, new double[dimension]);
+	}
+
+	/**
+	 * Writes the weights of {@code face} in this space into {@code weights}
+	 * <p>
+	 * A {@link BufferedImage#TYPE_BYTE_GRAY} face in standard size is read and
+	 * projected in single precision through buffers of the calling thread, so
+	 * nothing is allocated.
+	 *
+	 * @param face
+	 *            The gray face in standard size
+	 * @param weights
+	 *            The array to hold the {@link #getDimension()} weights
+	 * @return {@code weights}
+	 */
+	public double[] project(BufferedImage face, double[] weights) {
+
+		if (face.getWidth() != FaceConstants.FACE_WIDTH || face.getHeight() != FaceConstants.FACE_HEIGHT
+				|| pixels != FaceConstants.columns) {
+			return project(toPixels(face), weights);
+		}
+
+		long start = FaceMetrics.start();
+
+		Scratch scratch = SCRATCH.get();
+		scratch.ensure(pixels);
+
+		scratch.buffer.clear();
+		ImageTool.copyGrayBytes(face, scratch.buffer);
+
+		byte[] bytes = scratch.bytes;
+		float[] normalized = scratch.pixels;
+		for (int p = 0; p < pixels; p++) {
+			normalized[p] = bytes[p] & 0xFF;
+		}
+		double[] centered = center(normalized, scratch.centered[0]);
+		FaceMetrics.stop(Stage.EIGEN_NORMALIZE, start);
+
+		start = FaceMetrics.start();
+		weigh(centered, weights);
+		FaceMetrics.stop(Stage.EIGEN_PROJECT, start);
+
+		return weights;
+	}
+
+	/**
+	 * Writes the weights of {@code pixels} in this space into {@code weights}
+	 * <p>
+	 * The pixels are normalized and centered in single precision, as those of a
+	 * {@link BufferedImage}, so the same face gets the same weights either way.
+	 *
+	 * @param pixels
+	 *            The gray pixels of a face in standard size, in [0, 255]
+	 * @param weights
+	 *            The array to hold the {@link #getDimension()} weights
+	 * @return {@code weights}
+	 */
+	public double[] project(double[] pixels, double[] weights) {
+
+		long start = FaceMetrics.start();
+
+		Scratch scratch = SCRATCH.get();
+		scratch.ensure(this.pixels);
+		double[] centered = center(pixels, scratch, scratch.centered[0]);
+
+		FaceMetrics.stop(Stage.EIGEN_NORMALIZE, start);
+
+		start = FaceMetrics.start();
+		weigh(centered, weights);
+		FaceMetrics.stop(Stage.EIGEN_PROJECT, start);
+
+		return weights;
+	}
+
+	/**
+	 * Writes the weights of the first {@code count} rows of {@code pixels} into
+	 * the rows of {@code weights}
+	 * <p>
+	 * The faces are projected four at a time, so that each eigenface is read once
+	 * for four faces rather than once for each. Each face gets the same weights as
+	 * if it were projected alone.
+	 * 
+	 * @param pixels
+	 *            The gray pixels of faces in standard size, in [0, 255], one face
+	 *            per row
+	 * @param count
+	 *            The number of faces to project
+	 * @param weights
+	 *            The arrays to hold the {@link #getDimension()} weights of each
+	 *            face
+	 * @return {@code weights}
+	 */
+	public double[][] project(double[][] pixels, int count, double[][] weights) {
+
+		Scratch scratch = SCRATCH.get();
+		scratch.ensure(this.pixels);
+		double[][] batch = scratch.centered;
+
+		int f = 0;
+		for (; f + 4 <= count; f += 4) {
+
+			long start = FaceMetrics.start();
+			for (int b = 0; b < 4; b++) {
+				center(pixels[f + b], scratch, batch[b]);
+			}
+			FaceMetrics.stop(Stage.EIGEN_NORMALIZE, start);
+
+			start = FaceMetrics.start();
+			weigh(batch[0], batch[1], batch[2], batch[3], //
+					weights[f], weights[f + 1], weights[f + 2], weights[f + 3]);
+			FaceMetrics.stop(Stage.EIGEN_PROJECT, start);
+		}
+		for (; f < count; f++) {
+			project(pixels[f], weights[f]);
+		}
+
+		return weights;
+	}
+
+	// Normalizes and centers pixels in single precision into centered
+	private double[] center(double[] pixels, Scratch scratch, double[] centered) {
+		float[] normalized = scratch.pixels;
+		for (int p = 0; p < this.pixels; p++) {
+			normalized[p] = (float) pixels[p];
+		}
+		return center(normalized, centered);
+	}
+
+	// Normalizes and centers pixels in place and widens them into centered
+	private double[] center(float[] pixels, double[] centered) {
+		ArrayTool.normalizeAndCenter(pixels, floatMeans);
+		for (int p = 0; p < this.pixels; p++) {
+			centered[p] = pixels[p];
+		}
+		return centered;
+	}
+
+	/*
+	 * The weights of pixels that are already normalized and centered in single
+	 * precision. Each product with a single precision eigenface is exact in double
+	 * precision; the products are summed in double, four ways to break the
+	 * dependency between the additions, and always in the same order, so that a
+	 * face gets the same weights as a gallery face and as a probe.
+	 */
+	private void weigh(double[] centered, double[] weights) {
+
+		int tail = pixels & ~3;
+
+		for (int i = 0; i < dimension; i++) {
+			int offset = i * pixels;
+			double s0 = 0;
+			double s1 = 0;
+			double s2 = 0;
+			double s3 = 0;
+			for (int p = 0; p < tail; p += 4) {
+				s0 += components[offset + p] * centered[p];
+				s1 += components[offset + p + 1] * centered[p + 1];
+				s2 += components[offset + p + 2] * centered[p + 2];
+				s3 += components[offset + p + 3] * centered[p + 3];
+			}
+			for (int p = tail; p < pixels; p++) {
+				s0 += components[offset + p] * centered[p];
+			}
+			weights[i] = (s0 + s1) + (s2 + s3);
+		}
+	}
+
+	// The weights of four faces, each summed exactly as by weigh(double[], double[])
+	private void weigh(double[] a, double[] b, double[] c, double[] d, //
+			double[] wa, double[] wb, double[] wc, double[] wd) {
+
+		int tail = pixels & ~3;
+
+		for (int i = 0; i < dimension; i++) {
+			int offset = i * pixels;
+			double a0 = 0;
+			double a1 = 0;
+			double a2 = 0;
+			double a3 = 0;
+			double b0 = 0;
+			double b1 = 0;
+			double b2 = 0;
+			double b3 = 0;
+			double c0 = 0;
+			double c1 = 0;
+			double c2 = 0;
+			double c3 = 0;
+			double d0 = 0;
+			double d1 = 0;
+			double d2 = 0;
+			double d3 = 0;
+			for (int p = 0; p < tail; p += 4) {
+				double e0 = components[offset + p];
+				double e1 = components[offset + p + 1];
+				double e2 = components[offset + p + 2];
+				double e3 = components[offset + p + 3];
+				a0 += e0 * a[p];
+				a1 += e1 * a[p + 1];
+				a2 += e2 * a[p + 2];
+				a3 += e3 * a[p + 3];
+				b0 += e0 * b[p];
+				b1 += e1 * b[p + 1];
+				b2 += e2 * b[p + 2];
+				b3 += e3 * b[p + 3];
+				c0 += e0 * c[p];
+				c1 += e1 * c[p + 1];
+				c2 += e2 * c[p + 2];
+				c3 += e3 * c[p + 3];
+				d0 += e0 * d[p];
+				d1 += e1 * d[p + 1];
+				d2 += e2 * d[p + 2];
+				d3 += e3 * d[p + 3];
+			}
+			for (int p = tail; p < pixels; p++) {
+				double e = components[offset + p];
+				a0 += e * a[p];
+				b0 += e * b[p];
+				c0 += e * c[p];
+				d0 += e * d[p];
+			}
+			wa[i] = (a0 + a1) + (a2 + a3);
+			wb[i] = (b0 + b1) + (b2 + b3);
+			wc[i] = (c0 + c1) + (c2 + c3);
+			wd[i] = (d0 + d1) + (d2 + d3);
+		}
+	}
+
+	// This space without the eigenfaces whose eigenvalues are negligible next to
+	// the strongest one, which would only weigh rounding noise
+	EigenSpace withoutNegligible() {
+
+		double floor = dimension == 0 ? 0 : eigenValues[0] * 1e-12;
+		int kept = 0;
+		while (kept < dimension && eigenValues[kept] > floor) {
+			kept++;
+		}
+
+		if (kept == dimension) {
+			return this;
+		}
+		return new EigenSpace(means, Arrays.copyOf(components, kept * pixels), Arrays.copyOf(eigenValues, kept));
+	}
+
+	static double[] toPixels(BufferedImage face) {
+		return ImageTool.toPixels(face, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
+	}
+
+	/**
+	 * Writes this space to {@code path}, replacing it atomically
+	 *
+	 * @param path
+	 *            The file to write to
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void save(Path path) throws IOException {
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(pixels);
+			out.writeInt(dimension);
+
+			for (double mean : means) {
+				out.writeDouble(mean);
+			}
+			for (double eigenValue : eigenValues) {
+				out.writeDouble(eigenValue);
+			}
+			for (double component : components) {
+				out.writeDouble(component);
+			}
+		}
+
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a space previously written by {@link #save(Path)}
+	 *
+	 * @param path
+	 *            The file to read from
+	 * @return The space read from {@code path}
+	 * @throws IOException
+	 *             if the file cannot be read or is not a space
+	 */
+	public static EigenSpace load(Path path) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(path + " is not an eigenspace");
+			}
+
+			int pixels = in.readInt();
+			int dimension = in.readInt();
+
+			double[] means = new double[pixels];
+			double[] eigenValues = new double[dimension];
+			double[] components = new double[dimension * pixels];
+
+			for (int i = 0; i < means.length; i++) {
+				means[i] = in.readDouble();
+			}
+			for (int i = 0; i < eigenValues.length; i++) {
+				eigenValues[i] = in.readDouble();
+			}
+			for (int i = 0; i < components.length; i++) {
+				components[i] = in.readDouble();
+			}
+
+			return new EigenSpace(means, components, eigenValues);
+		}
+	}
+
+	/**
+	 * Returns the number of eigenfaces, which is the length of the weights
+	 *
+	 * @return The number of eigenfaces
+	 */
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * Returns the number of pixels of a face
+	 *
+	 * @return The number of pixels of a face
+	 */
+	public int getPixels() {
+		return pixels;
+	}
+
+	public double[] getMeans() {
+		return means.clone();
+	}
+
+	public double[] getEigenValues() {
+		return eigenValues.clone();
+	}
+
+	/**
+	 * Returns the {@code i}-th eigenface, divided by its squared norm
+	 *
+	 * @param i
+	 *            The rank of the eigenface, 0 for the strongest
+	 * @return A copy of the {@code i}-th eigenface
+	 */
+	public double[] getComponent(int i) {
+		double[] component = new double[pixels];
+		for (int p = 0; p < pixels; p++) {
+			component[p] = components[i * pixels + p];
+		}
+		return component;
+	}
+}
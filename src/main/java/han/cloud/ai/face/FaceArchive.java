@@ -0,0 +1,404 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A read-only, memory-mapped gallery of pre-normalized gray faces, as written
+ * by {@link FaceArchiveWriter}.
+ *
+ * <p>
+ * An archive is laid out as
+ * <ul>
+ * <li>a fixed header of {@value #HEADER_SIZE} bytes: magic, version, face
+ * width and height, record stride, face count and the offset of the index;
+ * <li>the face records, {@code width * height} gray bytes each, row by row,
+ * every record starting on a multiple of {@value #ALIGNMENT} bytes;
+ * <li>the index, holding the id and metadata of each face.
+ * </ul>
+ * All numbers are big-endian and the {@code i}-th record belongs to the
+ * {@code i}-th index entry.
+ *
+ * <p>
+ * Opening an archive reads the index and maps the records; no face is decoded
+ * or normalized. Closing it unmaps the records at once, rather than whenever
+ * the archive is garbage collected, so it must not be closed while any thread
+ * still reads it or a buffer returned by {@link #record(int)}.
+ * {@link EigenModelHolder} closes the archive of a model only once its last
+ * reader is done.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceArchive implements AutoCloseable {
+
+	static final int MAGIC = 0x48464741; // HFGA
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int ALIGNMENT = 64;
+
+	private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+	private final Path path;
+	private final FileChannel channel;
+
+	private final int width;
+	private final int height;
+	private final int stride;
+	private final int recordsPerSegment;
+
+	private final String[] ids;
+	private final List<Map<String, String>> metadata;
+	private final Map<String, Integer> positions;
+	private final MappedByteBuffer[] segments;
+
+	private volatile boolean closed;
+
+	private FaceArchive(Path path) throws IOException {
+
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		try {
+			Header header = Header.read(channel, path);
+
+			this.width = header.width;
+			this.height = header.height;
+			this.stride = header.stride;
+			this.recordsPerSegment = Integer.MAX_VALUE / stride;
+
+			int count = header.count;
+			this.ids = new String[count];
+			this.metadata = new ArrayList<>(count);
+			this.positions = new HashMap<>(count * 2);
+
+			MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, header.indexOffset,
+					channel.size() - header.indexOffset);
+
+			try {
+				for (int i = 0; i < count; i++) {
+					ids[i] = readString(index);
+					int entries = index.getInt();
+					Map<String, String> values = entries == 0 ? Collections.emptyMap() : new LinkedHashMap<>();
+					for (int e = 0; e < entries; e++) {
+						values.put(readString(index), readString(index));
+					}
+					metadata.add(Collections.unmodifiableMap(values));
+					positions.put(ids[i], i);
+				}
+			} finally {
+				UNMAPPER.accept(index);
+			}
+
+			int segmentCount = (count + recordsPerSegment - 1) / recordsPerSegment;
+			this.segments = new MappedByteBuffer[segmentCount];
+
+			for (int s = 0; s < segmentCount; s++) {
+				int first = s * recordsPerSegment;
+				int length = Math.min(recordsPerSegment, count - first);
+				long offset = HEADER_SIZE + (long) first * stride;
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) length * stride);
+			}
+
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the archive at {@code path}
+	 *
+	 * @param path
+	 *            The archive file
+	 * @return The opened archive
+	 * @throws IOException
+	 *             if the file cannot be read or is not a face archive
+	 */
+	public static FaceArchive open(Path path) throws IOException {
+		return new FaceArchive(path);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the id of the {@code i}-th face
+	 *
+	 * @param i
+	 *            The position of the face in the archive
+	 * @return The id of the {@code i}-th face
+	 */
+	public String id(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * Returns the position of the face with {@code id}
+	 *
+	 * @param id
+	 *            The id of a face
+	 * @return The position of the face, or -1 if there is no such face
+	 */
+	public int indexOf(String id) {
+		Integer i = positions.get(id);
+		return i == null ? -1 : i;
+	}
+
+	public List<String> ids() {
+		return Collections.unmodifiableList(Arrays.asList(ids));
+	}
+
+	/**
+	 * Returns the metadata stored with the {@code i}-th face
+	 *
+	 * @param i
+	 *            The position of the face in the archive
+	 * @return The unmodifiable metadata of the {@code i}-th face
+	 */
+	public Map<String, String> metadata(int i) {
+		return metadata.get(i);
+	}
+
+	/**
+	 * Returns the gray pixels of the {@code i}-th face, row by row, as a
+	 * read-only view of the mapped file, valid until the archive is closed
+	 *
+	 * @param i
+	 *            The position of the face in the archive
+	 * @return A read-only buffer of {@code width * height} bytes
+	 * @throws IllegalStateException
+	 *             if the archive is closed
+	 */
+	public ByteBuffer record(int i) {
+
+		if (closed) {
+			throw new IllegalStateException("The archive " + path + " is closed");
+		}
+
+		ByteBuffer segment = segments[i / recordsPerSegment].duplicate();
+		int offset = (i % recordsPerSegment) * stride;
+		((Buffer) segment).limit(offset + width * height);
+		((Buffer) segment).position(offset);
+		return segment.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies the gray pixels of the {@code i}-th face into {@code target}
+	 *
+	 * @param i
+	 *            The position of the face in the archive
+	 * @param target
+	 *            The array to hold at least {@code width * height} bytes
+	 * @return {@code target}
+	 */
+	public byte[] copy(int i, byte[] target) {
+		record(i).get(target, 0, width * height);
+		return target;
+	}
+
+	/**
+	 * Copies the gray pixels of the {@code i}-th face into {@code target}, as
+	 * values in [0, 255]
+	 *
+	 * @param i
+	 *            The position of the face in the archive
+	 * @param target
+	 *            The array to hold at least {@code width * height} pixels
+	 * @return {@code target}
+	 */
+	public double[] pixels(int i, double[] target) {
+		ByteBuffer record = record(i);
+		for (int p = 0; p < width * height; p++) {
+			target[p] = record.get(p) & 0xFF;
+		}
+		return target;
+	}
+
+	/**
+	 * Returns the {@code i}-th face as a gray image, copied out of the mapped file
+	 *
+	 * @param i
+	 *            The position of the face in the archive
+	 * @return The {@code i}-th face
+	 */
+	public BufferedImage face(int i) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		copy(i, ((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+		return image;
+	}
+
+	/**
+	 * Returns a view of all the faces, each copied out of the mapped file only
+	 * when it is got
+	 *
+	 * @return The faces of the archive, in archive order
+	 */
+	public List<BufferedImage> faces() {
+		return new AbstractList<BufferedImage>() {
+
+			@Override
+			public BufferedImage get(int index) {
+				return face(index);
+			}
+
+			@Override
+			public int size() {
+				return ids.length;
+			}
+		};
+	}
+
+	/**
+	 * Closes the file and unmaps the records, which no thread may read any more
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			channel.close();
+		} finally {
+			for (MappedByteBuffer segment : segments) {
+				UNMAPPER.accept(segment);
+			}
+		}
+	}
+
+	/*
+	 * Unmaps a mapped buffer at once, through Unsafe.invokeCleaner from Java 9 on
+	 * or the buffer's cleaner on Java 8. Where neither can be reached, the buffer
+	 * is left to the garbage collector.
+	 */
+	private static Consumer<ByteBuffer> unmapper() {
+
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			return buffer -> invoke(invokeCleaner, unsafe, buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8
+		}
+
+		try {
+			Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> invoke(clean, invoke(cleaner, buffer));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return buffer -> {
+			};
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object... args) {
+		try {
+			return target == null ? null : method.invoke(target, args);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null; // left to the garbage collector
+		}
+	}
+
+	static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * The fixed header at the start of an archive
+	 */
+	static final class Header {
+
+		final int width;
+		final int height;
+		final int stride;
+		final int count;
+		final long indexOffset;
+
+		Header(int width, int height, int stride, int count, long indexOffset) {
+			this.width = width;
+			this.height = height;
+			this.stride = stride;
+			this.count = count;
+			this.indexOffset = indexOffset;
+		}
+
+		static Header read(FileChannel channel, Path path) throws IOException {
+
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+			while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+			}
+			((Buffer) buffer).flip();
+
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException(path + " is not a face archive");
+			}
+
+			Header header = new Header(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+					buffer.getLong());
+
+			if (header.width <= 0 || header.height <= 0 || header.stride < header.width * header.height
+					|| header.count < 0 || header.indexOffset < HEADER_SIZE + (long) header.count * header.stride
+					|| header.indexOffset > channel.size()) {
+				throw new IOException(path + " has a corrupt header");
+			}
+
+			return header;
+		}
+
+		void write(FileChannel channel) throws IOException {
+
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION);
+			buffer.putInt(width).putInt(height).putInt(stride);
+			buffer.putInt(count).putLong(indexOffset);
+			((Buffer) buffer).position(HEADER_SIZE);
+			((Buffer) buffer).flip();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, buffer.position());
+			}
+		}
+	}
+}
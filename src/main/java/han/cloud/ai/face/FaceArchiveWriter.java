@@ -0,0 +1,331 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.FaceNormalizer;
+import han.cloud.ai.util.IoTool;
+
+/**
+ * <p>
+ * This class writes a {@link FaceArchive}, one face at a time.
+ *
+ * <p>
+ * The archive is written to a temporary file next to its destination and moved
+ * into place by {@link #close()}, so readers never see a partial archive.
+ * Faces may be appended from several threads; each image is normalized on the
+ * appending thread and only the write itself is serialized.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceArchiveWriter implements AutoCloseable {
+
+	public static final String SOURCE = "source";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FaceArchiveWriter.class);
+	private static final int BATCH_PER_CPU = 64;
+
+	private final Path path;
+	private final Path temp;
+	private final FileChannel channel;
+
+	private final int width;
+	private final int height;
+	private final int stride;
+	private final ByteBuffer record;
+
+	private final List<String> ids = new ArrayList<>();
+	private final List<Map<String, String>> metadata = new ArrayList<>();
+	private final Set<String> known = new HashSet<>();
+
+	private boolean closed;
+
+	private FaceArchiveWriter(Path path, int width, int height) throws IOException {
+		this.path = path;
+		this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+		this.width = width;
+		this.height = height;
+		this.stride = (width * height + FaceArchive.ALIGNMENT - 1) / FaceArchive.ALIGNMENT * FaceArchive.ALIGNMENT;
+		this.record = ByteBuffer.allocateDirect(stride);
+		this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Starts an archive of faces in standard size at {@code path}
+	 *
+	 * @param path
+	 *            The archive file, replaced when the writer is closed
+	 * @return A writer to append the faces with
+	 * @throws IOException
+	 *             if the temporary file cannot be created
+	 */
+	public static FaceArchiveWriter create(Path path) throws IOException {
+		return create(path, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
+	}
+
+	/**
+	 * Starts an archive of faces of the given size at {@code path}
+	 *
+	 * @param path
+	 *            The archive file, replaced when the writer is closed
+	 * @param width
+	 *            The width of each face
+	 * @param height
+	 *            The height of each face
+	 * @return A writer to append the faces with
+	 * @throws IOException
+	 *             if the temporary file cannot be created
+	 */
+	public static FaceArchiveWriter create(Path path, int width, int height) throws IOException {
+		return new FaceArchiveWriter(path, width, height);
+	}
+
+	/**
+	 * @see #append(String, BufferedImage, Map)
+	 */
+	public void append(String id, BufferedImage image) throws IOException {
+		append(id, image, Collections.emptyMap());
+	}
+
+	/**
+	 * Normalizes {@code image} into a gray face and appends it
+	 *
+	 * @param id
+	 *            The unique id of the face
+	 * @param image
+	 *            The image of the face, of any size and type
+	 * @param metadata
+	 *            The metadata to keep with the face
+	 * @throws IOException
+	 *             if the face cannot be written
+	 * @throws IllegalArgumentException
+	 *             if {@code id} is already in the archive or {@code image} is
+	 *             empty
+	 */
+	public void append(String id, BufferedImage image, Map<String, String> metadata) throws IOException {
+		byte[] face = FaceNormalizer.normalize(image, null, new byte[width * height], width, height);
+		append(id, face, metadata);
+	}
+
+	/**
+	 * Appends a face that is already gray and normalized
+	 *
+	 * @param id
+	 *            The unique id of the face
+	 * @param face
+	 *            The {@code width * height} gray pixels of the face, row by row
+	 * @param metadata
+	 *            The metadata to keep with the face
+	 * @throws IOException
+	 *             if the face cannot be written
+	 * @throws IllegalArgumentException
+	 *             if {@code id} is already in the archive or {@code face} has the
+	 *             wrong size
+	 */
+	public synchronized void append(String id, byte[] face, Map<String, String> metadata) throws IOException {
+
+		if (closed) {
+			throw new IllegalStateException("The archive writer is closed");
+		}
+
+		if (face.length != width * height) {
+			throw new IllegalArgumentException("Expected " + width * height + " pixels but got " + face.length);
+		}
+
+		checkLength(id);
+		metadata.forEach((key, value) -> {
+			checkLength(key);
+			checkLength(value);
+		});
+
+		if (known.contains(id)) {
+			throw new IllegalArgumentException("Duplicate face id " + id);
+		}
+
+		((Buffer) record).clear();
+		record.put(face);
+		((Buffer) record).position(stride);
+		((Buffer) record).flip();
+
+		long offset = FaceArchive.HEADER_SIZE + (long) ids.size() * stride;
+		while (record.hasRemaining()) {
+			offset += channel.write(record, offset);
+		}
+
+		known.add(id);
+		ids.add(id);
+		this.metadata.add(metadata.isEmpty() ? Collections.emptyMap() : new LinkedHashMap<>(metadata));
+	}
+
+	public synchronized boolean contains(String id) {
+		return known.contains(id);
+	}
+
+	public synchronized int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Writes the index and the header and moves the archive into place
+	 *
+	 * @throws IOException
+	 *             if the archive cannot be completed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			long indexOffset = FaceArchive.HEADER_SIZE + (long) ids.size() * stride;
+			channel.position(indexOffset);
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			for (int i = 0; i < ids.size(); i++) {
+				writeString(out, ids.get(i));
+				out.writeInt(metadata.get(i).size());
+				for (Map.Entry<String, String> entry : metadata.get(i).entrySet()) {
+					writeString(out, entry.getKey());
+					writeString(out, entry.getValue());
+				}
+			}
+			out.flush();
+
+			new FaceArchive.Header(width, height, stride, ids.size(), indexOffset).write(channel);
+			channel.force(true);
+
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		channel.close();
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Abandons the archive, leaving any existing file at its path untouched
+	 *
+	 * @throws IOException
+	 *             if the temporary file cannot be deleted
+	 */
+	public synchronized void discard() throws IOException {
+		if (!closed) {
+			closed = true;
+			channel.close();
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Builds an archive of faces in standard size out of all the images under
+	 * {@code directory}, decoding and normalizing them in parallel.
+	 * <p>
+	 * Each face is keyed by the path of its image relative to {@code directory},
+	 * without the extension, and keeps that path under {@link #SOURCE}. The faces
+	 * are written in the order of their paths, so the same directory always gives
+	 * the same archive. Images that cannot be read, or whose id is taken by an
+	 * image of another format, are skipped with a warning.
+	 *
+	 * @param directory
+	 *            The directory holding one face image per file
+	 * @param archive
+	 *            The archive file to write
+	 * @return The number of faces written
+	 * @throws IOException
+	 *             if the directory cannot be listed or the archive cannot be
+	 *             written
+	 */
+	public static int convert(Path directory, Path archive) throws IOException {
+
+		List<Path> images = IoTool.listImages(directory);
+
+		int batch = BATCH_PER_CPU * Runtime.getRuntime().availableProcessors();
+		FaceArchiveWriter writer = create(archive);
+
+		try {
+			for (int from = 0; from < images.size(); from += batch) {
+
+				List<Path> paths = images.subList(from, Math.min(from + batch, images.size()));
+				List<byte[]> faces = paths.parallelStream() //
+						.map(writer::normalize) //
+						.collect(Collectors.toList());
+
+				for (int i = 0; i < paths.size(); i++) {
+					if (faces.get(i) == null) {
+						continue;
+					}
+
+					String source = directory.relativize(paths.get(i)).toString().replace('\\', '/');
+					String id = source.substring(0, source.length() - IoTool.extension(paths.get(i)).length() - 1);
+
+					if (writer.contains(id)) {
+						LOGGER.warn("Skipped {}: face id {} is already taken", source, id);
+						continue;
+					}
+
+					writer.append(id, faces.get(i), Collections.singletonMap(SOURCE, source));
+				}
+			}
+
+		} catch (IOException | RuntimeException e) {
+			writer.discard();
+			throw e;
+		}
+
+		writer.close();
+		LOGGER.info("Wrote {} of {} images under {} to {}", writer.size(), images.size(), directory, archive);
+
+		return writer.size();
+	}
+
+	private byte[] normalize(Path image) {
+		try {
+			return FaceNormalizer.normalize(IoTool.readImage(image), null, new byte[width * height], width, height);
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.warn("Skipped {}: {}", image, e.getMessage());
+			return null;
+		}
+	}
+
+	private static void checkLength(String value) {
+		if (value.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+			throw new IllegalArgumentException("Too long for a face archive: " + value.substring(0, 64) + "...");
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
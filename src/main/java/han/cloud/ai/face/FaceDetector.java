@@ -3,6 +3,7 @@ package han.cloud.ai.face;
 import static java.util.stream.Collectors.toList;
 import static org.bytedeco.javacpp.helper.opencv_objdetect.cvHaarDetectObjects;
 import static org.bytedeco.javacpp.opencv_core.cvClearMemStorage;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
 import static org.bytedeco.javacpp.opencv_core.cvGetSeqElem;
 import static org.bytedeco.javacpp.opencv_core.cvLoad;
 import static org.bytedeco.javacpp.opencv_core.cvPoint;
@@ -14,6 +15,7 @@ import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_FIND_BIGGEST_OBJECT;
 
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -30,6 +32,10 @@ import org.bytedeco.javacpp.opencv_objdetect.CvHaarClassifierCascade;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import han.cloud.ai.metrics.FaceMetrics;
+import han.cloud.ai.metrics.Stage;
+import han.cloud.ai.util.FaceNormalizer;
+import han.cloud.ai.util.GrayDecoder;
 import han.cloud.ai.util.ImageTool;
 
 /**
@@ -41,34 +47,83 @@ import han.cloud.ai.util.ImageTool;
  * It uses Intel's Open Source Computer Vision Library and the frontal face
  * classifier trained by Intel.
  * 
+ * <p>
+ * A detector can be shared by any number of threads. Each thread loads its own
+ * copy of the cascade on its first detection.
+ * 
  * @author Jiayun Han
  *
  */
 public final class FaceDetector {
 
+	/*
+	 * The gray image and the storage a thread detects faces with, kept from one
+	 * call to the next so that detection allocates no native memory once a thread
+	 * has seen an image of the same size
+	 */
+	private static final class Scratch {
+
+		private final CvMemStorage storage = CvMemStorage.create();
+		private IplImage gray;
+		private ByteBuffer pixels;
+
+		// Writes image in gray into the image of this thread
+		private IplImage gray(BufferedImage image) {
+
+			int width = image.getWidth();
+			int height = image.getHeight();
+
+			if (gray == null || gray.width() != width || gray.height() != height) {
+				if (gray != null) {
+					gray.release();
+				}
+				gray = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+				pixels = gray.getByteBuffer();
+			}
+
+			FaceNormalizer.gray(image, pixels, gray.widthStep());
+			return gray;
+		}
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 	private static final Object LOCK = new Object();
 	private static final Logger LOGGER = LoggerFactory.getLogger(FaceDetector.class);
 
 	private static volatile FaceDetector INSTANCE;
-	private CvHaarClassifierCascade cascade;
+
+	/*
+	 * OpenCV keeps the state of a detection inside the cascade, such as the
+	 * integral images of the scale being scanned, so each thread detects with its
+	 * own copy loaded from the same file
+	 */
+	private final ThreadLocal<CvHaarClassifierCascade> cascades;
 
 	private FaceDetector() {
+		this(System.getenv("PYTHON_HOME") + "face_recognition/haarcascade_frontalface_alt.xml");
+	}
+
+	// A detector with the cascade of a file, loaded once here to fail at once
+	FaceDetector(String cascadePath) {
 
 		Loader.load(opencv_objdetect.class);
-		
-		String pyHome = System.getenv("PYTHON_HOME");
-		String cascadePath = pyHome + "face_recognition/haarcascade_frontalface_alt.xml";
 
-		try {
+		CvHaarClassifierCascade cascade = load(cascadePath);
+		cascades = ThreadLocal.withInitial(() -> load(cascadePath));
+		cascades.set(cascade);
 
-			cascade = new CvHaarClassifierCascade(cvLoad(cascadePath));
+		LOGGER.info("Created face detector: address = {}", cascade.address());
+	}
+
+	private static CvHaarClassifierCascade load(String cascadePath) {
 
-			LOGGER.info("Created face detector: address = {}", cascade.address());
-			INSTANCE = this;
+		CvHaarClassifierCascade cascade = new CvHaarClassifierCascade(cvLoad(cascadePath));
 
-		} catch (Exception e) {
-			LOGGER.error("Failed to create face detector", e);
+		if (cascade.isNull()) {
+			throw new IllegalStateException("Cannot load the Haar cascade from " + cascadePath);
 		}
+
+		return cascade;
 	}
 
 	/**
@@ -133,38 +188,112 @@ public final class FaceDetector {
 		return findBiggestFace(image).map(rect -> ImageTool.extract(image, rect));
 	}
 
+	/**
+	 * Returns the {@link java.awt.Rectangle}s of the faces contained in an
+	 * encoded image, decoding it straight into gray
+	 * 
+	 * @param encoded
+	 *            The encoded image, such as JPEG or PNG bytes
+	 * @param max
+	 *            The maximal number of faces to be found; -1 to find all faces
+	 * @return The {@link java.awt.Rectangle}s of the found faces or an empty list
+	 *         if no face is found
+	 * @throws IllegalArgumentException
+	 *             if the image cannot be decoded
+	 */
+	public List<Rectangle> findFaces(byte[] encoded, int max) {
+		return findFaces(ByteBuffer.wrap(encoded), max, 1);
+	}
+
+	/**
+	 * Returns the {@link java.awt.Rectangle}s of the faces contained in an
+	 * encoded image, decoding it straight into gray and reducing it if asked to
+	 * <p>
+	 * The cascade runs much faster on a reduced image, at the cost of missing the
+	 * faces that become smaller than its window.
+	 * 
+	 * @param encoded
+	 *            The encoded image, such as JPEG or PNG bytes
+	 * @param max
+	 *            The maximal number of faces to be found; -1 to find all faces
+	 * @param reduction
+	 *            1 to detect on the full image; 2, 4 or 8 to detect on the image
+	 *            reduced to that fraction of its size
+	 * @return The {@link java.awt.Rectangle}s of the found faces in the
+	 *         coordinates of the full image or an empty list if no face is found
+	 * @throws IllegalArgumentException
+	 *             if the image cannot be decoded
+	 * @see GrayDecoder
+	 */
+	public List<Rectangle> findFaces(ByteBuffer encoded, int max, int reduction) {
+
+		long start = FaceMetrics.start();
+		IplImage grayIntel = GrayDecoder.decodeIntel(encoded, reduction);
+		FaceMetrics.stop(Stage.DETECT_CONVERT, start);
+
+		return scale(detect(grayIntel, max), reduction);
+	}
+
 	private List<Rectangle> findFacesHelper(BufferedImage image, int maxFaces, int minNeighbors, int flags) {
 
-		IplImage intel = ImageTool.toIntelImage(image);
-		IplImage grayIntel = ImageTool.copyGray(intel);
+		long start = FaceMetrics.start();
+		IplImage grayIntel = SCRATCH.get().gray(image);
+		FaceMetrics.stop(Stage.DETECT_CONVERT, start);
+
+		return detect(grayIntel, maxFaces, minNeighbors, flags);
+	}
 
-		CvMemStorage storage = CvMemStorage.create();
-		CvSeq faces = cvHaarDetectObjects(grayIntel, cascade, storage, 1.1, minNeighbors, flags);
-		cvClearMemStorage(storage);
+	// The faces in a gray image, in its own coordinates
+	List<Rectangle> detect(IplImage grayIntel, int maxFaces) {
+		return detect(grayIntel, maxFaces, 3, CV_HAAR_DO_CANNY_PRUNING);
+	}
 
-		int foundFaces = faces.total();
+	private List<Rectangle> detect(IplImage grayIntel, int maxFaces, int minNeighbors, int flags) {
 
-		if (maxFaces == -1) {
-			maxFaces = foundFaces;
-		}
+		long start = FaceMetrics.start();
+		CvMemStorage storage = SCRATCH.get().storage;
 
-		List<Rectangle> rectangles = new ArrayList<>();
+		try {
+			CvSeq faces = cvHaarDetectObjects(grayIntel, cascades.get(), storage, 1.1, minNeighbors, flags);
+			FaceMetrics.stop(Stage.DETECT_CASCADE, start);
+
+			int foundFaces = faces.total();
+
+			if (maxFaces == -1) {
+				maxFaces = foundFaces;
+			}
 
-		if (foundFaces > 0) {
+			List<Rectangle> rectangles = new ArrayList<>();
 
-			List<CvRect> cvRects = new ArrayList<>();
+			if (foundFaces > 0) {
 
-			for (int i = 0; i < foundFaces; i++) {
-				cvRects.add(new CvRect(cvGetSeqElem(faces, i)));
+				List<CvRect> cvRects = new ArrayList<>();
+
+				for (int i = 0; i < foundFaces; i++) {
+					cvRects.add(new CvRect(cvGetSeqElem(faces, i)));
+				}
+
+				rectangles = cvRects.stream() // sort in descending order
+						.sorted((a, b) -> Integer.compare(b.width() * b.height(), a.width() * a.height()))//
+						.limit(maxFaces) //
+						.map(cv -> toRectangle(cv, 1)) //
+						.collect(toList());
 			}
 
-			rectangles = cvRects.stream() // sort in descending order
-					.sorted((a, b) -> Integer.compare(b.width() * b.height(), a.width() * a.height()))//
-					.limit(maxFaces) //
-					.map(cv -> toRectangle(cv, 1)) //
-					.collect(toList());
+			return rectangles;
+
+		} finally {
+			cvClearMemStorage(storage);
 		}
+	}
 
+	// The rectangles found on an image reduced to 1/reduction, in the coordinates
+	// of the full image
+	static List<Rectangle> scale(List<Rectangle> rectangles, int reduction) {
+		if (reduction != 1) {
+			rectangles.forEach(rect -> rect.setBounds(rect.x * reduction, rect.y * reduction,
+					rect.width * reduction, rect.height * reduction));
+		}
 		return rectangles;
 	}
 
@@ -232,6 +361,9 @@ public final class FaceDetector {
 	 * it is instantiated only once, even in multiple threads.
 	 * 
 	 * @return The singleton instance of this class
+	 * @throws IllegalStateException
+	 *             if the cascade cannot be loaded, in which case the next call
+	 *             tries again
 	 */
 	public static FaceDetector instance() {
 
@@ -241,6 +373,7 @@ public final class FaceDetector {
 				detector = INSTANCE;
 				if (detector == null) {
 					detector = new FaceDetector();
+					INSTANCE = detector;
 				}
 			}
 		}
@@ -0,0 +1,390 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+import han.cloud.ai.face.ifs.FaceEncoder;
+import han.cloud.ai.metrics.FaceMetrics;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+import han.cloud.ai.util.ImageTool;
+import han.cloud.ai.util.ThreadTool;
+
+/**
+ * <p>
+ * This class keeps the embeddings of the gallery faces so that they are
+ * computed only once.
+ *
+ * <p>
+ * The embeddings are held row by row in one primitive float matrix, each row
+ * keyed by a stable face id. A row is re-encoded only when the face stored
+ * under its id changes.
+ *
+ * @author Jiayun Han
+ *
+ */
+public class FaceEncodingStore {
+
+	private static final int MAGIC = 0x48464553; // HFES
+	private static final int VERSION = 1;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int PARALLEL_THRESHOLD = 1024;
+
+	private final int dimension;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, Integer> rows = new HashMap<>();
+
+	private String[] ids;
+	private long[] fingerprints;
+	private float[] encodings;
+	private int size;
+
+	/**
+	 * Constructs an empty store
+	 *
+	 * @param dimension
+	 *            The length of each embedding
+	 */
+	public FaceEncodingStore(int dimension) {
+		this.dimension = dimension;
+		this.ids = new String[INITIAL_CAPACITY];
+		this.fingerprints = new long[INITIAL_CAPACITY];
+		this.encodings = new float[INITIAL_CAPACITY * dimension];
+	}
+
+	/**
+	 * Stores the embedding of {@code face} under {@code id}, encoding it only if
+	 * the id is new or its face has changed.
+	 * <p>
+	 * If the face has changed but cannot be encoded, the embedding of the
+	 * previous face is removed, so that it is no longer matched.
+	 *
+	 * @param id
+	 *            The stable id of the face
+	 * @param face
+	 *            The gray face in standard size
+	 * @param encoder
+	 *            The encoder to compute the embedding with
+	 * @return True if an embedding of {@code face} is now stored under
+	 *         {@code id}, whether kept or newly encoded; false if the face cannot
+	 *         be encoded, in which case nothing is stored under {@code id}
+	 */
+	public boolean put(String id, BufferedImage face, FaceEncoder encoder) {
+
+		long fingerprint = fingerprint(face);
+
+		lock.readLock().lock();
+		try {
+			Integer row = rows.get(id);
+			if (row != null && fingerprints[row] == fingerprint) {
+				return true;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		float[] encoding = encoder.encode(face);
+		if (encoding == null) {
+			remove(id);
+			return false;
+		}
+
+		put(id, fingerprint, encoding);
+		return true;
+	}
+
+	private void put(String id, long fingerprint, float[] encoding) {
+
+		if (encoding.length != dimension) {
+			throw new IllegalArgumentException(
+					"Expected an encoding of length " + dimension + " but got " + encoding.length);
+		}
+
+		lock.writeLock().lock();
+		try {
+			Integer row = rows.get(id);
+			if (row == null) {
+				ensureCapacity(size + 1);
+				row = size++;
+				rows.put(id, row);
+				ids[row] = id;
+			}
+			fingerprints[row] = fingerprint;
+			System.arraycopy(encoding, 0, encodings, row * dimension, dimension);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the embedding stored under {@code id}
+	 * <p>
+	 * The last row is moved into the freed slot, so row indices are not stable
+	 * across removals; use {@link #id(int)} to map a row back to its face.
+	 *
+	 * @param id
+	 *            The id of the face to be removed
+	 * @return True if an embedding was removed
+	 */
+	public boolean remove(String id) {
+
+		lock.writeLock().lock();
+		try {
+			Integer row = rows.remove(id);
+			if (row == null) {
+				return false;
+			}
+
+			int last = --size;
+			if (row != last) {
+				ids[row] = ids[last];
+				fingerprints[row] = fingerprints[last];
+				System.arraycopy(encodings, last * dimension, encodings, row * dimension, dimension);
+				rows.put(ids[row], row);
+			}
+			ids[last] = null;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the closest stored embedding to {@code probe}, measured in Euclidean
+	 * distance
+	 *
+	 * @param probe
+	 *            The embedding of the face to be recognized
+	 * @return The distance and row of the closest embedding
+	 * @see #id(int)
+	 */
+	public MatchInfo nearest(float[] probe) {
+		return nearest(probe, ScanLimit.NONE);
+	}
+
+	/**
+	 * Returns the closest stored embedding to {@code probe} among those scanned
+	 * before {@code limit} stops the scan
+	 * <p>
+	 * With a limit, the embeddings are compared {@value #PARALLEL_THRESHOLD} rows
+	 * at a time and the limit is checked between the blocks.
+	 *
+	 * @param probe
+	 *            The embedding of the face to be recognized
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The distance and row of the closest embedding found, and whether
+	 *         the scan was complete
+	 * @see #id(int)
+	 */
+	public MatchInfo nearest(float[] probe, ScanLimit limit) {
+
+		ThreadTool.checkInterrupted();
+
+		lock.readLock().lock();
+		try {
+
+			FaceMetrics.gallerySize(size);
+
+			int block = limit.isBounded() ? PARALLEL_THRESHOLD : Math.max(1, size);
+			double[] distances = new double[Math.min(block, size)];
+			NearestMatch nearest = new NearestMatch(limit, true);
+
+			int from = 0;
+			while (from < size && !limit.isExpired()) {
+
+				int to = Math.min(from + block, size);
+				int offset = from;
+
+				IntStream rowStream = IntStream.range(from, to);
+				if (to - from >= PARALLEL_THRESHOLD) {
+					rowStream = rowStream.parallel();
+				}
+				rowStream.forEach(row -> distances[row - offset] = squaredDistance(probe, row));
+
+				ThreadTool.checkInterrupted();
+
+				boolean accepted = false;
+				for (int row = from; row < to && !accepted; row++) {
+					accepted = nearest.offer(row, distances[row - from]);
+				}
+
+				from = to;
+				if (accepted) {
+					break;
+				}
+			}
+
+			return nearest.result(from == size);
+
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private double squaredDistance(float[] probe, int row) {
+		int offset = row * dimension;
+		double sum = 0;
+		for (int col = 0; col < dimension; col++) {
+			double value = encodings[offset + col] - probe[col];
+			sum += value * value;
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the id of the face stored at {@code row}
+	 *
+	 * @param row
+	 *            The row of the embedding, as returned by {@link #nearest(float[])}
+	 * @return The id of the face stored at {@code row}, or null if there is none
+	 */
+	public String id(int row) {
+		lock.readLock().lock();
+		try {
+			return row >= 0 && row < size ? ids[row] : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean contains(String id) {
+		lock.readLock().lock();
+		try {
+			return rows.containsKey(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<String> ids() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(Arrays.asList(ids).subList(0, size));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int dimension() {
+		return dimension;
+	}
+
+	/**
+	 * Writes this store to {@code path}, replacing the file atomically
+	 *
+	 * @param path
+	 *            The file to write to
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void save(Path path) throws IOException {
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+		lock.readLock().lock();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dimension);
+			out.writeInt(size);
+
+			for (int row = 0; row < size; row++) {
+				out.writeUTF(ids[row]);
+				out.writeLong(fingerprints[row]);
+				int offset = row * dimension;
+				for (int col = 0; col < dimension; col++) {
+					out.writeFloat(encodings[offset + col]);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a store previously written by {@link #save(Path)}
+	 *
+	 * @param path
+	 *            The file to read from
+	 * @return The store read from {@code path}
+	 * @throws IOException
+	 *             if the file cannot be read or is not a store
+	 */
+	public static FaceEncodingStore load(Path path) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(path + " is not a face encoding store");
+			}
+
+			int dimension = in.readInt();
+			int size = in.readInt();
+
+			FaceEncodingStore store = new FaceEncodingStore(dimension);
+			float[] encoding = new float[dimension];
+
+			for (int row = 0; row < size; row++) {
+				String id = in.readUTF();
+				long fingerprint = in.readLong();
+				for (int col = 0; col < dimension; col++) {
+					encoding[col] = in.readFloat();
+				}
+				store.put(id, fingerprint, encoding);
+			}
+
+			return store;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > ids.length) {
+			int newCapacity = Math.max(capacity, ids.length * 2);
+			ids = Arrays.copyOf(ids, newCapacity);
+			fingerprints = Arrays.copyOf(fingerprints, newCapacity);
+			encodings = Arrays.copyOf(encodings, newCapacity * dimension);
+		}
+	}
+
+	// FNV-1a over the pixels, so a changed face invalidates its embedding
+	private static long fingerprint(BufferedImage face) {
+		long hash = 0xcbf29ce484222325L;
+		for (double pixel : ImageTool.toPixels(face)) {
+			hash ^= (long) pixel;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= face.getWidth();
+		hash *= 0x100000001b3L;
+		hash ^= face.getHeight();
+		return hash * 0x100000001b3L;
+	}
+}
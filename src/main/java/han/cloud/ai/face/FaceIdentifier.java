@@ -0,0 +1,241 @@
+package han.cloud.ai.face;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import han.cloud.ai.metrics.FaceMetrics;
+import han.cloud.ai.metrics.Stage;
+import han.cloud.ai.model.FaceQuality;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.FaceNormalizer;
+import han.cloud.ai.util.FaceQualityAssessor;
+import han.cloud.ai.util.GrayDecoder;
+import han.cloud.ai.util.KeyValuePair;
+import han.cloud.ai.util.ThreadTool;
+
+/**
+ * <p>
+ * This class finds all the faces in a photo and recognizes each of them against
+ * an {@link EigenFaceModel} in a single call.
+ *
+ * <p>
+ * Unlike chaining {@link FaceDetector#extractFaces(BufferedImage, int)} and
+ * {@link EigenFaceModel#recognize(BufferedImage)}, no face is copied out of the
+ * photo: each detected region is normalized straight from the photo into a
+ * buffer of the calling thread, and all the faces are projected in one batch.
+ * The buffers are kept from one call to the next, so a thread identifying
+ * photos with a similar number of faces allocates little besides the results.
+ *
+ * <p>
+ * Given a {@link FaceQualityAssessor}, each face is scored once normalized, and
+ * the faces that are not acceptable are neither projected nor recognized.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceIdentifier {
+
+	/*
+	 * The buffers a thread normalizes and projects the faces of a photo with
+	 */
+	private static final class Scratch {
+
+		private final byte[] face = new byte[FaceConstants.columns];
+		private double[][] pixels = new double[0][];
+		private double[][] weights = new double[0][];
+
+		private void ensure(int faces, int dimension) {
+			if (pixels.length < faces) {
+				pixels = new double[faces][FaceConstants.columns];
+			}
+			if (weights.length < faces || (faces > 0 && weights[0].length != dimension)) {
+				weights = new double[Math.max(faces, weights.length)][dimension];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private final FaceDetector detector;
+	private final EigenFaceModel model;
+	private final FaceQualityAssessor assessor;
+
+	/**
+	 * Constructs an instance detecting faces with the shared {@link FaceDetector}
+	 *
+	 * @param model
+	 *            The model to recognize the faces against
+	 */
+	public FaceIdentifier(EigenFaceModel model) {
+		this(FaceDetector.instance(), model);
+	}
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param detector
+	 *            The detector to find the faces with
+	 * @param model
+	 *            The model to recognize the faces against
+	 */
+	public FaceIdentifier(FaceDetector detector, EigenFaceModel model) {
+		this(detector, model, null);
+	}
+
+	/**
+	 * Constructs an instance recognizing only the faces acceptable to
+	 * {@code assessor}
+	 *
+	 * @param detector
+	 *            The detector to find the faces with
+	 * @param model
+	 *            The model to recognize the faces against
+	 * @param assessor
+	 *            The assessor to score the faces with; null to recognize all the
+	 *            faces without scoring them
+	 */
+	public FaceIdentifier(FaceDetector detector, EigenFaceModel model, FaceQualityAssessor assessor) {
+		this.detector = detector;
+		this.model = model;
+		this.assessor = assessor;
+	}
+
+	/**
+	 * Finds all the faces in {@code image} and recognizes each of them
+	 *
+	 * @param image
+	 *            The photo to identify the faces in
+	 * @return The region of each face paired with the result of recognizing it,
+	 *         biggest face first, or an empty list if no face is found
+	 */
+	public List<KeyValuePair<Rectangle, MatchInfo>> identifyAll(BufferedImage image) {
+
+		List<Rectangle> rects = detector.findFaces(image, -1);
+
+		return identify(rects, (rect, face) -> FaceNormalizer.normalize(image, rect, face, FaceConstants.FACE_WIDTH,
+				FaceConstants.FACE_HEIGHT));
+	}
+
+	/**
+	 * Finds all the faces in an encoded photo and recognizes each of them,
+	 * decoding it straight into gray
+	 *
+	 * @param encoded
+	 *            The encoded photo, such as JPEG or PNG bytes
+	 * @return The region of each face paired with the result of recognizing it,
+	 *         biggest face first, or an empty list if no face is found
+	 * @throws IllegalArgumentException
+	 *             if the photo cannot be decoded
+	 */
+	public List<KeyValuePair<Rectangle, MatchInfo>> identifyAll(byte[] encoded) {
+		return identifyAll(ByteBuffer.wrap(encoded), 1);
+	}
+
+	/**
+	 * Finds all the faces in an encoded photo and recognizes each of them,
+	 * decoding it once straight into gray and reducing it if asked to
+	 * <p>
+	 * The faces are both detected and normalized on the reduced photo, which
+	 * suits photos whose faces stay well above the standard size once reduced.
+	 *
+	 * @param encoded
+	 *            The encoded photo, such as JPEG or PNG bytes
+	 * @param reduction
+	 *            1 to keep the full photo; 2, 4 or 8 to reduce it to that
+	 *            fraction of its size
+	 * @return The region of each face in the coordinates of the full photo paired
+	 *         with the result of recognizing it, biggest face first, or an empty
+	 *         list if no face is found
+	 * @throws IllegalArgumentException
+	 *             if the photo cannot be decoded
+	 * @see GrayDecoder
+	 */
+	public List<KeyValuePair<Rectangle, MatchInfo>> identifyAll(ByteBuffer encoded, int reduction) {
+
+		long start = FaceMetrics.start();
+		Mat gray = GrayDecoder.decode(encoded, reduction);
+		FaceMetrics.stop(Stage.DETECT_CONVERT, start);
+
+		List<Rectangle> rects = detector.detect(GrayDecoder.intel(), -1);
+
+		List<KeyValuePair<Rectangle, MatchInfo>> results = identify(rects, (rect, face) -> GrayDecoder.normalize(gray,
+				rect, face, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT));
+
+		FaceDetector.scale(rects, reduction);
+		return results;
+	}
+
+	// Normalizes the face of each region with normalizer and recognizes all of them
+	private List<KeyValuePair<Rectangle, MatchInfo>> identify(List<Rectangle> rects,
+			BiConsumer<Rectangle, byte[]> normalizer) {
+
+		if (rects.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		ThreadTool.checkInterrupted();
+
+		EigenSpace space = model.getSpace();
+		int count = rects.size();
+
+		Scratch scratch = SCRATCH.get();
+		scratch.ensure(count, space.getDimension());
+
+		// the rejected faces are left out of the batch
+		FaceQuality[] qualities = new FaceQuality[count];
+		int accepted = 0;
+
+		for (int i = 0; i < count; i++) {
+			normalizer.accept(rects.get(i), scratch.face);
+
+			if (assessor != null) {
+				qualities[i] = assessor.assess(scratch.face, rects.get(i));
+				if (!qualities[i].isAcceptable()) {
+					continue;
+				}
+			}
+
+			double[] pixels = scratch.pixels[accepted++];
+			for (int p = 0; p < pixels.length; p++) {
+				pixels[p] = scratch.face[p] & 0xFF;
+			}
+		}
+
+		double[][] weights = accepted == 0 ? scratch.weights
+				: space.project(scratch.pixels, accepted, scratch.weights);
+
+		List<KeyValuePair<Rectangle, MatchInfo>> results = new ArrayList<>(count);
+		for (int i = 0, projected = 0; i < count; i++) {
+			MatchInfo matchInfo = qualities[i] == null || qualities[i].isAcceptable()
+					? model.recognize(weights[projected++])
+					: new MatchInfo(Double.MAX_VALUE, -1);
+			matchInfo.setQuality(qualities[i]);
+			results.add(new KeyValuePair<>(rects.get(i), matchInfo));
+		}
+
+		return results;
+	}
+
+	public FaceDetector getDetector() {
+		return detector;
+	}
+
+	public EigenFaceModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return The assessor the faces are scored with, or null if none
+	 */
+	public FaceQualityAssessor getAssessor() {
+		return assessor;
+	}
+}
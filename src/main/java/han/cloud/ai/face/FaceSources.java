@@ -0,0 +1,164 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.face.ifs.FaceSource;
+import han.cloud.ai.util.ImageTool;
+import han.cloud.ai.util.IoTool;
+
+/**
+ * Factories of {@link FaceSource}s.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceSources {
+
+	/**
+	 * The number of faces the trainers read from a source at a time
+	 */
+	public static final int CHUNK_SIZE = 256;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FaceSources.class);
+
+	private FaceSources() {
+	}
+
+	/**
+	 * Returns a source of the faces in {@code faces}
+	 *
+	 * @param faces
+	 *            The gray faces in standard size
+	 * @return A source of {@code faces}
+	 */
+	public static FaceSource of(List<BufferedImage> faces) {
+		return new FaceSource() {
+
+			@Override
+			public Iterator<BufferedImage> iterator() {
+				return faces.iterator();
+			}
+
+			@Override
+			public int size() {
+				return faces.size();
+			}
+		};
+	}
+
+	/**
+	 * Returns a source of the faces in {@code archive}, each copied out of the
+	 * mapped file only when it is read
+	 *
+	 * @param archive
+	 *            The archive of gray faces in standard size
+	 * @return A source of the faces in {@code archive}
+	 */
+	public static FaceSource of(FaceArchive archive) {
+		return of(archive.faces());
+	}
+
+	/**
+	 * Returns a source calling {@code passes} for each pass over the faces
+	 *
+	 * @param passes
+	 *            Returns a new iterator over the same faces each time it is called
+	 * @return A source of the faces returned by the iterators
+	 */
+	public static FaceSource of(Supplier<? extends Iterator<BufferedImage>> passes) {
+		return () -> passes.get();
+	}
+
+	/**
+	 * Returns a source of the images under {@code directory}, each decoded and
+	 * turned into a gray face in standard size only when it is read.
+	 * <p>
+	 * The images are listed once, in the order of their paths; images that cannot
+	 * be read are skipped with a warning.
+	 *
+	 * @param directory
+	 *            The directory holding one face image per file
+	 * @return A source of the faces under {@code directory}
+	 * @throws IOException
+	 *             if the directory cannot be listed
+	 */
+	public static FaceSource fromDirectory(Path directory) throws IOException {
+
+		List<Path> images = IoTool.listImages(directory);
+
+		return () -> new Iterator<BufferedImage>() {
+
+			private final Iterator<Path> paths = images.iterator();
+			private BufferedImage next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && paths.hasNext()) {
+					Path path = paths.next();
+					try {
+						next = ImageTool.grayAndResizeToFace(IoTool.readImage(path));
+					} catch (IOException | IllegalArgumentException e) {
+						LOGGER.warn("Skipped {}: {}", path, e.getMessage());
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public BufferedImage next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				BufferedImage face = next;
+				next = null;
+				return face;
+			}
+		};
+	}
+
+	/**
+	 * Returns a pass over {@code source} in chunks of at most {@code chunkSize}
+	 * faces, so that only one chunk is held in memory at a time
+	 *
+	 * @param source
+	 *            The source to read
+	 * @param chunkSize
+	 *            The maximal number of faces in a chunk
+	 * @return The chunks of one pass over {@code source}
+	 */
+	public static Iterable<List<BufferedImage>> chunks(FaceSource source, int chunkSize) {
+
+		return () -> new Iterator<List<BufferedImage>>() {
+
+			private final Iterator<BufferedImage> faces = source.iterator();
+
+			@Override
+			public boolean hasNext() {
+				return faces.hasNext();
+			}
+
+			@Override
+			public List<BufferedImage> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				List<BufferedImage> chunk = new ArrayList<>(chunkSize);
+				while (chunk.size() < chunkSize && faces.hasNext()) {
+					chunk.add(faces.next());
+				}
+				return Collections.unmodifiableList(chunk);
+			}
+		};
+	}
+}
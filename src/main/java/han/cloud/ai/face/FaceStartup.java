@@ -0,0 +1,365 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.util.FaceConstants;
+
+/**
+ * <p>
+ * This class starts the components of a face service at once instead of on
+ * their first request: the {@link FaceDetector} with OpenCV and its cascade, a
+ * {@link PythonWorkerPool} and any number of {@link EigenFaceModel}s.
+ *
+ * <p>
+ * The components load in parallel, then each is warmed up on synthetic images
+ * for the given number of iterations, so that the JIT, OpenCV and the Python
+ * workers are hot before the first real request. The first component failing
+ * or the timeout expiring stops the others and fails the start at once,
+ * closing the worker pool whether it was started already or only starts after.
+ * The load and warm-up time of each component is logged and reported.
+ *
+ * <pre>
+ * FaceStartup.Components components = new FaceStartup() //
+ * 		.withDetector() //
+ * 		.withWorkerPool(PythonWorkerPool::new) //
+ * 		.withModel("main", () -&gt; EigenFaceModel.build(space, source)) //
+ * 		.withWarmUp(20) //
+ * 		.start(2, TimeUnit.MINUTES);
+ * </pre>
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceStartup {
+
+	/**
+	 * The started components, with the time each took
+	 */
+	public static final class Components {
+
+		private final FaceDetector detector;
+		private final PythonWorkerPool workerPool;
+		private final Map<String, EigenFaceModel> models;
+		private final Map<String, Long> millis;
+
+		private Components(FaceDetector detector, PythonWorkerPool workerPool, Map<String, EigenFaceModel> models,
+				Map<String, Long> millis) {
+			this.detector = detector;
+			this.workerPool = workerPool;
+			this.models = Collections.unmodifiableMap(models);
+			this.millis = Collections.unmodifiableMap(millis);
+		}
+
+		/**
+		 * @return The detector, or null if it was not started
+		 */
+		public FaceDetector getDetector() {
+			return detector;
+		}
+
+		/**
+		 * @return The worker pool, or null if it was not started
+		 */
+		public PythonWorkerPool getWorkerPool() {
+			return workerPool;
+		}
+
+		/**
+		 * Returns the model started under {@code name}
+		 *
+		 * @param name
+		 *            The name of the model
+		 * @return The model
+		 * @throws IllegalArgumentException
+		 *             if no model was started under {@code name}
+		 */
+		public EigenFaceModel getModel(String name) {
+			EigenFaceModel model = models.get(name);
+			if (model == null) {
+				throw new IllegalArgumentException("Unknown model " + name);
+			}
+			return model;
+		}
+
+		public Map<String, EigenFaceModel> getModels() {
+			return models;
+		}
+
+		/**
+		 * Returns how long each step took, such as {@code detector},
+		 * {@code warm-up detector} and {@code total}
+		 *
+		 * @return The milliseconds of each step, in the order they were added
+		 */
+		public Map<String, Long> getMillis() {
+			return millis;
+		}
+
+		@Override
+		public String toString() {
+			return "Components [models=" + models.keySet() + ", millis=" + millis + "]";
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FaceStartup.class);
+
+	private static final String DETECTOR = "detector";
+	private static final String WORKERS = "workers";
+	private static final String MODEL = "model ";
+	private static final String WARM_UP = "warm-up ";
+
+	private boolean detector;
+	private Callable<PythonWorkerPool> workerPool;
+	private final Map<String, Callable<EigenFaceModel>> models = new LinkedHashMap<>();
+	private int warmUp;
+
+	/**
+	 * Loads OpenCV and the cascade of the shared {@link FaceDetector}
+	 *
+	 * @return This instance
+	 */
+	public FaceStartup withDetector() {
+		this.detector = true;
+		return this;
+	}
+
+	/**
+	 * Starts a pool of Python workers
+	 *
+	 * @param workerPool
+	 *            The factory of the pool, such as {@code PythonWorkerPool::new}
+	 * @return This instance
+	 */
+	public FaceStartup withWorkerPool(Callable<PythonWorkerPool> workerPool) {
+		this.workerPool = workerPool;
+		return this;
+	}
+
+	/**
+	 * Trains, builds or loads a model
+	 *
+	 * @param name
+	 *            The name to get the model by
+	 * @param model
+	 *            The factory of the model
+	 * @return This instance
+	 */
+	public FaceStartup withModel(String name, Callable<EigenFaceModel> model) {
+		models.put(name, model);
+		return this;
+	}
+
+	/**
+	 * Sets the number of warm-up calls made on each component once loaded
+	 *
+	 * @param iterations
+	 *            The number of calls; 0, the default, for none
+	 * @return This instance
+	 */
+	public FaceStartup withWarmUp(int iterations) {
+		this.warmUp = iterations;
+		return this;
+	}
+
+	/**
+	 * Loads and warms up all the components in parallel
+	 *
+	 * @param timeout
+	 *            The maximal time to wait for all the components
+	 * @param unit
+	 *            The unit of {@code timeout}
+	 * @return The started components
+	 * @throws IllegalStateException
+	 *             if a component cannot be started or the timeout expires
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public Components start(long timeout, TimeUnit unit) throws InterruptedException {
+
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(timeout);
+
+		Map<String, Long> millis = new ConcurrentHashMap<>();
+		Map<String, EigenFaceModel> started = new ConcurrentHashMap<>();
+		Map<String, Future<Object>> tasks = new LinkedHashMap<>();
+
+		AtomicInteger count = new AtomicInteger();
+		ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "face-startup-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		CompletionService<Object> completion = new ExecutorCompletionService<>(executor);
+
+		// completed with the started pool, or with null once the start is abandoned
+		CompletableFuture<PythonWorkerPool> pool = new CompletableFuture<>();
+
+		try {
+			if (detector) {
+				tasks.put(DETECTOR, completion.submit(() -> {
+					FaceDetector instance = timed(DETECTOR, millis, FaceDetector::instance);
+					warmUp(DETECTOR, millis, () -> warmUp(instance));
+					return instance;
+				}));
+			}
+
+			if (workerPool != null) {
+				tasks.put(WORKERS, completion.submit(() -> {
+					PythonWorkerPool instance = timed(WORKERS, millis, workerPool);
+					if (!pool.complete(instance)) {
+						instance.close();
+						throw new CancellationException("The start was abandoned");
+					}
+					warmUp(WORKERS, millis, () -> warmUp(instance));
+					return instance;
+				}));
+			}
+
+			models.forEach((name, factory) -> tasks.put(MODEL + name, completion.submit(() -> {
+				EigenFaceModel model = timed(MODEL + name, millis, factory);
+				started.put(name, model);
+				warmUp(MODEL + name, millis, () -> warmUp(model));
+				return model;
+			})));
+
+			Map<Future<Object>, String> names = new HashMap<>();
+			tasks.forEach((name, task) -> names.put(task, name));
+
+			// in the order they finish, so that the first failure is seen at once
+			for (int i = 0; i < tasks.size(); i++) {
+				Future<Object> task = completion.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				if (task == null) {
+					List<String> pending = new ArrayList<>();
+					tasks.forEach((name, running) -> {
+						if (!running.isDone()) {
+							pending.add(name);
+						}
+					});
+					throw new IllegalStateException("Timed out starting the " + String.join(", ", pending));
+				}
+				await(names.get(task), task);
+			}
+
+			FaceDetector startedDetector = detector ? (FaceDetector) await(DETECTOR, tasks.get(DETECTOR)) : null;
+
+			millis.put("total", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+			Map<String, Long> ordered = new LinkedHashMap<>();
+			tasks.keySet().forEach(name -> {
+				ordered.put(name, millis.get(name));
+				if (millis.containsKey(WARM_UP + name)) {
+					ordered.put(WARM_UP + name, millis.get(WARM_UP + name));
+				}
+			});
+			ordered.put("total", millis.get("total"));
+
+			Map<String, EigenFaceModel> orderedModels = new LinkedHashMap<>();
+			models.keySet().forEach(name -> orderedModels.put(name, started.get(name)));
+
+			LOGGER.info("Started the face components in {}", ordered);
+			return new Components(startedDetector, pool.getNow(null), orderedModels, ordered);
+
+		} catch (RuntimeException | InterruptedException e) {
+			tasks.values().forEach(task -> task.cancel(true));
+			if (!pool.complete(null)) {
+				PythonWorkerPool instance = pool.getNow(null);
+				if (instance != null) {
+					instance.close();
+				}
+			}
+			throw e;
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// The component of a finished task
+	private static Object await(String name, Future<Object> task) throws InterruptedException {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Cannot start the " + name, e.getCause());
+		}
+	}
+
+	private static <T> T timed(String name, Map<String, Long> millis, Callable<T> step) throws Exception {
+		long start = System.nanoTime();
+		T result = step.call();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		millis.put(name, elapsed);
+		LOGGER.info("Started the {} in {} ms", name, elapsed);
+		return result;
+	}
+
+	private void warmUp(String name, Map<String, Long> millis, Callable<Void> step) throws Exception {
+		if (warmUp > 0) {
+			timed(WARM_UP + name, millis, step);
+		}
+	}
+
+	private Void warmUp(FaceDetector detector) {
+		BufferedImage photo = noise(640, 480, 1);
+		for (int i = 0; i < warmUp; i++) {
+			detector.findFaces(photo, -1);
+		}
+		return null;
+	}
+
+	private Void warmUp(EigenFaceModel model) {
+		BufferedImage face = noise(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT, 2);
+		for (int i = 0; i < warmUp; i++) {
+			model.recognize(face);
+		}
+		return null;
+	}
+
+	// One round of requests per processor, so that each default worker gets one
+	private Void warmUp(PythonWorkerPool pool) throws InterruptedException, ExecutionException {
+
+		BufferedImage face = noise(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT, 3);
+		List<BufferedImage> gallery = Collections.singletonList(face);
+		int parallelism = Runtime.getRuntime().availableProcessors();
+
+		for (int i = 0; i < warmUp; i++) {
+			List<CompletableFuture<double[]>> round = new ArrayList<>();
+			for (int w = 0; w < parallelism; w++) {
+				round.add(pool.distances(gallery, face));
+			}
+			for (CompletableFuture<double[]> distances : round) {
+				distances.get();
+			}
+		}
+		return null;
+	}
+
+	private static BufferedImage noise(int width, int height, long seed) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		new Random(seed).nextBytes(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+		return image;
+	}
+}
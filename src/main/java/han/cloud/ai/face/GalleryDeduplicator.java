@@ -0,0 +1,149 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.util.ThreadTool;
+
+/**
+ * <p>
+ * This class collapses the near-duplicate faces of a gallery, such as burst
+ * shots and repeated enrollments of the same person, before it is trained on
+ * or scanned.
+ *
+ * <p>
+ * The faces are projected into an {@link EigenSpace} and clustered greedily in
+ * gallery order: a face joins the cluster of the closest representative within
+ * the threshold, or starts a new cluster of which it is the representative.
+ * The threshold is in the same units as the distances {@link EigenFaceModel}
+ * returns in that space.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class GalleryDeduplicator {
+
+	/**
+	 * The maximal number of faces the space is trained on when none is given
+	 */
+	public static final int SAMPLE_SIZE = 256;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GalleryDeduplicator.class);
+
+	private final double threshold;
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param threshold
+	 *            The distance below which two faces are taken as duplicates
+	 */
+	public GalleryDeduplicator(double threshold) {
+
+		if (threshold < 0) {
+			throw new IllegalArgumentException("The threshold must not be negative: " + threshold);
+		}
+
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Deduplicates {@code faces} in a space trained on at most
+	 * {@value #SAMPLE_SIZE} of them, picked evenly across the gallery
+	 *
+	 * @param faces
+	 *            The gray gallery faces in standard size
+	 * @return The deduplicated gallery
+	 */
+	public DeduplicatedGallery deduplicate(List<BufferedImage> faces) {
+
+		if (faces.size() < 2) {
+			return new DeduplicatedGallery(faces, new int[faces.size()], faces.size());
+		}
+
+		int sampleSize = Math.min(SAMPLE_SIZE, faces.size());
+		double[][] sample = IntStream.range(0, sampleSize) //
+				.mapToObj(i -> EigenSpace.toPixels(faces.get((int) ((long) i * faces.size() / sampleSize)))) //
+				.toArray(double[][]::new);
+
+		return deduplicate(EigenSpace.train(sample).withoutNegligible(), faces);
+	}
+
+	/**
+	 * Deduplicates {@code faces} in {@code space}
+	 *
+	 * @param space
+	 *            The space to compare the faces in
+	 * @param faces
+	 *            The gray gallery faces in standard size
+	 * @return The deduplicated gallery
+	 */
+	public DeduplicatedGallery deduplicate(EigenSpace space, List<BufferedImage> faces) {
+
+		ThreadTool.checkInterrupted();
+
+		int dimension = space.getDimension();
+		double[] weights = new double[faces.size() * dimension];
+
+		IntStream.range(0, faces.size()).parallel().forEach(i -> {
+			double[] row = space.project(faces.get(i));
+			System.arraycopy(row, 0, weights, i * dimension, dimension);
+		});
+
+		double limit = threshold * threshold;
+		int[] clusters = new int[faces.size()];
+		int[] representatives = new int[faces.size()];
+		int count = 0;
+
+		for (int i = 0; i < faces.size(); i++) {
+
+			ThreadTool.checkInterrupted();
+
+			int cluster = -1;
+			double best = limit;
+
+			for (int c = 0; c < count; c++) {
+				double sum = squaredDistance(weights, i, representatives[c], dimension, best);
+				if (sum < best) {
+					best = sum;
+					cluster = c;
+				}
+			}
+
+			if (cluster == -1) {
+				cluster = count;
+				representatives[count++] = i;
+			}
+			clusters[i] = cluster;
+		}
+
+		LOGGER.info("Collapsed {} faces into {}", faces.size(), count);
+		return new DeduplicatedGallery(faces, clusters, count);
+	}
+
+	// The squared distance between two rows, or any value not below bound once it
+	// is exceeded
+	private static double squaredDistance(double[] weights, int a, int b, int dimension, double bound) {
+		int offsetA = a * dimension;
+		int offsetB = b * dimension;
+		double sum = 0;
+		for (int col = 0; col < dimension && sum < bound; col++) {
+			double value = weights[offsetA + col] - weights[offsetB + col];
+			sum += value * value;
+		}
+		return sum;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public String toString() {
+		return "GalleryDeduplicator [threshold=" + threshold + ", sampleSize=" + SAMPLE_SIZE + "]";
+	}
+}
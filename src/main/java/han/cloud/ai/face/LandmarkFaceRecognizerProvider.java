@@ -52,4 +52,28 @@ public class LandmarkFaceRecognizerProvider {
 		return rec.recognize(faces, face);
 	}
 
+	public MatchInfo recognize(FaceEncodingStore store, BufferedImage face) {
+		LandmarkFaceRegcognizer rec = recognizer();
+		return rec.recognize(store, face);
+	}
+
+	/**
+	 * Stores the embedding of {@code face} in {@code store} under {@code id},
+	 * unless an embedding of the very same face is already stored
+	 * 
+	 * @param store
+	 *            The store to keep the embedding in
+	 * @param id
+	 *            The stable id of the face
+	 * @param face
+	 *            The gray face in standard size
+	 * @return True if an embedding of {@code face} is stored under {@code id};
+	 *         false if the face cannot be encoded, in which case any previous
+	 *         embedding under {@code id} is removed
+	 */
+	public boolean enroll(FaceEncodingStore store, String id, BufferedImage face) {
+		LandmarkFaceRegcognizer rec = recognizer();
+		return store.put(id, face, rec);
+	}
+
 }
@@ -2,101 +2,284 @@ package han.cloud.ai.face;
 
 import static han.cloud.ai.util.FaceConstants.*;
 import java.awt.image.BufferedImage;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import han.cloud.ai.face.ifs.FaceEncoder;
 import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.metrics.FaceMetrics;
+import han.cloud.ai.metrics.Stage;
 import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
 import han.cloud.ai.util.ImageTool;
+import han.cloud.ai.util.ThreadTool;
+import jep.DirectNDArray;
 import jep.Jep;
 import jep.JepException;
 import jep.NDArray;
 
-public class LandmarkFaceRegcognizer implements FaceRecognizer {
+public class LandmarkFaceRegcognizer implements FaceRecognizer, FaceEncoder {
 
-	private static final String FACE_KEY_1 = "face1";
-	private static final String FACE_KEY_2 = "face2";
-	private static final String F_STATEMENT = "%s = main.compare_faces_by_image(%s, %s)";
+	private static final String PROBE_KEY = "probe";
+	private static final String GALLERY_KEY = "gallery";
+	private static final String DISTANCES_KEY = "distances";
+	private static final String ENCODING_KEY = "encoding";
+	private static final String SOURCE_KEY = "han_compare_source";
+
+	/*
+	 * Compares the probe with every gallery face inside a single interpreter call.
+	 * A face that cannot be compared gets the maximal distance, just like a failed
+	 * pairwise comparison used to. The whole image is taken as the face location
+	 * when encoding, since the faces are already cropped. Faces arrive as gray
+	 * views of the Java buffers and are broadcast to the channels dlib expects.
+	 */
+	private static final String HELPER_SOURCE = String.join("\n", //
+			"import numpy", //
+			"import face_recognition", //
+			"def han_rgb(gray):", //
+			"    return numpy.ascontiguousarray(numpy.broadcast_to(gray[..., None], gray.shape + (%d,)))", //
+			"def han_compare_all(probe, gallery):", //
+			"    rgb = han_rgb(probe)", //
+			"    distances = numpy.empty(len(gallery), dtype=numpy.float64)", //
+			"    for i in range(len(gallery)):", //
+			"        try:", //
+			"            distances[i] = float(main.compare_faces_by_image(rgb, han_rgb(gallery[i])))", //
+			"        except Exception:", //
+			"            distances[i] = numpy.finfo(numpy.float64).max", //
+			"    return distances", //
+			"def han_encode(gray):", //
+			"    face = han_rgb(gray)", //
+			"    location = (0, face.shape[1], face.shape[0], 0)", //
+			"    encodings = face_recognition.face_encodings(face, [location])", //
+			"    return numpy.asarray(encodings[0], dtype=numpy.float32)", //
+			"");
+
+	private static final String F_STATEMENT = "%s = han_compare_all(%s, %s)";
+	private static final String F_ENCODE_STATEMENT = "%s = han_encode(%s)";
+
+	private static final int FACE_SIZE = FACE_HEIGHT * FACE_WIDTH;
+	private static final int LIMITED_BATCH = 16;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LandmarkFaceRegcognizer.class);
 	private Jep jep;
-	
+
+	/*
+	 * Reusable gray buffers shared with the interpreter; numpy sees them as views,
+	 * so handing a face over costs one bulk copy into native memory
+	 */
+	private final ByteBuffer probeBuffer = ByteBuffer.allocateDirect(FACE_SIZE);
+	private final DirectNDArray<ByteBuffer> probeArray = new DirectNDArray<>(probeBuffer, true, FACE_HEIGHT,
+			FACE_WIDTH);
+
+	private ByteBuffer galleryBuffer = ByteBuffer.allocateDirect(0);
+	private DirectNDArray<ByteBuffer> galleryArray;
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param jep
+	 *            The interpreter which has already imported the {@code main}
+	 *            module of <i>face_recognition</i>
+	 * @throws IllegalStateException
+	 *             if the batched comparison function cannot be defined in
+	 *             {@code jep}
+	 */
 	public LandmarkFaceRegcognizer(Jep jep) {
 		this.jep = jep;
+
+		try {
+			jep.set(SOURCE_KEY, String.format(HELPER_SOURCE, FACE_LAYERS));
+			jep.eval(String.format("exec(%s)", SOURCE_KEY));
+		} catch (JepException e) {
+			throw new IllegalStateException("Cannot define the batched comparison in the interpreter", e);
+		}
 	}
 
 	@Override
 	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face) {
+		return recognize(faces, face, ScanLimit.NONE);
+	}
 
-		double minDistance = Double.MAX_VALUE;
-		int index = -1;
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Without a limit, the whole gallery is compared in a single interpreter call.
+	 * With one, the gallery is compared {@value #LIMITED_BATCH} faces per call and
+	 * the limit is checked between the calls, so a scan overruns its deadline by
+	 * at most one batch.
+	 */
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
 
-		for (int i = 0; i < faces.size(); i++) {
+		FaceMetrics.gallerySize(faces.size());
 
-			BufferedImage face2 = faces.get(i);
-			double distance = distance(face, face2);
+		NearestMatch nearest = new NearestMatch(limit, false);
+		int batch = limit.isBounded() ? LIMITED_BATCH : Math.max(1, faces.size());
 
-			if (distance < minDistance) {
-				minDistance = distance;
-				index = i;
+		int from = 0;
+		while (from < faces.size() && !limit.isExpired()) {
+
+			int to = Math.min(from + batch, faces.size());
+			double[] distances = distances(faces.subList(from, to), face);
+
+			boolean accepted = false;
+			for (int i = 0; i < distances.length && !accepted; i++) {
+				accepted = nearest.offer(from + i, distances[i]);
+			}
+
+			from = to;
+			if (accepted) {
+				break;
 			}
 		}
 
-		return new MatchInfo(minDistance, index);
+		return nearest.result(from == faces.size());
 	}
 
-	private double distance(BufferedImage face1, BufferedImage face2) {
+	/**
+	 * Returns the result of trying to recognize {@code face} among the faces whose
+	 * embeddings are kept in {@code store}, scanning them only until
+	 * {@code limit} says to stop
+	 *
+	 * @param store
+	 *            The embeddings of the gallery faces, encoded by this recognizer
+	 * @param face
+	 *            The face to match the one in {@code store} that it resembles most
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The best match found, whose index is the row in {@code store}, and
+	 *         whether the scan was complete
+	 */
+	public MatchInfo recognize(FaceEncodingStore store, BufferedImage face, ScanLimit limit) {
+
+		float[] encoding = encode(face);
+
+		if (encoding == null) {
+			return new MatchInfo(Double.MAX_VALUE, -1);
+		}
+
+		return store.nearest(encoding, limit);
+	}
+
+	/**
+	 * Returns the result of trying to recognize {@code face} among the faces whose
+	 * embeddings are kept in {@code store}
+	 * <p>
+	 * Only {@code face} is encoded through the interpreter; the distances to the
+	 * stored embeddings are computed in Java.
+	 *
+	 * @param store
+	 *            The embeddings of the gallery faces, encoded by this recognizer
+	 * @param face
+	 *            The face to match the one in {@code store} that it resembles most
+	 * @return The result of trying to recognize {@code face}, whose index is the
+	 *         row in {@code store}
+	 * @see FaceEncodingStore#id(int)
+	 */
+	public MatchInfo recognize(FaceEncodingStore store, BufferedImage face) {
+		return recognize(store, face, ScanLimit.NONE);
+	}
 
-		String distanceKey = "distance";
-		double distanceValue = Double.MAX_VALUE;
+	@Override
+	public float[] encode(BufferedImage face) {
 
 		try {
 
-			setImage(face1, FACE_KEY_1);
-			setImage(face2, FACE_KEY_2);
+			long start = FaceMetrics.start();
+			setImage(face, PROBE_KEY);
+			FaceMetrics.stop(Stage.LANDMARK_TRANSFER, start);
+
+			start = FaceMetrics.start();
+			String statement = String.format(F_ENCODE_STATEMENT, ENCODING_KEY, PROBE_KEY);
+			jep.eval(statement);
+			FaceMetrics.stop(Stage.LANDMARK_EVAL, start);
+
+			start = FaceMetrics.start();
+			NDArray<?> value = (NDArray<?>) jep.getValue(ENCODING_KEY);
+			float[] encoding = (float[]) value.getData();
+			FaceMetrics.stop(Stage.LANDMARK_PARSE, start);
+
+			return encoding;
+
+		} catch (JepException | ClassCastException e) {
+			LOGGER.debug("Cannot encode image", e);
+		}
+
+		return null;
+	}
 
-			String statement = String.format(F_STATEMENT, distanceKey, FACE_KEY_1, FACE_KEY_2);
+	/*
+	 * Sends the probe once and the gallery as one stacked array, then reads all
+	 * distances back in one go
+	 */
+	private double[] distances(List<BufferedImage> faces, BufferedImage face) {
+
+		double[] distances = new double[faces.size()];
+
+		if (faces.isEmpty()) {
+			return distances;
+		}
 
+		ThreadTool.checkInterrupted();
+
+		try {
+
+			long start = FaceMetrics.start();
+			setImage(face, PROBE_KEY);
+			setImages(faces, GALLERY_KEY);
+			FaceMetrics.stop(Stage.LANDMARK_TRANSFER, start);
+
+			start = FaceMetrics.start();
+			String statement = String.format(F_STATEMENT, DISTANCES_KEY, PROBE_KEY, GALLERY_KEY);
 			jep.eval(statement);
+			FaceMetrics.stop(Stage.LANDMARK_EVAL, start);
 
-			String x = jep.getValue(distanceKey, String.class);
-			distanceValue = Double.parseDouble(x);
+			start = FaceMetrics.start();
+			NDArray<?> values = (NDArray<?>) jep.getValue(DISTANCES_KEY);
+			distances = (double[]) values.getData();
+			FaceMetrics.stop(Stage.LANDMARK_PARSE, start);
 
-		} catch (JepException e) {
+		} catch (JepException | ClassCastException e) {
 			LOGGER.debug("Cannot compare images", e);
+			Arrays.fill(distances, Double.MAX_VALUE);
 		}
 
-		return distanceValue;
+		return distances;
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private void setImage(BufferedImage face, String key) throws JepException {
 
-		byte[] bytes = toBytes(face);
-		NDArray value = new NDArray(bytes, true, FACE_HEIGHT, FACE_WIDTH, FACE_LAYERS);
-		jep.set(key, value);
-	}
+		((Buffer) probeBuffer).clear();
+		ImageTool.copyGrayBytes(face, probeBuffer);
 
-	private byte[] toBytes(BufferedImage image) {
-
-		double[] pixels = ImageTool.toPixels(image);
-		byte[] bytes = new byte[pixels.length * FACE_LAYERS];
+		jep.set(key, probeArray);
+	}
 
-		int j = 0;
+	private void setImages(List<BufferedImage> faces, String key) throws JepException {
 
-		for (int i = 0; i < pixels.length; i++) {
+		int count = faces.size();
+		int required = count * FACE_SIZE;
 
-			for (int k = 0; k < FACE_LAYERS; k++) {
+		if (galleryBuffer.capacity() < required) {
+			galleryBuffer = ByteBuffer.allocateDirect(Math.max(required, 2 * galleryBuffer.capacity()));
+			galleryArray = null;
+		}
 
-				double pixel = pixels[i];
-				bytes[j] = ((Long) Math.round(pixel)).byteValue();
-				j++;
-			}
+		((Buffer) galleryBuffer).clear();
+		for (BufferedImage face : faces) {
+			ImageTool.copyGrayBytes(face, galleryBuffer);
+		}
 
+		if (galleryArray == null || galleryArray.getDimensions()[0] != count) {
+			((Buffer) galleryBuffer).flip();
+			galleryArray = new DirectNDArray<>(galleryBuffer.slice(), true, count, FACE_HEIGHT, FACE_WIDTH);
 		}
 
-		return bytes;
+		jep.set(key, galleryArray);
 	}
 }
@@ -0,0 +1,58 @@
+package han.cloud.ai.face;
+
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+
+/**
+ * Keeps the closest face seen by a scan bounded by a {@link ScanLimit}.
+ * <p>
+ * The recognizers comparing squared distances offer them as they are; only the
+ * distance of the result is rooted.
+ *
+ * @author Jiayun Han
+ *
+ */
+final class NearestMatch {
+
+	private final boolean squared;
+	private final double accept;
+
+	private double min = Double.MAX_VALUE;
+	private int index = -1;
+	private boolean accepted;
+
+	/**
+	 * @param limit
+	 *            The limit of the scan
+	 * @param squared
+	 *            True if the distances offered are squared
+	 */
+	NearestMatch(ScanLimit limit, boolean squared) {
+		double distance = limit.getAcceptDistance();
+		this.squared = squared;
+		this.accept = distance < 0 || !squared ? distance : distance * distance;
+	}
+
+	/**
+	 * Offers the face at {@code row}
+	 *
+	 * @return True if the face is accepted, so that the scan may stop
+	 */
+	boolean offer(int row, double distance) {
+		if (Double.compare(distance, min) < 0) {
+			min = distance;
+			index = row;
+			accepted = accept >= 0 && distance <= accept;
+		}
+		return accepted;
+	}
+
+	boolean isAccepted() {
+		return accepted;
+	}
+
+	MatchInfo result(boolean complete) {
+		double distance = index == -1 ? Double.MAX_VALUE : squared ? Math.sqrt(min) : min;
+		return new MatchInfo(distance, index, complete, accepted);
+	}
+}
@@ -0,0 +1,110 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+import han.cloud.ai.util.ThreadTool;
+
+/**
+ * A {@link FaceRecognizer} with the same results as
+ * {@link LandmarkFaceRegcognizer}, running the comparisons in the worker
+ * processes of a {@link PythonWorkerPool} so that concurrent callers use all
+ * cores and a crash in the native code cannot take down the JVM.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public class PooledLandmarkFaceRecognizer implements FaceRecognizer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PooledLandmarkFaceRecognizer.class);
+
+	private static final int LIMITED_BATCH = 16;
+
+	private final PythonWorkerPool pool;
+
+	public PooledLandmarkFaceRecognizer(PythonWorkerPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face) {
+		return recognize(faces, face, ScanLimit.NONE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * With a limit, the gallery is queued in chunks of {@value #LIMITED_BATCH}
+	 * faces that the workers compare concurrently. The chunks are awaited in
+	 * order until the deadline; once the limit stops the scan, the chunks still
+	 * pending are cancelled.
+	 */
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
+
+		int batch = limit.isBounded() ? LIMITED_BATCH : Math.max(1, faces.size());
+
+		List<CompletableFuture<double[]>> futures = new ArrayList<>();
+		for (int from = 0; from < faces.size(); from += batch) {
+			futures.add(pool.distances(faces.subList(from, Math.min(from + batch, faces.size())), face));
+		}
+
+		NearestMatch nearest = new NearestMatch(limit, false);
+		int done = 0;
+
+		try {
+
+			for (CompletableFuture<double[]> future : futures) {
+
+				double[] distances = await(future, limit);
+
+				boolean accepted = false;
+				for (int i = 0; distances != null && i < distances.length && !accepted; i++) {
+					accepted = nearest.offer(done * batch + i, distances[i]);
+				}
+
+				done++;
+				if (accepted) {
+					break;
+				}
+			}
+
+		} catch (TimeoutException e) {
+			LOGGER.debug("Ran out of time after {} of {} faces", done * batch, faces.size());
+		} catch (InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+			ThreadTool.checkInterrupted();
+		}
+
+		for (int i = done; i < futures.size(); i++) {
+			futures.get(i).cancel(true);
+		}
+
+		return nearest.result(done == futures.size());
+	}
+
+	// The distances of a chunk, or null if they cannot be computed
+	private static double[] await(CompletableFuture<double[]> future, ScanLimit limit)
+			throws InterruptedException, TimeoutException {
+		try {
+			return limit.hasDeadline() //
+					? future.get(limit.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS) //
+					: future.get();
+		} catch (ExecutionException e) {
+			LOGGER.debug("Cannot compare images", e.getCause());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package han.cloud.ai.face;
+
+import static han.cloud.ai.util.FaceConstants.FACE_HEIGHT;
+import static han.cloud.ai.util.FaceConstants.FACE_WIDTH;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One Python process running <i>recognition_worker.py</i>, spoken to over its
+ * stdin and stdout.
+ * 
+ * @author Jiayun Han
+ *
+ */
+final class PythonWorker {
+
+	static final int MAGIC = 0x48465242; // HFRB
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PythonWorker.class);
+
+	private final List<String> command;
+	private final String name;
+
+	private volatile Process process;
+	private DataOutputStream out;
+	private DataInputStream in;
+
+	// The batch being processed, 0 if none, and whether the watchdog killed it;
+	// guarded by this
+	private long inFlight;
+	private long batches;
+	private boolean timedOut;
+
+	PythonWorker(List<String> command, String name) {
+		this.command = command;
+		this.name = name;
+	}
+
+	void start() throws IOException {
+
+		process = new ProcessBuilder(command).start();
+		out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16));
+		in = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16));
+
+		Process started = process;
+		Thread stderr = new Thread(() -> drainErrors(started), name + "-stderr");
+		stderr.setDaemon(true);
+		stderr.start();
+
+		LOGGER.info("Started recognition worker {}", name);
+	}
+
+	/**
+	 * Sends {@code batch} as one frame and completes each request with the
+	 * distances read back, killing the process if it does not answer within
+	 * {@code timeoutMillis}
+	 * 
+	 * @throws IOException
+	 *             if the process has died, times out or answers with a corrupt
+	 *             frame
+	 */
+	void process(List<PythonWorkerPool.Request> batch, ScheduledExecutorService watchdog, long timeoutMillis)
+			throws IOException {
+
+		long id;
+		synchronized (this) {
+			id = ++batches;
+			inFlight = id;
+			timedOut = false;
+		}
+
+		ScheduledFuture<?> timer = watchdog.schedule(() -> expire(id), timeoutMillis, TimeUnit.MILLISECONDS);
+
+		try {
+			exchange(batch);
+		} catch (IOException e) {
+			synchronized (this) {
+				if (timedOut) {
+					throw new IOException(
+							"Recognition worker " + name + " did not answer within " + timeoutMillis + " ms", e);
+				}
+			}
+			throw e;
+		} finally {
+			synchronized (this) {
+				inFlight = 0;
+			}
+			timer.cancel(false);
+		}
+	}
+
+	// Kills the process if it is still on batch id, which fails the blocked read
+	private synchronized void expire(long id) {
+		if (inFlight == id) {
+			timedOut = true;
+			kill();
+		}
+	}
+
+	private void exchange(List<PythonWorkerPool.Request> batch) throws IOException {
+
+		out.writeInt(MAGIC);
+		out.writeInt(batch.size());
+		out.writeInt(FACE_HEIGHT);
+		out.writeInt(FACE_WIDTH);
+
+		for (int i = 0; i < batch.size(); i++) {
+			PythonWorkerPool.Request request = batch.get(i);
+			out.writeInt(i);
+			out.writeInt(request.count);
+			out.write(request.probe);
+			out.write(request.gallery);
+		}
+		out.flush();
+
+		if (in.readInt() != MAGIC || in.readInt() != batch.size()) {
+			throw new IOException("Corrupt response from recognition worker " + name);
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+
+			int id = in.readInt();
+			int count = in.readInt();
+			PythonWorkerPool.Request request = batch.get(i);
+
+			if (id != i || count != request.count) {
+				throw new IOException("Corrupt response from recognition worker " + name);
+			}
+
+			double[] distances = new double[count];
+			for (int j = 0; j < count; j++) {
+				distances[j] = in.readDouble();
+			}
+			request.future.complete(distances);
+		}
+	}
+
+	boolean isRunning() {
+		return process != null;
+	}
+
+	/**
+	 * Kills the process from any thread, which fails the batch being processed
+	 */
+	void kill() {
+		Process running = process;
+		if (running != null) {
+			running.destroyForcibly();
+		}
+	}
+
+	void stop() {
+		kill();
+		process = null;
+	}
+
+	private void drainErrors(Process started) {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(started.getErrorStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				LOGGER.debug("[{}] {}", name, line);
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Stopped reading errors of recognition worker {}", name);
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package han.cloud.ai.face;
+
+import static han.cloud.ai.util.FaceConstants.FACE_HEIGHT;
+import static han.cloud.ai.util.FaceConstants.FACE_WIDTH;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.util.ImageTool;
+import han.cloud.ai.util.IoTool;
+
+/**
+ * <p>
+ * This class runs the <i>face_recognition/main.py</i> comparison in a pool of
+ * local Python processes instead of an embedded interpreter.
+ * 
+ * <p>
+ * Each worker process is fed by its own thread, which coalesces the requests
+ * queued meanwhile into one micro-batch per round-trip. A worker whose process
+ * dies, or does not answer a batch in time, fails its current batch and is
+ * restarted, leaving the JVM and the other workers unaffected. A worker that
+ * cannot be restarted takes no requests and retries with an exponential
+ * backoff, so the requests are served by the other workers meanwhile. A request
+ * that no worker takes within the batch timeout, as when none can be
+ * restarted, fails with a {@link TimeoutException}.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public class PythonWorkerPool implements AutoCloseable {
+
+	static final class Request {
+
+		final int count;
+		final byte[] probe;
+		final byte[] gallery;
+		final CompletableFuture<double[]> future = new CompletableFuture<>();
+
+		private Request(int count, byte[] probe, byte[] gallery) {
+			this.count = count;
+			this.probe = probe;
+			this.gallery = gallery;
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PythonWorkerPool.class);
+	private static final String SCRIPT = "han/cloud/ai/face/recognition_worker.py";
+	private static final int FACE_SIZE = FACE_HEIGHT * FACE_WIDTH;
+
+	private static final long DEFAULT_BATCH_TIMEOUT_MILLIS = 60_000;
+	private static final long MIN_RESTART_DELAY_MILLIS = 100;
+	private static final long MAX_RESTART_DELAY_MILLIS = 30_000;
+
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private final List<PythonWorker> workers = new ArrayList<>();
+	private final ScheduledThreadPoolExecutor watchdog;
+	private final int maxBatch;
+	private final long lingerMicros;
+	private final long batchTimeoutMillis;
+
+	private volatile boolean closed;
+
+	/**
+	 * Starts a pool using {@code python3} and the <i>face_recognition</i> folder
+	 * under {@code PYTHON_HOME}, with one worker per available processor
+	 * 
+	 * @throws IOException
+	 *             if the worker processes cannot be started
+	 */
+	public PythonWorkerPool() throws IOException {
+		this("python3", System.getenv("PYTHON_HOME") + "face_recognition",
+				Runtime.getRuntime().availableProcessors(), 16, 500);
+	}
+
+	/**
+	 * Starts a pool of worker processes
+	 * 
+	 * @param python
+	 *            The Python executable
+	 * @param faceRecognitionDir
+	 *            The folder containing <i>main.py</i>
+	 * @param workers
+	 *            The number of worker processes
+	 * @param maxBatch
+	 *            The maximal number of requests sent in one round-trip
+	 * @param lingerMicros
+	 *            How long a worker waits for more requests to join a batch
+	 * @throws IOException
+	 *             if the worker processes cannot be started
+	 */
+	public PythonWorkerPool(String python, String faceRecognitionDir, int workers, int maxBatch, long lingerMicros)
+			throws IOException {
+		this(python, faceRecognitionDir, workers, maxBatch, lingerMicros, DEFAULT_BATCH_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Starts a pool of worker processes
+	 * 
+	 * @param python
+	 *            The Python executable
+	 * @param faceRecognitionDir
+	 *            The folder containing <i>main.py</i>
+	 * @param workers
+	 *            The number of worker processes
+	 * @param maxBatch
+	 *            The maximal number of requests sent in one round-trip
+	 * @param lingerMicros
+	 *            How long a worker waits for more requests to join a batch
+	 * @param batchTimeoutMillis
+	 *            How long a worker may take to answer a batch before its process
+	 *            is killed and restarted, and a request may wait for a worker
+	 * @throws IOException
+	 *             if the worker processes cannot be started
+	 */
+	public PythonWorkerPool(String python, String faceRecognitionDir, int workers, int maxBatch, long lingerMicros,
+			long batchTimeoutMillis) throws IOException {
+
+		if (batchTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("The batch timeout must be positive: " + batchTimeoutMillis);
+		}
+
+		this.maxBatch = maxBatch;
+		this.lingerMicros = lingerMicros;
+		this.batchTimeoutMillis = batchTimeoutMillis;
+
+		this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "face-worker-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// a timer per request, almost all cancelled long before they are due
+		this.watchdog.setRemoveOnCancelPolicy(true);
+
+		File script = extractScript();
+		List<String> command = Arrays.asList(python, script.getAbsolutePath(), faceRecognitionDir);
+
+		for (int i = 0; i < workers; i++) {
+
+			PythonWorker worker = new PythonWorker(command, "face-worker-" + i);
+			try {
+				worker.start();
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+			this.workers.add(worker);
+
+			Thread thread = new Thread(() -> serve(worker), "face-worker-" + i + "-feeder");
+			thread.setDaemon(true);
+			thread.start();
+			threads.add(thread);
+		}
+	}
+
+	/**
+	 * Queues the comparison of {@code face} with each of {@code faces}
+	 * 
+	 * @param faces
+	 *            The gray faces in standard size to compare with
+	 * @param face
+	 *            The gray face in standard size to compare
+	 * @return The future distances, in the order of {@code faces}
+	 */
+	public CompletableFuture<double[]> distances(List<BufferedImage> faces, BufferedImage face) {
+
+		if (closed) {
+			CompletableFuture<double[]> future = new CompletableFuture<>();
+			future.completeExceptionally(new IllegalStateException("The worker pool is closed"));
+			return future;
+		}
+
+		byte[] probe = new byte[FACE_SIZE];
+		ImageTool.copyGrayBytes(face, ByteBuffer.wrap(probe));
+
+		ByteBuffer gallery = ByteBuffer.allocate(faces.size() * FACE_SIZE);
+		faces.forEach(f -> ImageTool.copyGrayBytes(f, gallery));
+
+		Request request = new Request(faces.size(), probe, gallery.array());
+		queue.add(request);
+		expireQueued(request);
+
+		// closed while adding, possibly after close() drained the queue
+		if (closed) {
+			queue.remove(request);
+			request.future.completeExceptionally(new IllegalStateException("The worker pool is closed"));
+		}
+
+		return request.future;
+	}
+
+	// Fails the request if it is still queued once the batch timeout has passed
+	private void expireQueued(Request request) {
+		try {
+			ScheduledFuture<?> timer = watchdog.schedule(() -> {
+				if (queue.remove(request)) {
+					request.future.completeExceptionally(new TimeoutException(
+							"No recognition worker took the request within " + batchTimeoutMillis + " ms"));
+				}
+			}, batchTimeoutMillis, TimeUnit.MILLISECONDS);
+			request.future.whenComplete((distances, error) -> timer.cancel(false));
+		} catch (RejectedExecutionException e) {
+			// closed meanwhile, which fails the request
+		}
+	}
+
+	private void serve(PythonWorker worker) {
+
+		List<Request> batch = new ArrayList<>(maxBatch);
+		long restartDelay = MIN_RESTART_DELAY_MILLIS;
+
+		while (!closed) {
+			try {
+
+				if (!worker.isRunning()) {
+					if (!restart(worker, restartDelay)) {
+						restartDelay = Math.min(2 * restartDelay, MAX_RESTART_DELAY_MILLIS);
+						continue;
+					}
+					restartDelay = MIN_RESTART_DELAY_MILLIS;
+				}
+
+				Request first = queue.take();
+				if (first.future.isDone()) {
+					continue; // cancelled while queued
+				}
+				batch.add(first);
+
+				long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+				while (batch.size() < maxBatch) {
+					long remaining = deadline - System.nanoTime();
+					Request request = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (request == null) {
+						break;
+					}
+					if (!request.future.isDone()) {
+						batch.add(request);
+					}
+				}
+
+				worker.process(batch, watchdog, batchTimeoutMillis);
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail(batch, e);
+				break;
+
+			} catch (IOException | RuntimeException e) {
+				if (!closed) {
+					LOGGER.error("Recognition worker failed; restarting it", e);
+				}
+				fail(batch, e);
+				worker.stop();
+
+			} finally {
+				batch.clear();
+			}
+		}
+
+		worker.stop();
+	}
+
+	// Starts a stopped worker, waiting delay first if it is not the first try
+	private static boolean restart(PythonWorker worker, long delay) throws InterruptedException {
+		try {
+			worker.start();
+			return true;
+		} catch (IOException e) {
+			LOGGER.error("Cannot restart recognition worker; retrying in {} ms", delay, e);
+			Thread.sleep(delay);
+			return false;
+		}
+	}
+
+	private void fail(List<Request> batch, Exception cause) {
+		batch.forEach(request -> request.future.completeExceptionally(cause));
+	}
+
+	@Override
+	public void close() {
+
+		closed = true;
+		threads.forEach(Thread::interrupt);
+		workers.forEach(PythonWorker::kill); // fails the batches being read
+		watchdog.shutdownNow();
+
+		List<Request> pending = new ArrayList<>();
+		queue.drainTo(pending);
+		fail(pending, new IllegalStateException("The worker pool is closed"));
+	}
+
+	private static File extractScript() throws IOException {
+
+		File script = File.createTempFile("recognition_worker", ".py");
+		script.deleteOnExit();
+
+		try (InputStream input = IoTool.toInputStream(SCRIPT)) {
+			if (input == null) {
+				throw new IOException(SCRIPT + " does not exist");
+			}
+			return IoTool.writeInputstream(input, script.getAbsolutePath());
+		}
+	}
+}
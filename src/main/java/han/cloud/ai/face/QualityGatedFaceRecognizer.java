@@ -0,0 +1,93 @@
+package han.cloud.ai.face;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.FaceQuality;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+import han.cloud.ai.util.FaceQualityAssessor;
+
+/**
+ * <p>
+ * This class scores each face with a {@link FaceQualityAssessor} before
+ * handing it to another recognizer, such as the expensive
+ * {@link LandmarkFaceRegcognizer}, and does not recognize the faces that are
+ * not acceptable.
+ *
+ * <p>
+ * A rejected face gets a match with index -1 without the gallery being
+ * scanned; every match carries the quality of its face.
+ *
+ * <p>
+ * A face to be recognized is usually in standard size already, so its own size
+ * says nothing of the photo it was cut from and never fails the size minimum.
+ * To gate on size as well, pass the region the face was detected in.
+ *
+ * @author Jiayun Han
+ *
+ */
+public class QualityGatedFaceRecognizer implements FaceRecognizer {
+
+	private final FaceRecognizer recognizer;
+	private final FaceQualityAssessor assessor;
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param recognizer
+	 *            The recognizer of the acceptable faces
+	 * @param assessor
+	 *            The assessor to score the faces with
+	 */
+	public QualityGatedFaceRecognizer(FaceRecognizer recognizer, FaceQualityAssessor assessor) {
+		this.recognizer = recognizer;
+		this.assessor = assessor;
+	}
+
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face) {
+		return recognize(faces, face, ScanLimit.NONE);
+	}
+
+	@Override
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
+		return recognize(faces, face, null, limit);
+	}
+
+	/**
+	 * Returns the result of trying to recognize {@code face}, scoring its size by
+	 * the region it was detected in
+	 *
+	 * @param faces
+	 *            The faces among which to find the one {@code face} resembles most
+	 * @param face
+	 *            The face to be recognized
+	 * @param region
+	 *            The region {@code face} was detected in, in the coordinates of
+	 *            its photo; null to score its size by the face itself
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The result of trying to recognize {@code face}, with its quality
+	 */
+	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, Rectangle region, ScanLimit limit) {
+
+		FaceQuality quality = region == null ? assessor.assess(face) : assessor.assess(face, region);
+
+		MatchInfo matchInfo = quality.isAcceptable() ? recognizer.recognize(faces, face, limit)
+				: new MatchInfo(Double.MAX_VALUE, -1);
+
+		matchInfo.setQuality(quality);
+		return matchInfo;
+	}
+
+	public FaceRecognizer getRecognizer() {
+		return recognizer;
+	}
+
+	public FaceQualityAssessor getAssessor() {
+		return assessor;
+	}
+}
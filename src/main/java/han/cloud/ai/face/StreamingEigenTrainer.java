@@ -0,0 +1,337 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.EigenvalueDecomposition;
+import han.cloud.ai.face.ifs.FaceSource;
+import han.cloud.ai.util.ArrayTool;
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.ThreadTool;
+
+/**
+ * <p>
+ * This class trains an {@link EigenSpace} on a corpus too large to be held in
+ * memory, in two chunked passes over a {@link FaceSource}.
+ *
+ * <p>
+ * The first pass accumulates the mean face. The second pass feeds the centered
+ * faces into a Frequent Directions sketch (Liberty, "Simple and Deterministic
+ * Matrix Sketching", KDD 2013) of {@code 2 * sketchRows} rows: whenever the
+ * sketch fills up, it is rotated onto its singular vectors and every squared
+ * singular value is reduced by the {@code sketchRows}-th largest, which frees
+ * at least half of its rows. The eigenfaces are the strongest directions of
+ * the final sketch, divided by their squared norms like the ones
+ * {@link EigenFaceModel#train(List)} computes exactly.
+ *
+ * <p>
+ * The memory used is about {@code (3 * sketchRows + chunkSize) * 8} bytes per
+ * pixel, whatever the size of the corpus; the sketch is exact as long as the
+ * corpus has no more than {@code 2 * sketchRows} faces.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class StreamingEigenTrainer {
+
+	/*
+	 * A Frequent Directions sketch of the centered faces
+	 */
+	private static final class Sketch {
+
+		private final int sketchRows;
+		private final double[][] rows;
+		private final double[][] spare;
+		private int filled;
+
+		private Sketch(int sketchRows, int pixels) {
+			this.sketchRows = sketchRows;
+			this.rows = new double[2 * sketchRows][pixels];
+			this.spare = new double[sketchRows][pixels];
+		}
+
+		private void add(double[] row) {
+			if (filled == rows.length) {
+				shrink();
+			}
+			System.arraycopy(row, 0, rows[filled++], 0, row.length);
+		}
+
+		private void shrink() {
+
+			Directions directions = directions();
+			double delta = directions.count() > sketchRows ? directions.value(sketchRows) : 0;
+
+			int kept = Math.min(sketchRows, directions.count());
+			double[] factors = new double[kept];
+			for (int t = 0; t < kept; t++) {
+				double value = directions.value(t);
+				factors[t] = value > delta ? Math.sqrt((value - delta) / value) : 0;
+			}
+
+			IntStream.range(0, kept).parallel().forEach(t -> combine(directions, t, factors[t], spare[t]));
+
+			int nonZero = 0;
+			for (int t = 0; t < kept; t++) {
+				if (factors[t] > 0) {
+					double[] row = rows[nonZero];
+					rows[nonZero] = spare[t];
+					spare[t] = row;
+					nonZero++;
+				}
+			}
+			filled = nonZero;
+		}
+
+		// The eigenvectors of the Gram matrix of the filled rows, strongest first
+		private Directions directions() {
+
+			double[][] gram = new double[filled][filled];
+
+			IntStream.range(0, filled).parallel().forEach(i -> {
+				for (int j = 0; j <= i; j++) {
+					double sum = 0;
+					double[] a = rows[i];
+					double[] b = rows[j];
+					for (int p = 0; p < a.length; p++) {
+						sum += a[p] * b[p];
+					}
+					gram[i][j] = sum;
+					gram[j][i] = sum;
+				}
+			});
+
+			return new Directions(new EigenvalueDecomposition(new DenseDoubleMatrix2D(gram)));
+		}
+
+		// Writes factor times the combination of the rows along direction t
+		private void combine(Directions directions, int t, double factor, double[] target) {
+
+			Arrays.fill(target, 0);
+			if (factor == 0) {
+				return;
+			}
+
+			for (int j = 0; j < filled; j++) {
+				double weight = factor * directions.vector(t, j);
+				double[] row = rows[j];
+				for (int p = 0; p < target.length; p++) {
+					target[p] += weight * row[p];
+				}
+			}
+		}
+	}
+
+	/*
+	 * The eigenpairs of a Gram matrix, sorted by descending eigenvalue
+	 */
+	private static final class Directions {
+
+		private final DoubleMatrix2D vectors;
+		private final DoubleMatrix1D values;
+		private final int[] order;
+
+		private Directions(EigenvalueDecomposition decom) {
+			this.vectors = decom.getV();
+			this.values = decom.getRealEigenvalues();
+			this.order = IntStream.range(0, values.size()) //
+					.boxed() //
+					.sorted((a, b) -> Double.compare(values.get(b), values.get(a))) // descending
+					.mapToInt(Integer::intValue) //
+					.toArray();
+		}
+
+		private int count() {
+			return order.length;
+		}
+
+		private double value(int t) {
+			return Math.max(0, values.get(order[t]));
+		}
+
+		private double vector(int t, int j) {
+			return vectors.getQuick(j, order[t]);
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StreamingEigenTrainer.class);
+	private static final int PIXELS = FaceConstants.columns;
+
+	private final int components;
+	private final int sketchRows;
+	private final int chunkSize;
+
+	/**
+	 * Constructs a trainer keeping twice as many sketch rows as eigenfaces
+	 *
+	 * @param components
+	 *            The number of eigenfaces to train
+	 */
+	public StreamingEigenTrainer(int components) {
+		this(components, 2 * components, FaceSources.CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param components
+	 *            The number of eigenfaces to train
+	 * @param sketchRows
+	 *            The number of rows the sketch keeps after each shrink, at least
+	 *            {@code components}; more rows give more accurate eigenfaces
+	 * @param chunkSize
+	 *            The number of faces read and normalized at a time
+	 */
+	public StreamingEigenTrainer(int components, int sketchRows, int chunkSize) {
+
+		if (components <= 0 || sketchRows < components || chunkSize <= 0) {
+			throw new IllegalArgumentException("Expected 0 < components <= sketchRows and chunkSize > 0 but got "
+					+ components + ", " + sketchRows + " and " + chunkSize);
+		}
+
+		this.components = components;
+		this.sketchRows = sketchRows;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns a trainer whose sketch and chunk fit into about {@code bytes} bytes
+	 *
+	 * @param components
+	 *            The number of eigenfaces to train
+	 * @param bytes
+	 *            The memory budget of the training
+	 * @return A trainer keeping as many sketch rows as the budget allows
+	 * @throws IllegalArgumentException
+	 *             if the budget cannot hold a sketch of {@code components} rows
+	 */
+	public static StreamingEigenTrainer withMemoryBudget(int components, long bytes) {
+		long rows = bytes / (8L * PIXELS);
+		int chunkSize = (int) Math.min(FaceSources.CHUNK_SIZE, Math.max(1, rows / 4));
+		long sketchRows = (rows - chunkSize) / 3;
+		if (sketchRows < components) {
+			throw new IllegalArgumentException(bytes + " bytes are too few to train " + components + " eigenfaces");
+		}
+		return new StreamingEigenTrainer(components, (int) Math.min(Integer.MAX_VALUE, sketchRows), chunkSize);
+	}
+
+	/**
+	 * Returns the memory the sketch and the chunk of this trainer take
+	 *
+	 * @return The number of bytes used while training
+	 */
+	public long getMemoryRequired() {
+		return (3L * sketchRows + chunkSize) * PIXELS * 8;
+	}
+
+	/**
+	 * Trains the eigenfaces of the faces in {@code source}, reading it twice
+	 *
+	 * @param source
+	 *            The gray training faces in standard size
+	 * @return The space spanned by the strongest eigenfaces, which may be fewer
+	 *         than asked for if the corpus does not span that many
+	 * @throws IllegalArgumentException
+	 *             if {@code source} has no faces
+	 */
+	public EigenSpace train(FaceSource source) {
+
+		double[][] chunkRows = new double[chunkSize][];
+
+		double[] sums = new double[PIXELS];
+		long count = 0;
+
+		for (List<BufferedImage> chunk : FaceSources.chunks(source, chunkSize)) {
+			ThreadTool.checkInterrupted();
+			int n = read(chunk, chunkRows);
+			IntStream.range(0, n).parallel().forEach(i -> ArrayTool.divideByMax(chunkRows[i]));
+			for (int i = 0; i < n; i++) {
+				double[] row = chunkRows[i];
+				for (int p = 0; p < PIXELS; p++) {
+					sums[p] += row[p];
+				}
+			}
+			count += n;
+		}
+
+		if (count == 0) {
+			throw new IllegalArgumentException("Cannot train on an empty face source");
+		}
+
+		double[] means = new double[PIXELS];
+		for (int p = 0; p < PIXELS; p++) {
+			means[p] = sums[p] / count;
+		}
+
+		Sketch sketch = new Sketch(sketchRows, PIXELS);
+
+		for (List<BufferedImage> chunk : FaceSources.chunks(source, chunkSize)) {
+			ThreadTool.checkInterrupted();
+			int n = read(chunk, chunkRows);
+			IntStream.range(0, n).parallel().forEach(i -> ArrayTool.normalizeAndCenter(chunkRows[i], means));
+			for (int i = 0; i < n; i++) {
+				sketch.add(chunkRows[i]);
+			}
+		}
+
+		EigenSpace space = toSpace(sketch, means);
+		LOGGER.info("Trained {} eigenfaces on {} faces", space.getDimension(), count);
+
+		return space;
+	}
+
+	private EigenSpace toSpace(Sketch sketch, double[] means) {
+
+		Directions directions = sketch.directions();
+
+		double floor = directions.count() == 0 ? 0 : directions.value(0) * 1e-12;
+		int dimension = 0;
+		while (dimension < Math.min(components, directions.count()) && directions.value(dimension) > floor) {
+			dimension++;
+		}
+
+		double[] values = new double[dimension];
+		double[] eigenfaces = new double[dimension * PIXELS];
+
+		IntStream.range(0, dimension).parallel().forEach(t -> {
+			double[] eigenface = new double[PIXELS];
+			sketch.combine(directions, t, 1, eigenface);
+			ArrayTool.divideByNorm(eigenface);
+			System.arraycopy(eigenface, 0, eigenfaces, t * PIXELS, PIXELS);
+			values[t] = directions.value(t);
+		});
+
+		return new EigenSpace(means, eigenfaces, values);
+	}
+
+	// Reads the pixels of chunk into rows, reusing their arrays
+	private static int read(List<BufferedImage> chunk, double[][] rows) {
+		IntStream.range(0, chunk.size()).parallel().forEach(i -> {
+			if (rows[i] == null) {
+				rows[i] = new double[PIXELS];
+			}
+			chunk.get(i).getRaster().getPixels(0, 0, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT, rows[i]);
+		});
+		return chunk.size();
+	}
+
+	public int getComponents() {
+		return components;
+	}
+
+	public int getSketchRows() {
+		return sketchRows;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+}
@@ -0,0 +1,175 @@
+package han.cloud.ai.face;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.face.ifs.FaceSource;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+
+/**
+ * <p>
+ * This class serves many small galleries, one per tenant, out of a single
+ * {@link EigenSpace} trained once on a large generic corpus.
+ *
+ * <p>
+ * A tenant's gallery is kept only as its weights in the shared space, so
+ * enrolling a tenant is a projection rather than an eigendecomposition and
+ * costs {@code 8 * dimension} bytes per face. A recognition projects the face
+ * once and scans the weights of the tenant alone.
+ *
+ * <p>
+ * This class is thread-safe; replacing the gallery of a tenant never disturbs
+ * the recognitions running against its previous gallery.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class TenantGalleries {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TenantGalleries.class);
+
+	private final EigenSpace space;
+	private final ConcurrentMap<String, EigenFaceModel> galleries = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs an instance without any tenant
+	 *
+	 * @param space
+	 *            The space shared by all the galleries, such as one trained by
+	 *            {@link StreamingEigenTrainer} and loaded with
+	 *            {@link EigenSpace#load(java.nio.file.Path)}
+	 */
+	public TenantGalleries(EigenSpace space) {
+		this.space = space;
+	}
+
+	/**
+	 * @see #put(String, FaceSource)
+	 */
+	public EigenFaceModel put(String tenant, List<BufferedImage> faces) {
+		return put(tenant, FaceSources.of(faces));
+	}
+
+	/**
+	 * Projects the gallery of {@code tenant} into the shared space, replacing its
+	 * previous gallery if any
+	 *
+	 * @param tenant
+	 *            The id of the tenant
+	 * @param source
+	 *            The gray gallery faces of the tenant in standard size
+	 * @return The model of the gallery, whose indices are the positions of the
+	 *         faces in {@code source}
+	 */
+	public EigenFaceModel put(String tenant, FaceSource source) {
+
+		EigenFaceModel model = EigenFaceModel.build(space, source);
+		galleries.put(tenant, model);
+
+		LOGGER.debug("Enrolled {} faces for tenant {}", model.size(), tenant);
+		return model;
+	}
+
+	/**
+	 * Drops the gallery of {@code tenant}
+	 *
+	 * @param tenant
+	 *            The id of the tenant
+	 * @return True if the tenant had a gallery
+	 */
+	public boolean remove(String tenant) {
+		return galleries.remove(tenant) != null;
+	}
+
+	public boolean contains(String tenant) {
+		return galleries.containsKey(tenant);
+	}
+
+	/**
+	 * Returns the gallery of {@code tenant}
+	 *
+	 * @param tenant
+	 *            The id of the tenant
+	 * @return The model of its gallery
+	 * @throws IllegalArgumentException
+	 *             if the tenant has no gallery
+	 */
+	public EigenFaceModel gallery(String tenant) {
+
+		EigenFaceModel model = galleries.get(tenant);
+		if (model == null) {
+			throw new IllegalArgumentException("Unknown tenant " + tenant);
+		}
+
+		return model;
+	}
+
+	/**
+	 * @see #recognize(String, BufferedImage, ScanLimit)
+	 */
+	public MatchInfo recognize(String tenant, BufferedImage face) {
+		return recognize(tenant, face, ScanLimit.NONE);
+	}
+
+	/**
+	 * Returns the result of trying to recognize {@code face} among the gallery of
+	 * {@code tenant}
+	 *
+	 * @param tenant
+	 *            The id of the tenant
+	 * @param face
+	 *            The gray face in standard size
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The result of trying to recognize {@code face}, whose index is the
+	 *         position of the closest face in the gallery of the tenant
+	 * @throws IllegalArgumentException
+	 *             if the tenant has no gallery
+	 */
+	public MatchInfo recognize(String tenant, BufferedImage face, ScanLimit limit) {
+		return gallery(tenant).recognize(face, limit);
+	}
+
+	/**
+	 * Returns the ids of the tenants with a gallery
+	 *
+	 * @return A read-only view of the ids
+	 */
+	public Set<String> tenants() {
+		return Collections.unmodifiableSet(galleries.keySet());
+	}
+
+	/**
+	 * Returns the number of tenants with a gallery
+	 *
+	 * @return The number of tenants
+	 */
+	public int size() {
+		return galleries.size();
+	}
+
+	/**
+	 * Returns the memory taken by the weights of all the galleries, which is all
+	 * there is to them besides the shared space
+	 *
+	 * @return The number of bytes of weights
+	 */
+	public long getWeightBytes() {
+		return galleries.values() //
+				.stream() //
+				.mapToLong(model -> 8L * model.size() * space.getDimension()) //
+				.sum();
+	}
+
+	public EigenSpace getSpace() {
+		return space;
+	}
+}
@@ -0,0 +1,483 @@
+package han.cloud.ai.face;
+
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_GRAY8;
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import static org.bytedeco.javacpp.opencv_core.cvCopy;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import han.cloud.ai.model.FaceQuality;
+import han.cloud.ai.util.FaceConstants;
+import han.cloud.ai.util.FaceNormalizer;
+import han.cloud.ai.util.FaceQualityAssessor;
+import han.cloud.ai.util.ImageTool;
+
+/**
+ * <p>
+ * This class finds the faces in video files and streams, such as recorded CCTV
+ * footage, with FFmpeg.
+ *
+ * <p>
+ * Each video is decoded on its own thread, straight into gray, and the frames
+ * picked by a {@link VideoSampling} are copied into a small set of native
+ * images handed to the detection workers. No frame goes through a
+ * {@link java.awt.image.BufferedImage}. When all the images are taken, the
+ * decoding waits for the workers, so a slow detection slows the decoding
+ * rather than filling the memory.
+ *
+ * <p>
+ * The frames with faces are passed to the consumer as the workers finish them,
+ * on the worker threads and not necessarily in frame order; their timestamps
+ * tell where they belong. Each face is scored by a {@link FaceQualityAssessor},
+ * and those it does not accept are dropped.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class VideoFaceIndexer implements AutoCloseable {
+
+	/**
+	 * The counts of a finished video
+	 */
+	public static final class Summary {
+
+		private final long frames;
+		private final long sampled;
+		private final long faces;
+
+		private Summary(long frames, long sampled, long faces) {
+			this.frames = frames;
+			this.sampled = sampled;
+			this.faces = faces;
+		}
+
+		/**
+		 * @return The number of video frames read, only the key frames when
+		 *         sampling them
+		 */
+		public long getFrames() {
+			return frames;
+		}
+
+		/**
+		 * @return The number of frames faces were looked for in
+		 */
+		public long getSampled() {
+			return sampled;
+		}
+
+		/**
+		 * @return The number of faces found and accepted
+		 */
+		public long getFaces() {
+			return faces;
+		}
+
+		@Override
+		public String toString() {
+			return "Summary [frames=" + frames + ", sampled=" + sampled + ", faces=" + faces + "]";
+		}
+	}
+
+	/*
+	 * A native gray image a sampled frame is copied into, taken from and given
+	 * back to the free slots of its video
+	 */
+	private static final class Slot {
+
+		private final BlockingQueue<Slot> free;
+		private IplImage image;
+
+		private Slot(BlockingQueue<Slot> free) {
+			this.free = free;
+		}
+
+		private IplImage fit(int width, int height) {
+			if (image == null || image.width() != width || image.height() != height) {
+				if (image != null) {
+					image.release();
+				}
+				image = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+			}
+			return image;
+		}
+
+		private void giveBack() {
+			free.add(this);
+		}
+
+		private void release() {
+			if (image != null) {
+				image.release();
+				image = null;
+			}
+		}
+	}
+
+	/*
+	 * The detection of a sampled frame, which gives its slot back once done, or
+	 * once dropped by close()
+	 */
+	private static final class Detection implements Runnable {
+
+		private final Slot slot;
+		private final Runnable work;
+
+		private Detection(Slot slot, Runnable work) {
+			this.slot = slot;
+			this.work = work;
+		}
+
+		@Override
+		public void run() {
+			try {
+				work.run();
+			} finally {
+				slot.giveBack();
+			}
+		}
+	}
+
+	// The size of the grid frames are compared on for scene changes
+	private static final int GRID_WIDTH = 32;
+	private static final int GRID_HEIGHT = 18;
+
+	// How long closing waits for the decoders, and a decoder for its images
+	private static final long STOP_TIMEOUT_SECONDS = 30;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(VideoFaceIndexer.class);
+	private static final AtomicInteger DECODERS = new AtomicInteger();
+
+	private final FaceDetector detector;
+	private final int workers;
+	private final int maxFaces;
+	private final FaceQualityAssessor assessor;
+	private final ExecutorService executor;
+	private final Map<Thread, CompletableFuture<Summary>> decoders = new ConcurrentHashMap<>();
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructs an instance detecting with the shared {@link FaceDetector}
+	 *
+	 * @param workers
+	 *            The number of frames detected in parallel
+	 */
+	public VideoFaceIndexer(int workers) {
+		this(FaceDetector.instance(), workers, -1);
+	}
+
+	/**
+	 * Constructs an instance scoring the faces but dropping none
+	 *
+	 * @param detector
+	 *            The detector to find the faces with
+	 * @param workers
+	 *            The number of frames detected in parallel
+	 * @param maxFaces
+	 *            The maximal number of faces per frame; -1 for all
+	 */
+	public VideoFaceIndexer(FaceDetector detector, int workers, int maxFaces) {
+		this(detector, workers, maxFaces, FaceQualityAssessor.ANY);
+	}
+
+	/**
+	 * Constructs an instance of this class
+	 *
+	 * @param detector
+	 *            The detector to find the faces with
+	 * @param workers
+	 *            The number of frames detected in parallel
+	 * @param maxFaces
+	 *            The maximal number of faces per frame, before the faces not
+	 *            acceptable to {@code assessor} are dropped; -1 for all
+	 * @param assessor
+	 *            The assessor to score the faces with
+	 */
+	public VideoFaceIndexer(FaceDetector detector, int workers, int maxFaces, FaceQualityAssessor assessor) {
+
+		if (workers < 1) {
+			throw new IllegalArgumentException("Expected at least one worker but got " + workers);
+		}
+
+		this.detector = detector;
+		this.workers = workers;
+		this.maxFaces = maxFaces;
+		this.assessor = assessor;
+
+		AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+			Thread thread = new Thread(runnable, "video-detector-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Finds the faces in the sampled frames of a video
+	 *
+	 * @param source
+	 *            The video file, or any URL FFmpeg can read, such as an RTSP
+	 *            stream
+	 * @param sampling
+	 *            Which frames to look for faces in
+	 * @param consumer
+	 *            Called with each frame in which faces are found, from the worker
+	 *            threads
+	 * @return The future counts of the video, completed once the last frame is
+	 *         detected, or exceptionally if the video cannot be read, the
+	 *         consumer throws or the indexer is closed; cancelling it stops the
+	 *         decoding
+	 */
+	public CompletableFuture<Summary> index(String source, VideoSampling sampling, Consumer<VideoFaces> consumer) {
+
+		CompletableFuture<Summary> result = new CompletableFuture<>();
+
+		Thread decoder = new Thread(() -> decode(source, sampling, consumer, result),
+				"video-decoder-" + DECODERS.incrementAndGet());
+		decoder.setDaemon(true);
+		decoders.put(decoder, result);
+
+		if (closed) {
+			decoders.remove(decoder);
+			result.completeExceptionally(new IllegalStateException("The indexer is closed"));
+			return result;
+		}
+
+		decoder.start();
+		return result;
+	}
+
+	private void decode(String source, VideoSampling sampling, Consumer<VideoFaces> consumer,
+			CompletableFuture<Summary> result) {
+
+		int slots = 2 * workers;
+		BlockingQueue<Slot> free = new ArrayBlockingQueue<>(slots);
+		for (int i = 0; i < slots; i++) {
+			free.add(new Slot(free));
+		}
+
+		LongAdder faces = new LongAdder();
+		long frames = 0;
+		long sampled = 0;
+
+		FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(source);
+		grabber.setPixelFormat(AV_PIX_FMT_GRAY8);
+
+		try {
+			grabber.start();
+			LOGGER.info("Indexing {} at {} fps with {}", source, grabber.getFrameRate(), sampling);
+
+			int[] previous = null;
+			int[] grid = new int[GRID_WIDTH * GRID_HEIGHT];
+
+			while (!result.isDone()) {
+
+				boolean wanted = sampling.getMode() != VideoSampling.Mode.EVERY || frames % sampling.getStep() == 0;
+				boolean keyFrames = sampling.getMode() == VideoSampling.Mode.KEY_FRAMES;
+
+				Frame frame = grabber.grabFrame(false, true, wanted, keyFrames);
+				if (frame == null) {
+					break;
+				}
+
+				// the skipped frames between two key frames are not counted
+				long number = keyFrames ? grabber.getFrameNumber() : frames;
+				frames++;
+
+				if (!wanted || frame.image == null) {
+					continue;
+				}
+
+				if (sampling.getMode() == VideoSampling.Mode.SCENE_CHANGES) {
+					thumbnail(frame, grid);
+					if (previous != null && difference(previous, grid) <= sampling.getThreshold()) {
+						continue;
+					}
+					previous = grid.clone();
+				}
+
+				Slot slot = free.take();
+				IplImage image = slot.fit(frame.imageWidth, frame.imageHeight);
+				cvCopy(ImageTool.toIplImage(frame), image);
+				sampled++;
+
+				long timestamp = frame.timestamp;
+				try {
+					executor.execute(new Detection(slot, () -> {
+						try {
+							VideoFaces found = detect(image, number, timestamp);
+							if (found.size() > 0) {
+								faces.add(found.size());
+								consumer.accept(found);
+							}
+						} catch (RuntimeException e) {
+							result.completeExceptionally(e);
+						}
+					}));
+				} catch (RejectedExecutionException e) {
+					slot.giveBack();
+					throw new IllegalStateException("The indexer is closed", e);
+				}
+			}
+
+		} catch (FrameGrabber.Exception | RuntimeException e) {
+			result.completeExceptionally(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.completeExceptionally(e);
+		} finally {
+			release(grabber, free, slots);
+			decoders.remove(Thread.currentThread());
+		}
+
+		result.complete(new Summary(frames, sampled, faces.sum()));
+		LOGGER.info("Indexed {}: {} frames, {} sampled, {} faces", source, frames, sampled, faces.sum());
+	}
+
+	private VideoFaces detect(IplImage image, long number, long timestamp) {
+
+		List<Rectangle> detected = detector.detect(image, maxFaces);
+
+		List<Rectangle> regions = new ArrayList<>(detected.size());
+		List<byte[]> normalized = new ArrayList<>(detected.size());
+		List<FaceQuality> qualities = new ArrayList<>(detected.size());
+
+		ByteBuffer pixels = image.getByteBuffer();
+		for (Rectangle region : detected) {
+			byte[] face = FaceNormalizer.normalize(pixels, image.width(), image.height(), image.widthStep(), region,
+					new byte[FaceConstants.columns], FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
+			FaceQuality quality = assessor.assess(face, region);
+			if (quality.isAcceptable()) {
+				regions.add(region);
+				normalized.add(face);
+				qualities.add(quality);
+			}
+		}
+
+		return new VideoFaces(number, timestamp, regions, normalized, qualities);
+	}
+
+	/*
+	 * Waits for the workers to give back all the images, then frees them. An
+	 * image not given back in time is left to the worker holding it rather than
+	 * freed under it.
+	 */
+	private static void release(FrameGrabber grabber, BlockingQueue<Slot> free, int slots) {
+
+		try {
+			grabber.release();
+		} catch (FrameGrabber.Exception e) {
+			LOGGER.warn("Cannot release the grabber", e);
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SECONDS);
+		boolean interrupted = false;
+		int released = 0;
+
+		while (released < slots) {
+			try {
+				Slot slot = free.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (slot == null) {
+					LOGGER.warn("{} frame images were not given back in time; leaving them", slots - released);
+					break;
+				}
+				slot.release();
+				released++;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Samples the gray levels of frame on a coarse grid
+	private static void thumbnail(Frame frame, int[] grid) {
+
+		ByteBuffer pixels = (ByteBuffer) frame.image[0];
+		for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+			int y = (2 * gy + 1) * frame.imageHeight / (2 * GRID_HEIGHT);
+			for (int gx = 0; gx < GRID_WIDTH; gx++) {
+				int x = (2 * gx + 1) * frame.imageWidth / (2 * GRID_WIDTH);
+				grid[gy * GRID_WIDTH + gx] = pixels.get(y * frame.imageStride + x) & 0xFF;
+			}
+		}
+	}
+
+	private static double difference(int[] a, int[] b) {
+		long sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += Math.abs(a[i] - b[i]);
+		}
+		return sum / (double) a.length;
+	}
+
+	public FaceDetector getDetector() {
+		return detector;
+	}
+
+	public FaceQualityAssessor getAssessor() {
+		return assessor;
+	}
+
+	/**
+	 * Stops the workers and fails the videos still being indexed, waiting for
+	 * their decoders to free their images
+	 */
+	@Override
+	public void close() {
+
+		closed = true;
+
+		// the frames not detected yet give their images back unseen
+		for (Runnable dropped : executor.shutdownNow()) {
+			if (dropped instanceof Detection) {
+				((Detection) dropped).slot.giveBack();
+			}
+		}
+
+		IllegalStateException cause = new IllegalStateException("The indexer is closed");
+		decoders.forEach((decoder, result) -> {
+			result.completeExceptionally(cause);
+			decoder.interrupt();
+		});
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SECONDS);
+		for (Thread decoder : decoders.keySet()) {
+			try {
+				decoder.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (decoder.isAlive()) {
+				LOGGER.warn("{} did not stop within {} s", decoder.getName(), STOP_TIMEOUT_SECONDS);
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package han.cloud.ai.face;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Collections;
+import java.util.List;
+
+import han.cloud.ai.model.FaceQuality;
+import han.cloud.ai.util.FaceConstants;
+
+/**
+ * <p>
+ * The faces found in one frame of a video by a {@link VideoFaceIndexer}.
+ *
+ * <p>
+ * Each face comes with its region in the frame, its pixels normalized to the
+ * standard face size, ready to be recognized or enrolled, and its quality.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class VideoFaces {
+
+	private final long frameNumber;
+	private final long timestamp;
+	private final List<Rectangle> regions;
+	private final List<byte[]> faces;
+	private final List<FaceQuality> qualities;
+
+	VideoFaces(long frameNumber, long timestamp, List<Rectangle> regions, List<byte[]> faces,
+			List<FaceQuality> qualities) {
+		this.frameNumber = frameNumber;
+		this.timestamp = timestamp;
+		this.regions = Collections.unmodifiableList(regions);
+		this.faces = Collections.unmodifiableList(faces);
+		this.qualities = Collections.unmodifiableList(qualities);
+	}
+
+	/**
+	 * Returns the position of the frame among the video frames
+	 *
+	 * @return The frame number, 0 for the first frame
+	 */
+	public long getFrameNumber() {
+		return frameNumber;
+	}
+
+	/**
+	 * Returns when the frame is shown
+	 *
+	 * @return The presentation time of the frame in microseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the regions of the faces in the frame
+	 *
+	 * @return The regions, biggest face first
+	 */
+	public List<Rectangle> getRegions() {
+		return regions;
+	}
+
+	/**
+	 * Returns the gray pixels of each face in standard size, row by row
+	 *
+	 * @return The pixels of the faces, in the order of {@link #getRegions()}
+	 */
+	public List<byte[]> getFaces() {
+		return faces;
+	}
+
+	/**
+	 * Returns the quality of each face
+	 *
+	 * @return The qualities of the faces, in the order of {@link #getRegions()}
+	 */
+	public List<FaceQuality> getQualities() {
+		return qualities;
+	}
+
+	public int size() {
+		return regions.size();
+	}
+
+	/**
+	 * Returns the {@code i}-th face as an image
+	 *
+	 * @param i
+	 *            The position of the face
+	 * @return A gray copy of the face in standard size
+	 */
+	public BufferedImage face(int i) {
+
+		BufferedImage image = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+				BufferedImage.TYPE_BYTE_GRAY);
+		byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		System.arraycopy(faces.get(i), 0, data, 0, data.length);
+
+		return image;
+	}
+
+	@Override
+	public String toString() {
+		return "VideoFaces [frameNumber=" + frameNumber + ", timestamp=" + timestamp + ", regions=" + regions + "]";
+	}
+}
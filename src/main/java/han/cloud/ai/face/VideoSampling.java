@@ -0,0 +1,108 @@
+package han.cloud.ai.face;
+
+/**
+ * <p>
+ * Which frames of a video a {@link VideoFaceIndexer} looks for faces in.
+ *
+ * <p>
+ * Footage at 25 frames per second shows the same faces in many consecutive
+ * frames, so detecting on all of them mostly repeats the work. A sampling
+ * picks every {@code n}-th frame, only the key frames, or the frames where the
+ * scene changes.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class VideoSampling {
+
+	enum Mode {
+		EVERY, KEY_FRAMES, SCENE_CHANGES
+	}
+
+	private final Mode mode;
+	private final int step;
+	private final double threshold;
+
+	private VideoSampling(Mode mode, int step, double threshold) {
+		this.mode = mode;
+		this.step = step;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Samples every frame
+	 *
+	 * @return A sampling of every frame
+	 */
+	public static VideoSampling everyFrame() {
+		return every(1);
+	}
+
+	/**
+	 * Samples every {@code n}-th frame, starting with the first one; the frames in
+	 * between are decoded but not converted
+	 *
+	 * @param n
+	 *            The distance between two sampled frames
+	 * @return A sampling of every {@code n}-th frame
+	 */
+	public static VideoSampling every(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Expected a positive step but got " + n);
+		}
+		return new VideoSampling(Mode.EVERY, n, 0);
+	}
+
+	/**
+	 * Samples only the key frames, which are typically one or two seconds apart
+	 * in encoded footage
+	 *
+	 * @return A sampling of the key frames
+	 */
+	public static VideoSampling keyFrames() {
+		return new VideoSampling(Mode.KEY_FRAMES, 1, 0);
+	}
+
+	/**
+	 * Samples the first frame and every frame that differs enough from the last
+	 * sampled one
+	 * <p>
+	 * The difference is the mean absolute difference of the gray levels, from 0
+	 * to 255, over a coarse grid of the frame, so that noise and small motions
+	 * count little.
+	 *
+	 * @param threshold
+	 *            The difference above which a frame is sampled, such as 10
+	 * @return A sampling of the scene changes
+	 */
+	public static VideoSampling sceneChanges(double threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("The threshold must not be negative: " + threshold);
+		}
+		return new VideoSampling(Mode.SCENE_CHANGES, 1, threshold);
+	}
+
+	Mode getMode() {
+		return mode;
+	}
+
+	int getStep() {
+		return step;
+	}
+
+	double getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public String toString() {
+		switch (mode) {
+		case EVERY:
+			return "VideoSampling [every=" + step + "]";
+		case KEY_FRAMES:
+			return "VideoSampling [keyFrames]";
+		default:
+			return "VideoSampling [sceneChanges=" + threshold + "]";
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package han.cloud.ai.face.ifs;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 
+ * @author Jiayun Han
+ *
+ */
+public interface FaceEncoder {
+
+	/**
+	 * Returns the embedding of {@code face}
+	 * 
+	 * @param face
+	 *            The gray face in standard size to be encoded
+	 * @return The embedding of {@code face}, or null if it cannot be encoded
+	 */
+	public float[] encode(BufferedImage face);
+
+}
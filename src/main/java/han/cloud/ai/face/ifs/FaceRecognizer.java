@@ -4,6 +4,7 @@ import java.awt.image.BufferedImage;
 import java.util.List;
 
 import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
 
 /**
  * 
@@ -24,4 +25,27 @@ public interface FaceRecognizer {
 	 */
 	public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face);
 
+	/**
+	 * Returns the result of trying to recognize {@code face} among {@code faces},
+	 * scanning them only until {@code limit} says to stop
+	 * <p>
+	 * The default implementation cannot stop early: it scans all of
+	 * {@code faces} and only reports whether the best match is accepted.
+	 * 
+	 * @param faces
+	 *            The faces among which to find the one that resembles {@code face}
+	 *            most
+	 * @param face
+	 *            The face to match the one in {@code faces} that it resembles most
+	 * @param limit
+	 *            The deadline and accept distance of the scan
+	 * @return The best match found, and whether all of {@code faces} were scanned
+	 * @see MatchInfo#isComplete()
+	 */
+	public default MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
+		MatchInfo matchInfo = recognize(faces, face);
+		return new MatchInfo(matchInfo.getDistance(), matchInfo.getIndex(), true,
+				matchInfo.getIndex() != -1 && limit.accepts(matchInfo.getDistance()));
+	}
+
 }
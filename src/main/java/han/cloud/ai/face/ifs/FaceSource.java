@@ -0,0 +1,34 @@
+package han.cloud.ai.face.ifs;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+
+/**
+ * A collection of faces that can be read any number of times, possibly without
+ * ever holding all of them in memory.
+ * 
+ * @author Jiayun Han
+ *
+ * @see han.cloud.ai.face.FaceSources
+ */
+public interface FaceSource extends Iterable<BufferedImage> {
+
+	/**
+	 * Starts a new pass over the faces, which returns the same gray faces in
+	 * standard size in the same order as every other pass
+	 * 
+	 * @return An iterator over the faces
+	 */
+	@Override
+	public Iterator<BufferedImage> iterator();
+
+	/**
+	 * Returns the number of faces if it is known without a pass
+	 * 
+	 * @return The number of faces, or -1 if it is unknown
+	 */
+	public default int size() {
+		return -1;
+	}
+
+}
@@ -0,0 +1,198 @@
+package han.cloud.ai.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bytedeco.javacpp.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * The per-stage latency instrumentation of detection and recognition.
+ * 
+ * <p>
+ * A stage is timed as follows, which costs a single volatile read while the
+ * metrics are disabled:
+ * 
+ * <pre>
+ * long start = FaceMetrics.start();
+ * ... the stage ...
+ * FaceMetrics.stop(Stage.EIGEN_SCAN, start);
+ * </pre>
+ * 
+ * <p>
+ * The metrics are disabled unless the system property
+ * {@value #ENABLED_PROPERTY} is {@code true} or they are enabled through
+ * {@link #setEnabled(boolean)} or JMX.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public final class FaceMetrics {
+
+	public static final String ENABLED_PROPERTY = "han.face.metrics";
+	public static final String OBJECT_NAME = "han.cloud.ai:type=FaceMetrics";
+	public static final String GALLERY_SIZE = "gallerySize";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FaceMetrics.class);
+
+	private static final Map<Stage, LatencyHistogram> HISTOGRAMS = new EnumMap<>(Stage.class);
+	private static final List<MetricsSink> SINKS = new CopyOnWriteArrayList<>();
+
+	private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+	private static volatile long gallerySize;
+
+	static {
+		for (Stage stage : Stage.values()) {
+			HISTOGRAMS.put(stage, new LatencyHistogram());
+		}
+		ServiceLoader.load(MetricsSink.class).forEach(SINKS::add);
+		register();
+	}
+
+	private FaceMetrics() {
+	}
+
+	/**
+	 * Returns the start time of a stage
+	 * 
+	 * @return The current {@link System#nanoTime()}, or 0 if the metrics are
+	 *         disabled
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the duration of {@code stage}, unless the metrics were disabled when
+	 * it started
+	 * 
+	 * @param stage
+	 *            The measured stage
+	 * @param start
+	 *            The value returned by {@link #start()} when the stage started
+	 */
+	public static void stop(Stage stage, long start) {
+
+		if (start == 0) {
+			return;
+		}
+
+		long nanos = System.nanoTime() - start;
+		HISTOGRAMS.get(stage).record(nanos);
+
+		for (MetricsSink sink : SINKS) {
+			sink.record(stage, nanos);
+		}
+	}
+
+	/**
+	 * Records the size of the gallery most recently searched
+	 * 
+	 * @param size
+	 *            The number of faces in the gallery
+	 */
+	public static void gallerySize(long size) {
+
+		if (!enabled) {
+			return;
+		}
+
+		gallerySize = size;
+		for (MetricsSink sink : SINKS) {
+			sink.gauge(GALLERY_SIZE, size);
+		}
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		FaceMetrics.enabled = enabled;
+	}
+
+	public static void addSink(MetricsSink sink) {
+		SINKS.add(sink);
+	}
+
+	public static void removeSink(MetricsSink sink) {
+		SINKS.remove(sink);
+	}
+
+	public static LatencyHistogram histogram(Stage stage) {
+		return HISTOGRAMS.get(stage);
+	}
+
+	public static List<StageStats> stages() {
+		List<StageStats> stats = new ArrayList<>();
+		HISTOGRAMS.forEach((stage, histogram) -> stats.add(StageStats.of(stage, histogram)));
+		return stats;
+	}
+
+	public static void reset() {
+		HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+		gallerySize = 0;
+	}
+
+	private static void register() {
+
+		FaceMetricsMXBean bean = new FaceMetricsMXBean() {
+
+			@Override
+			public boolean isEnabled() {
+				return FaceMetrics.isEnabled();
+			}
+
+			@Override
+			public void setEnabled(boolean enabled) {
+				FaceMetrics.setEnabled(enabled);
+			}
+
+			@Override
+			public List<StageStats> getStages() {
+				return FaceMetrics.stages();
+			}
+
+			@Override
+			public long getGallerySize() {
+				return gallerySize;
+			}
+
+			@Override
+			public long getNativeTotalBytes() {
+				return Pointer.totalBytes();
+			}
+
+			@Override
+			public long getNativePhysicalBytes() {
+				return Pointer.physicalBytes();
+			}
+
+			@Override
+			public void reset() {
+				FaceMetrics.reset();
+			}
+		};
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(bean, name);
+			}
+		} catch (JMException e) {
+			LOGGER.warn("Cannot register {}", OBJECT_NAME, e);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package han.cloud.ai.metrics;
+
+import java.util.List;
+
+/**
+ * The JMX view of {@link FaceMetrics}, registered as
+ * {@value FaceMetrics#OBJECT_NAME}.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public interface FaceMetricsMXBean {
+
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	public List<StageStats> getStages();
+
+	public long getGallerySize();
+
+	/**
+	 * @return The bytes allocated by JavaCPP for OpenCV and friends
+	 */
+	public long getNativeTotalBytes();
+
+	/**
+	 * @return The physical memory used by the process, as seen by JavaCPP
+	 */
+	public long getNativePhysicalBytes();
+
+	public void reset();
+}
@@ -0,0 +1,122 @@
+package han.cloud.ai.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A lock-free histogram of nanosecond latencies in the manner of HdrHistogram.
+ * 
+ * <p>
+ * Each power of two is split into {@value #SUB_BUCKETS} linear buckets, so any
+ * recorded value is reported within about 6% of its true value, over the
+ * whole range of {@code long} at a fixed memory cost.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds; negative values count as zero
+	 */
+	public void record(long nanos) {
+
+		long value = Math.max(0, nanos);
+
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : sum.sum() / (double) n;
+	}
+
+	/**
+	 * Returns the latency below which {@code percentile} percent of the recorded
+	 * latencies fall
+	 * 
+	 * @param percentile
+	 *            The percentile, between 0 and 100
+	 * @return The latency in nanoseconds at {@code percentile}, or 0 if nothing is
+	 *         recorded
+	 */
+	public long getPercentile(double percentile) {
+
+		long total = count.sum();
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(bucket), max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	public void reset() {
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			counts.set(bucket, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	private static int bucketOf(long value) {
+
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long highestValueOf(int bucket) {
+
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << shift;
+
+		return lowest + (1L << shift) - 1;
+	}
+}
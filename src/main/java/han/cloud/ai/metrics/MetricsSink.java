@@ -0,0 +1,39 @@
+package han.cloud.ai.metrics;
+
+/**
+ * <p>
+ * A service provider receiving the measurements of {@link FaceMetrics}, for
+ * forwarding them to a metrics system such as Micrometer or Dropwizard.
+ * 
+ * <p>
+ * Implementations are found with {@link java.util.ServiceLoader}, through a
+ * <i>META-INF/services/han.cloud.ai.metrics.MetricsSink</i> file, or added with
+ * {@link FaceMetrics#addSink(MetricsSink)}. They are called on the measuring
+ * thread and must be fast and thread-safe.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public interface MetricsSink {
+
+	/**
+	 * Receives the duration of one run of {@code stage}
+	 * 
+	 * @param stage
+	 *            The measured stage
+	 * @param nanos
+	 *            The duration in nanoseconds
+	 */
+	public void record(Stage stage, long nanos);
+
+	/**
+	 * Receives the current value of a gauge
+	 * 
+	 * @param name
+	 *            The name of the gauge
+	 * @param value
+	 *            The current value
+	 */
+	public default void gauge(String name, long value) {
+	}
+}
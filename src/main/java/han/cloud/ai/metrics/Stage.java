@@ -0,0 +1,40 @@
+package han.cloud.ai.metrics;
+
+/**
+ * The timed stages of detection and recognition.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public enum Stage {
+
+	/** Decoding or converting the image to a gray {@code IplImage} */
+	DETECT_CONVERT,
+
+	/** Running the Haar cascade */
+	DETECT_CASCADE,
+
+	/** Building the eigenspace out of the gallery */
+	EIGEN_TRAIN,
+
+	/** Normalizing the pixels of a face before projection */
+	EIGEN_NORMALIZE,
+
+	/** Projecting a face onto the eigenspace */
+	EIGEN_PROJECT,
+
+	/** Comparing a face's weights with those of the gallery */
+	EIGEN_SCAN,
+
+	/** Handing the faces over to the Python interpreter */
+	LANDMARK_TRANSFER,
+
+	/** Running the comparison in the Python interpreter */
+	LANDMARK_EVAL,
+
+	/** Reading the result back from the Python interpreter */
+	LANDMARK_PARSE,
+
+	/** Scoring the sharpness, size and exposure of a face */
+	QUALITY
+}
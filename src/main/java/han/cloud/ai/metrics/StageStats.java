@@ -0,0 +1,69 @@
+package han.cloud.ai.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the latencies of one {@link Stage}, in microseconds.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public final class StageStats {
+
+	private final String stage;
+	private final long count;
+	private final double meanMicros;
+	private final double p50Micros;
+	private final double p99Micros;
+	private final double maxMicros;
+
+	@ConstructorProperties({ "stage", "count", "meanMicros", "p50Micros", "p99Micros", "maxMicros" })
+	public StageStats(String stage, long count, double meanMicros, double p50Micros, double p99Micros,
+			double maxMicros) {
+		this.stage = stage;
+		this.count = count;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	static StageStats of(Stage stage, LatencyHistogram histogram) {
+		return new StageStats(stage.name(), //
+				histogram.getCount(), //
+				histogram.getMean() / 1e3, //
+				histogram.getPercentile(50) / 1e3, //
+				histogram.getPercentile(99) / 1e3, //
+				histogram.getMax() / 1e3);
+	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	public double getP50Micros() {
+		return p50Micros;
+	}
+
+	public double getP99Micros() {
+		return p99Micros;
+	}
+
+	public double getMaxMicros() {
+		return maxMicros;
+	}
+
+	@Override
+	public String toString() {
+		return "StageStats [stage=" + stage + ", count=" + count + ", meanMicros=" + meanMicros + ", p50Micros="
+				+ p50Micros + ", p99Micros=" + p99Micros + ", maxMicros=" + maxMicros + "]";
+	}
+}
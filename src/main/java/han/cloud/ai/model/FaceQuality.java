@@ -0,0 +1,80 @@
+package han.cloud.ai.model;
+
+/**
+ * This class wraps the quality of a detected face: how sharp, how big and how
+ * well exposed it is, and whether it is good enough to be recognized.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceQuality {
+
+	private final double sharpness;
+	private final double size;
+	private final double exposure;
+	private final double score;
+	private final boolean acceptable;
+
+	public FaceQuality(double sharpness, double size, double exposure, double score, boolean acceptable) {
+		this.sharpness = sharpness;
+		this.size = size;
+		this.exposure = exposure;
+		this.score = score;
+		this.acceptable = acceptable;
+	}
+
+	/**
+	 * Returns the variance of the Laplacian of the gray face in standard size
+	 * <p>
+	 * A blurred face has few edges, hence a low variance.
+	 *
+	 * @return The variance of the Laplacian, 0 for a flat face
+	 */
+	public double getSharpness() {
+		return sharpness;
+	}
+
+	/**
+	 * Returns the size of the face region relative to the standard face size
+	 *
+	 * @return The smaller of the width and height ratios, from 0 to 1 for a
+	 *         region at least as big as a standard face
+	 */
+	public double getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns how well exposed the face is, from its gray level histogram
+	 *
+	 * @return From 0 for a face all black, all white or of a single gray to 1 for
+	 *         a face centered on mid gray, with a wide range and no clipped pixels
+	 */
+	public double getExposure() {
+		return exposure;
+	}
+
+	/**
+	 * Returns the overall quality, to rank faces by
+	 *
+	 * @return From 0 to 1, the higher the better
+	 */
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * Returns whether the face passed the thresholds it was assessed against
+	 *
+	 * @return True if the face is worth recognizing
+	 */
+	public boolean isAcceptable() {
+		return acceptable;
+	}
+
+	@Override
+	public String toString() {
+		return "FaceQuality [sharpness=" + sharpness + ", size=" + size + ", exposure=" + exposure + ", score=" + score
+				+ ", acceptable=" + acceptable + "]";
+	}
+}
@@ -10,12 +10,35 @@ public class MatchInfo {
 
 	private double distance;
 	private int index = -1; // not found
+	private boolean complete = true;
+	private boolean accepted;
+	private long version;
+	private FaceQuality quality;
 
 	public MatchInfo(double distance, int index) {
 		this.distance = distance;
 		this.index = (0 == Double.compare(distance, Double.MAX_VALUE)) ? -1 : index;
 	}
 
+	/**
+	 * Constructs the result of a scan that may have been stopped by a
+	 * {@link ScanLimit}
+	 * 
+	 * @param distance
+	 *            The distance of the best match found
+	 * @param index
+	 *            The index of the best match found
+	 * @param complete
+	 *            True if the whole gallery was scanned
+	 * @param accepted
+	 *            True if the best match is within the accept distance of the limit
+	 */
+	public MatchInfo(double distance, int index, boolean complete, boolean accepted) {
+		this(distance, index);
+		this.complete = complete;
+		this.accepted = accepted;
+	}
+
 	/**
 	 * Returns the distance between two images
 	 * <p>
@@ -47,8 +70,73 @@ public class MatchInfo {
 		this.index = index;
 	}
 
+	/**
+	 * Returns whether the whole gallery was scanned
+	 * <p>
+	 * A scan stopped by a {@link ScanLimit}, because a face was accepted or the
+	 * deadline expired, returns the best match found so far; a closer face may
+	 * be among those not scanned.
+	 * 
+	 * @return True if the whole gallery was scanned
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	/**
+	 * Returns whether the match is within the accept distance of the
+	 * {@link ScanLimit} of the scan
+	 * 
+	 * @return True if the match was accepted; an incomplete scan whose match was
+	 *         not accepted ran out of time
+	 */
+	public boolean isAccepted() {
+		return accepted;
+	}
+
+	public void setAccepted(boolean accepted) {
+		this.accepted = accepted;
+	}
+
+	/**
+	 * Returns the version of the model the face was recognized against
+	 * 
+	 * @return The version given by a {@link han.cloud.ai.face.EigenModelHolder},
+	 *         or 0 if the model was not held by one
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Returns the quality of the face that was recognized
+	 * <p>
+	 * A face not acceptable to the assessor is not recognized at all: its match
+	 * has index -1.
+	 * 
+	 * @return The quality given by a
+	 *         {@link han.cloud.ai.util.FaceQualityAssessor}, or null if the face
+	 *         was not assessed
+	 */
+	public FaceQuality getQuality() {
+		return quality;
+	}
+
+	public void setQuality(FaceQuality quality) {
+		this.quality = quality;
+	}
+
 	@Override
 	public String toString() {
-		return "MatchResult [matchDist=" + distance + ", index=" + index + "]";
+		return "MatchResult [matchDist=" + distance + ", index=" + index + ", complete=" + complete + ", accepted="
+				+ accepted + ", version=" + version + ", quality=" + quality + "]";
 	}
 }
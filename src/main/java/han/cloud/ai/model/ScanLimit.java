@@ -0,0 +1,135 @@
+package han.cloud.ai.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class bounds a scan of the gallery by a deadline, an accept distance or
+ * both.
+ * <p>
+ * A scan stops as soon as the deadline expires or a face within the accept
+ * distance is found, and returns the best match found so far; the returned
+ * {@link MatchInfo} tells whether the scan was complete.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class ScanLimit {
+
+	/**
+	 * No limit: the whole gallery is scanned
+	 */
+	public static final ScanLimit NONE = new ScanLimit(false, 0, -1);
+
+	private final boolean timed;
+	private final long deadline;
+	private final double acceptDistance;
+
+	private ScanLimit(boolean timed, long deadline, double acceptDistance) {
+		this.timed = timed;
+		this.deadline = deadline;
+		this.acceptDistance = acceptDistance;
+	}
+
+	/**
+	 * Returns a limit expiring {@code timeout} from now
+	 *
+	 * @param timeout
+	 *            The time the scan may take
+	 * @param unit
+	 *            The unit of {@code timeout}
+	 * @return A limit expiring {@code timeout} from now, accepting no distance
+	 */
+	public static ScanLimit within(long timeout, TimeUnit unit) {
+		return new ScanLimit(true, System.nanoTime() + unit.toNanos(timeout), -1);
+	}
+
+	/**
+	 * Returns a limit accepting the first face within {@code distance}
+	 *
+	 * @param distance
+	 *            The distance at or below which a face is good enough
+	 * @return A limit without a deadline
+	 */
+	public static ScanLimit accepting(double distance) {
+		return NONE.andAccepting(distance);
+	}
+
+	/**
+	 * Returns a limit with the deadline of this one, accepting the first face
+	 * within {@code distance}
+	 *
+	 * @param distance
+	 *            The distance at or below which a face is good enough
+	 * @return A new limit
+	 */
+	public ScanLimit andAccepting(double distance) {
+		if (distance < 0) {
+			throw new IllegalArgumentException("The accept distance must not be negative: " + distance);
+		}
+		return new ScanLimit(timed, deadline, distance);
+	}
+
+	/**
+	 * Returns whether this limit may stop a scan early
+	 *
+	 * @return false for {@link #NONE}
+	 */
+	public boolean isBounded() {
+		return timed || acceptDistance >= 0;
+	}
+
+	public boolean hasDeadline() {
+		return timed;
+	}
+
+	/**
+	 * Returns whether the deadline has passed
+	 *
+	 * @return true if there is a deadline and it has passed
+	 */
+	public boolean isExpired() {
+		return timed && System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * Returns the time left until the deadline
+	 *
+	 * @param unit
+	 *            The unit of the result
+	 * @return The time left, which is never negative, or {@link Long#MAX_VALUE}
+	 *         if there is no deadline
+	 */
+	public long remaining(TimeUnit unit) {
+		if (!timed) {
+			return Long.MAX_VALUE;
+		}
+		return unit.convert(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns whether a face at {@code distance} is good enough to stop at
+	 *
+	 * @param distance
+	 *            The distance of the face
+	 * @return true if there is an accept distance and {@code distance} is within
+	 *         it
+	 */
+	public boolean accepts(double distance) {
+		return acceptDistance >= 0 && distance <= acceptDistance;
+	}
+
+	/**
+	 * Returns the accept distance
+	 *
+	 * @return The accept distance, or -1 if there is none
+	 */
+	public double getAcceptDistance() {
+		return acceptDistance;
+	}
+
+	@Override
+	public String toString() {
+		return "ScanLimit [remainingMillis=" + (timed ? remaining(TimeUnit.MILLISECONDS) : "none")
+				+ ", acceptDistance=" + acceptDistance + "]";
+	}
+}
@@ -10,14 +10,133 @@ import java.util.Arrays;
  * <p>
  * {@code CrossMean} refers to the mean of the column of a 2D array.
  * 
+ * <p>
+ * <b>Performance</b>
+ * <p>
+ * The methods are plain counted loops over primitive arrays, which the JIT
+ * compiles into SIMD code where it can. Reductions keep several independent
+ * accumulators so that they are not bound by the latency of a single add. The
+ * cross means are accumulated row by row over blocks of columns, so that each
+ * row is read sequentially and the partial sums stay in cache.
+ * 
  * @author Jiayun Han
  *
  */
 public final class ArrayTool {
 
+	// The number of columns whose partial sums are kept in cache at a time
+	private static final int BLOCK = 2048;
+
 	private ArrayTool() {
 	}
 
+	/**
+	 * Returns the max element value of {@code array}
+	 * 
+	 * @param array
+	 *            A non-empty array
+	 * @return The max element value of {@code array}
+	 */
+	public static double max(double[] array) {
+
+		double m0 = Double.NEGATIVE_INFINITY;
+		double m1 = m0;
+		double m2 = m0;
+		double m3 = m0;
+
+		int i = 0;
+		for (int limit = array.length - 3; i < limit; i += 4) {
+			m0 = Math.max(m0, array[i]);
+			m1 = Math.max(m1, array[i + 1]);
+			m2 = Math.max(m2, array[i + 2]);
+			m3 = Math.max(m3, array[i + 3]);
+		}
+		for (; i < array.length; i++) {
+			m0 = Math.max(m0, array[i]);
+		}
+
+		return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+	}
+
+	/**
+	 * @see #max(double[])
+	 */
+	public static float max(float[] array) {
+
+		float m0 = Float.NEGATIVE_INFINITY;
+		float m1 = m0;
+		float m2 = m0;
+		float m3 = m0;
+
+		int i = 0;
+		for (int limit = array.length - 3; i < limit; i += 4) {
+			m0 = Math.max(m0, array[i]);
+			m1 = Math.max(m1, array[i + 1]);
+			m2 = Math.max(m2, array[i + 2]);
+			m3 = Math.max(m3, array[i + 3]);
+		}
+		for (; i < array.length; i++) {
+			m0 = Math.max(m0, array[i]);
+		}
+
+		return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+	}
+
+	/**
+	 * Returns the sum of the squares of all the elements of {@code array}
+	 * 
+	 * @param array
+	 *            The array to sum up
+	 * @return The sum of the squares of all the elements of {@code array}
+	 */
+	public static double sumOfSquares(double[] array) {
+
+		double s0 = 0;
+		double s1 = 0;
+		double s2 = 0;
+		double s3 = 0;
+
+		int i = 0;
+		for (int limit = array.length - 3; i < limit; i += 4) {
+			s0 += array[i] * array[i];
+			s1 += array[i + 1] * array[i + 1];
+			s2 += array[i + 2] * array[i + 2];
+			s3 += array[i + 3] * array[i + 3];
+		}
+		for (; i < array.length; i++) {
+			s0 += array[i] * array[i];
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Returns the sum of the squares of all the elements of {@code array},
+	 * accumulated in double precision
+	 * 
+	 * @see #sumOfSquares(double[])
+	 */
+	public static double sumOfSquares(float[] array) {
+
+		double s0 = 0;
+		double s1 = 0;
+		double s2 = 0;
+		double s3 = 0;
+
+		int i = 0;
+		for (int limit = array.length - 3; i < limit; i += 4) {
+			s0 += array[i] * array[i];
+			s1 += array[i + 1] * array[i + 1];
+			s2 += array[i + 2] * array[i + 2];
+			s3 += array[i + 3] * array[i + 3];
+		}
+		for (; i < array.length; i++) {
+			s0 += array[i] * array[i];
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
 	/**
 	 * Divide each element of {@code array} by the array's max element value
 	 * 
@@ -25,9 +144,18 @@ public final class ArrayTool {
 	 *            The array to perform the division operation on
 	 */
 	public static void divideByMax(double[] array) {
-		Arrays.stream(array).max().ifPresent(max -> {
-			divideBy(array, max);
-		});
+		if (array.length > 0) {
+			divideBy(array, max(array));
+		}
+	}
+
+	/**
+	 * @see #divideByMax(double[])
+	 */
+	public static void divideByMax(float[] array) {
+		if (array.length > 0) {
+			divideBy(array, max(array));
+		}
 	}
 
 	/**
@@ -38,8 +166,14 @@ public final class ArrayTool {
 	 *            The array to perform the division operation on
 	 */
 	public static void divideByNorm(double[] array) {
-		double norm = Arrays.stream(array).map(a -> a * a).sum();
-		divideBy(array, norm);
+		divideBy(array, sumOfSquares(array));
+	}
+
+	/**
+	 * @see #divideByNorm(double[])
+	 */
+	public static void divideByNorm(float[] array) {
+		divideBy(array, sumOfSquares(array));
 	}
 
 	private static void divideBy(double[] array, double denominator) {
@@ -50,6 +184,15 @@ public final class ArrayTool {
 		}
 	}
 
+	private static void divideBy(float[] array, double denominator) {
+		if (Double.compare(0, denominator) != 0) {
+			float d = (float) denominator;
+			for (int i = 0; i < array.length; i++) {
+				array[i] /= d;
+			}
+		}
+	}
+
 	/**
 	 * Returns the averages of the elements of all the arrays at the same indice
 	 * 
@@ -65,13 +208,46 @@ public final class ArrayTool {
 
 		double[] columnMeans = new double[cols];
 
-		for (int col = 0; col < cols; col++) {
-			double sum = 0;
+		for (int from = 0; from < cols; from += BLOCK) {
+			int to = Math.min(from + BLOCK, cols);
+			for (int row = 0; row < rows; row++) {
+				double[] array = arrays[row];
+				for (int col = from; col < to; col++) {
+					columnMeans[col] += array[col];
+				}
+			}
+		}
+
+		divideBy(columnMeans, rows);
+		return columnMeans;
+	}
+
+	/**
+	 * Returns the averages of the elements of all the arrays at the same indice,
+	 * accumulated in double precision
+	 * 
+	 * @see #findCrossMeans(double[][])
+	 */
+	public static float[] findCrossMeans(float[][] arrays) {
+
+		int rows = arrays.length;
+		int cols = arrays[0].length;
+
+		float[] columnMeans = new float[cols];
+		double[] sums = new double[Math.min(BLOCK, cols)];
+
+		for (int from = 0; from < cols; from += BLOCK) {
+			int to = Math.min(from + BLOCK, cols);
+			Arrays.fill(sums, 0);
 			for (int row = 0; row < rows; row++) {
-				sum += arrays[row][col];
+				float[] array = arrays[row];
+				for (int col = from; col < to; col++) {
+					sums[col - from] += array[col];
+				}
+			}
+			for (int col = from; col < to; col++) {
+				columnMeans[col] = (float) (sums[col - from] / rows);
 			}
-			double mean = sum / rows;
-			columnMeans[col] = mean;
 		}
 
 		return columnMeans;
@@ -87,14 +263,17 @@ public final class ArrayTool {
 	 *            Each elements represents the column mean of {@code arrays}
 	 */
 	public static void minusCrossMeans(double[][] arrays, double[] crossMeans) {
+		for (double[] array : arrays) {
+			minusCrossMeans(array, crossMeans);
+		}
+	}
 
-		int rows = arrays.length;
-		int cols = arrays[0].length;
-
-		for (int row = 0; row < rows; row++) {
-			for (int col = 0; col < cols; col++) {
-				arrays[row][col] -= crossMeans[col];
-			}
+	/**
+	 * @see #minusCrossMeans(double[][], double[])
+	 */
+	public static void minusCrossMeans(float[][] arrays, float[] crossMeans) {
+		for (float[] array : arrays) {
+			minusCrossMeans(array, crossMeans);
 		}
 	}
 
@@ -111,4 +290,119 @@ public final class ArrayTool {
 			array[i] -= means[i];
 		}
 	}
+
+	/**
+	 * @see #minusCrossMeans(double[], double[])
+	 */
+	public static void minusCrossMeans(float[] array, float[] means) {
+		for (int i = 0; i < array.length; i++) {
+			array[i] -= means[i];
+		}
+	}
+
+	/**
+	 * Divides each element of {@code array} by the array's max element value and
+	 * subtracts its cross mean, in one pass after finding the max.
+	 * <p>
+	 * This is {@link #divideByMax(double[])} followed by
+	 * {@link #minusCrossMeans(double[], double[])}, except that it multiplies by
+	 * the reciprocal of the max, so the results may differ in the last bit.
+	 * 
+	 * @param array
+	 *            The array to normalize and center
+	 * @param crossMeans
+	 *            The cross means of the normalized training arrays
+	 */
+	public static void normalizeAndCenter(double[] array, double[] crossMeans) {
+
+		double max = array.length > 0 ? max(array) : 0;
+		double scale = Double.compare(0, max) != 0 ? 1 / max : 1;
+
+		for (int i = 0; i < array.length; i++) {
+			array[i] = array[i] * scale - crossMeans[i];
+		}
+	}
+
+	/**
+	 * @see #normalizeAndCenter(double[], double[])
+	 */
+	public static void normalizeAndCenter(float[] array, float[] crossMeans) {
+
+		float max = array.length > 0 ? max(array) : 0;
+		float scale = Float.compare(0, max) != 0 ? 1 / max : 1;
+
+		for (int i = 0; i < array.length; i++) {
+			array[i] = array[i] * scale - crossMeans[i];
+		}
+	}
+
+	/**
+	 * Divides each of {@code arrays} by its max element value and subtracts the
+	 * cross means of the results, returning those cross means.
+	 * <p>
+	 * The division is fused with the accumulation of the means, so that each
+	 * array is read three times instead of five: once for its max, once to scale
+	 * and sum it up, and once to center it.
+	 * 
+	 * @param arrays
+	 *            A non-empty 2D double array, requiring all arrays have the same
+	 *            length
+	 * @return The cross means of the normalized arrays
+	 * @see #normalizeAndCenter(double[], double[])
+	 */
+	public static double[] normalizeAndCenter(double[][] arrays) {
+
+		int rows = arrays.length;
+		double[] crossMeans = new double[arrays[0].length];
+
+		for (double[] array : arrays) {
+
+			double max = array.length > 0 ? max(array) : 0;
+			double scale = Double.compare(0, max) != 0 ? 1 / max : 1;
+
+			for (int i = 0; i < array.length; i++) {
+				double value = array[i] * scale;
+				array[i] = value;
+				crossMeans[i] += value;
+			}
+		}
+
+		divideBy(crossMeans, rows);
+		minusCrossMeans(arrays, crossMeans);
+
+		return crossMeans;
+	}
+
+	/**
+	 * Divides each of {@code arrays} by its max element value and subtracts the
+	 * cross means of the results, returning those cross means
+	 * 
+	 * @see #normalizeAndCenter(double[][])
+	 */
+	public static float[] normalizeAndCenter(float[][] arrays) {
+
+		int rows = arrays.length;
+		int cols = arrays[0].length;
+		double[] sums = new double[cols];
+
+		for (float[] array : arrays) {
+
+			float max = array.length > 0 ? max(array) : 0;
+			float scale = Float.compare(0, max) != 0 ? 1 / max : 1;
+
+			for (int i = 0; i < array.length; i++) {
+				float value = array[i] * scale;
+				array[i] = value;
+				sums[i] += value;
+			}
+		}
+
+		float[] crossMeans = new float[cols];
+		for (int i = 0; i < cols; i++) {
+			crossMeans[i] = (float) (sums[i] / rows);
+		}
+
+		minusCrossMeans(arrays, crossMeans);
+		return crossMeans;
+	}
 }
@@ -0,0 +1,560 @@
+package han.cloud.ai.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * A kernel turning an image, or a region of it, into a gray face of standard
+ * size in a single pass.
+ *
+ * <p>
+ * Like {@link ImageTool#grayAndResizeTo(BufferedImage, int, int)}, the source
+ * is scaled bilinearly so that it covers the target size, then the center is
+ * cropped. The gray conversion, the scaling and the crop are fused: each target
+ * pixel is blended from the gray values of its four source neighbors, read
+ * straight from the source's backing array. The sample positions and weights
+ * depend only on the source and target sizes, and are cached per pair of
+ * sizes.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceNormalizer {
+
+	/*
+	 * Which source columns and rows each target pixel is blended from, and how
+	 */
+	private static final class Plan {
+
+		private final int[] x0;
+		private final int[] x1;
+		private final float[] wx;
+
+		private final int[] y0;
+		private final int[] y1;
+		private final float[] wy;
+
+		private Plan(int sourceWidth, int sourceHeight, int width, int height) {
+
+			double scale = Math.max(width / (double) sourceWidth, height / (double) sourceHeight);
+
+			int scaledWidth = (int) Math.round(sourceWidth * scale);
+			int scaledHeight = (int) Math.round(sourceHeight * scale);
+
+			x0 = new int[width];
+			x1 = new int[width];
+			wx = new float[width];
+			axis(sourceWidth, scaledWidth, (scaledWidth - width) / 2, x0, x1, wx);
+
+			y0 = new int[height];
+			y1 = new int[height];
+			wy = new float[height];
+			axis(sourceHeight, scaledHeight, (scaledHeight - height) / 2, y0, y1, wy);
+		}
+
+		private static void axis(int source, int scaled, int offset, int[] lower, int[] upper, float[] weights) {
+
+			double ratio = source / (double) scaled;
+
+			for (int i = 0; i < lower.length; i++) {
+
+				double position = (i + offset + 0.5) * ratio - 0.5;
+				position = Math.max(0, Math.min(source - 1, position));
+
+				int low = (int) position;
+				lower[i] = low;
+				upper[i] = Math.min(low + 1, source - 1);
+				weights[i] = (float) (position - low);
+			}
+		}
+	}
+
+	/*
+	 * Reads the gray values of the needed columns of one source row, in the gray
+	 * of Java2D, or of a whole row, in the gray of OpenCV
+	 */
+	private static abstract class Source {
+
+		final int left;
+		final int top;
+
+		Source(int left, int top) {
+			this.left = left;
+			this.top = top;
+		}
+
+		abstract void row(int y, int[] x0, int[] x1, int[] lower, int[] upper);
+
+		abstract void row(int y, int width, int[] gray);
+	}
+
+	private static final class ByteGraySource extends Source {
+
+		private final byte[] data;
+		private final int offset;
+		private final int scanline;
+
+		ByteGraySource(Raster raster, ComponentSampleModel model, int left, int top) {
+			super(left, top);
+			this.data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			this.scanline = model.getScanlineStride();
+			this.offset = pixelOffset(raster, scanline, 1) + model.getBandOffsets()[0];
+		}
+
+		@Override
+		void row(int y, int[] x0, int[] x1, int[] lower, int[] upper) {
+			int start = offset + (top + y) * scanline + left;
+			for (int i = 0; i < x0.length; i++) {
+				lower[i] = data[start + x0[i]] & 0xFF;
+				upper[i] = data[start + x1[i]] & 0xFF;
+			}
+		}
+
+		@Override
+		void row(int y, int width, int[] gray) {
+			int start = offset + (top + y) * scanline + left;
+			for (int i = 0; i < width; i++) {
+				gray[i] = data[start + i] & 0xFF;
+			}
+		}
+	}
+
+	private static final class ByteColorSource extends Source {
+
+		private final byte[] data;
+		private final int offset;
+		private final int scanline;
+		private final int pixelStride;
+		private final int red;
+		private final int green;
+		private final int blue;
+
+		ByteColorSource(Raster raster, ComponentSampleModel model, int left, int top) {
+			super(left, top);
+			this.data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			this.scanline = model.getScanlineStride();
+			this.pixelStride = model.getPixelStride();
+			this.offset = pixelOffset(raster, scanline, pixelStride);
+			int[] bands = model.getBandOffsets();
+			this.red = bands[0];
+			this.green = bands[1];
+			this.blue = bands[2];
+		}
+
+		@Override
+		void row(int y, int[] x0, int[] x1, int[] lower, int[] upper) {
+			int start = offset + (top + y) * scanline + left * pixelStride;
+			for (int i = 0; i < x0.length; i++) {
+				lower[i] = gray(start + x0[i] * pixelStride);
+				upper[i] = gray(start + x1[i] * pixelStride);
+			}
+		}
+
+		@Override
+		void row(int y, int width, int[] gray) {
+			int start = offset + (top + y) * scanline + left * pixelStride;
+			for (int i = 0; i < width; i++) {
+				int index = start + i * pixelStride;
+				gray[i] = cvLuma(data[index + red] & 0xFF, data[index + green] & 0xFF, data[index + blue] & 0xFF);
+			}
+		}
+
+		private int gray(int index) {
+			return luma(data[index + red] & 0xFF, data[index + green] & 0xFF, data[index + blue] & 0xFF);
+		}
+	}
+
+	private static final class IntRgbSource extends Source {
+
+		private final int[] data;
+		private final int offset;
+		private final int scanline;
+
+		IntRgbSource(Raster raster, SinglePixelPackedSampleModel model, int left, int top) {
+			super(left, top);
+			this.data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			this.scanline = model.getScanlineStride();
+			this.offset = pixelOffset(raster, scanline, 1);
+		}
+
+		@Override
+		void row(int y, int[] x0, int[] x1, int[] lower, int[] upper) {
+			int start = offset + (top + y) * scanline + left;
+			for (int i = 0; i < x0.length; i++) {
+				lower[i] = gray(data[start + x0[i]]);
+				upper[i] = gray(data[start + x1[i]]);
+			}
+		}
+
+		@Override
+		void row(int y, int width, int[] gray) {
+			int start = offset + (top + y) * scanline + left;
+			for (int i = 0; i < width; i++) {
+				gray[i] = cvGray(data[start + i]);
+			}
+		}
+
+		private static int gray(int rgb) {
+			return luma((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+		}
+
+		private static int cvGray(int rgb) {
+			return cvLuma((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+		}
+	}
+
+	private static final class GenericSource extends Source {
+
+		private final BufferedImage image;
+
+		GenericSource(BufferedImage image, int left, int top) {
+			super(left, top);
+			this.image = image;
+		}
+
+		@Override
+		void row(int y, int[] x0, int[] x1, int[] lower, int[] upper) {
+			for (int i = 0; i < x0.length; i++) {
+				lower[i] = IntRgbSource.gray(image.getRGB(left + x0[i], top + y));
+				upper[i] = IntRgbSource.gray(image.getRGB(left + x1[i], top + y));
+			}
+		}
+
+		@Override
+		void row(int y, int width, int[] gray) {
+			for (int i = 0; i < width; i++) {
+				gray[i] = IntRgbSource.cvGray(image.getRGB(left + i, top + y));
+			}
+		}
+	}
+
+	private static final class BufferGraySource extends Source {
+
+		private final ByteBuffer data;
+		private final int stride;
+
+		BufferGraySource(ByteBuffer data, int stride, int left, int top) {
+			super(left, top);
+			this.data = data;
+			this.stride = stride;
+		}
+
+		@Override
+		void row(int y, int[] x0, int[] x1, int[] lower, int[] upper) {
+			int start = (top + y) * stride + left;
+			for (int i = 0; i < x0.length; i++) {
+				lower[i] = data.get(start + x0[i]) & 0xFF;
+				upper[i] = data.get(start + x1[i]) & 0xFF;
+			}
+		}
+
+		@Override
+		void row(int y, int width, int[] gray) {
+			int start = (top + y) * stride + left;
+			for (int i = 0; i < width; i++) {
+				gray[i] = data.get(start + i) & 0xFF;
+			}
+		}
+	}
+
+	/*
+	 * Per-thread rows of gray values, so that normalizing allocates nothing
+	 */
+	private static final class Scratch {
+
+		private int[] a0 = new int[0];
+		private int[] a1 = new int[0];
+		private int[] b0 = new int[0];
+		private int[] b1 = new int[0];
+		private float[] row = new float[0];
+		private byte[] bytes = new byte[0];
+
+		private void ensure(int width) {
+			if (a0.length < width) {
+				a0 = new int[width];
+				a1 = new int[width];
+				b0 = new int[width];
+				b1 = new int[width];
+				row = new float[width];
+				bytes = new byte[width];
+			}
+		}
+	}
+
+	private static final int MAX_PLANS = 1024;
+	private static final Map<Long, Plan> PLANS = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private FaceNormalizer() {
+	}
+
+	/**
+	 * Returns {@code image} as a gray face of standard size, one byte per pixel,
+	 * row by row
+	 *
+	 * @param image
+	 *            The image to be normalized
+	 * @return The gray pixels of the normalized face
+	 */
+	public static byte[] normalize(BufferedImage image) {
+		return normalize(image, null, new byte[FaceConstants.columns], FaceConstants.FACE_WIDTH,
+				FaceConstants.FACE_HEIGHT);
+	}
+
+	/**
+	 * Normalizes {@code region} of {@code image} into {@code target}
+	 *
+	 * @param image
+	 *            The image containing the face
+	 * @param region
+	 *            The region of the face in {@code image}; null for the whole image
+	 * @param target
+	 *            The array to hold the {@code width * height} gray pixels, row by
+	 *            row
+	 * @param width
+	 *            The width of the normalized face
+	 * @param height
+	 *            The height of the normalized face
+	 * @return {@code target}
+	 * @throws IllegalArgumentException
+	 *             if the region is empty or not inside {@code image}
+	 */
+	public static byte[] normalize(BufferedImage image, Rectangle region, byte[] target, int width, int height) {
+
+		Scratch scratch = SCRATCH.get();
+		Plan plan = prepare(image.getWidth(), image.getHeight(), region, width, height, scratch);
+		Source source = sourceOf(image, region);
+
+		run(source, plan, scratch, target, null);
+		return target;
+	}
+
+	/**
+	 * Normalizes {@code region} of a gray image held in a buffer, such as a
+	 * decoded {@code Mat}, into {@code target}
+	 *
+	 * @param gray
+	 *            The gray pixels of the image, one byte each, starting at index 0
+	 * @param imageWidth
+	 *            The width of the image
+	 * @param imageHeight
+	 *            The height of the image
+	 * @param stride
+	 *            The distance between the starts of two rows in {@code gray}
+	 * @param region
+	 *            The region of the face in the image; null for the whole image
+	 * @param target
+	 *            The array to hold the {@code width * height} gray pixels, row by
+	 *            row
+	 * @param width
+	 *            The width of the normalized face
+	 * @param height
+	 *            The height of the normalized face
+	 * @return {@code target}
+	 * @throws IllegalArgumentException
+	 *             if the region is empty or not inside the image
+	 */
+	public static byte[] normalize(ByteBuffer gray, int imageWidth, int imageHeight, int stride, Rectangle region,
+			byte[] target, int width, int height) {
+
+		Scratch scratch = SCRATCH.get();
+		Plan plan = prepare(imageWidth, imageHeight, region, width, height, scratch);
+		Source source = region == null //
+				? new BufferGraySource(gray, stride, 0, 0) //
+				: new BufferGraySource(gray, stride, region.x, region.y);
+
+		run(source, plan, scratch, target, null);
+		return target;
+	}
+
+	/**
+	 * Normalizes {@code region} of {@code image} into {@code target}, keeping the
+	 * fractions of the interpolation
+	 *
+	 * @see #normalize(BufferedImage, Rectangle, byte[], int, int)
+	 */
+	public static float[] normalize(BufferedImage image, Rectangle region, float[] target, int width, int height) {
+
+		Scratch scratch = SCRATCH.get();
+		Plan plan = prepare(image.getWidth(), image.getHeight(), region, width, height, scratch);
+		Source source = sourceOf(image, region);
+
+		run(source, plan, scratch, null, target);
+		return target;
+	}
+
+	/**
+	 * Normalizes each of {@code images} in parallel
+	 *
+	 * @param images
+	 *            The images to be normalized
+	 * @return The gray pixels of each normalized face, in the order of
+	 *         {@code images}
+	 */
+	public static List<byte[]> normalizeAll(List<BufferedImage> images) {
+		return images.parallelStream() //
+				.map(FaceNormalizer::normalize) //
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Writes {@code image} in gray, one byte per pixel, into {@code target}
+	 * without scaling it
+	 * <p>
+	 * This is how the detector gets its gray image straight from a
+	 * {@link BufferedImage}, without an intermediate color image. Unlike the
+	 * faces normalized by this class, the gray levels are those of OpenCV's
+	 * {@code cvtColor} from BGR to gray, which the Haar cascade was run on.
+	 * 
+	 * @param image
+	 *            The image to be converted
+	 * @param target
+	 *            The buffer to write the rows to, starting at its position 0
+	 * @param stride
+	 *            The distance between the starts of two rows in {@code target}, at
+	 *            least the width of {@code image}
+	 * @return {@code target}
+	 */
+	public static ByteBuffer gray(BufferedImage image, ByteBuffer target, int stride) {
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		Scratch scratch = SCRATCH.get();
+		scratch.ensure(width);
+		Source source = sourceOf(image, null);
+
+		int[] gray = scratch.a0;
+		byte[] bytes = scratch.bytes;
+		ByteBuffer rows = target.duplicate();
+
+		for (int y = 0; y < height; y++) {
+			source.row(y, width, gray);
+			for (int x = 0; x < width; x++) {
+				bytes[x] = (byte) gray[x];
+			}
+			((Buffer) rows).position(y * stride);
+			rows.put(bytes, 0, width);
+		}
+
+		return target;
+	}
+
+	private static void run(Source source, Plan plan, Scratch scratch, byte[] bytes, float[] floats) {
+
+		int width = plan.x0.length;
+		float[] row = scratch.row;
+
+		for (int y = 0; y < plan.y0.length; y++) {
+
+			source.row(plan.y0[y], plan.x0, plan.x1, scratch.a0, scratch.a1);
+			source.row(plan.y1[y], plan.x0, plan.x1, scratch.b0, scratch.b1);
+
+			float fy = plan.wy[y];
+
+			for (int x = 0; x < width; x++) {
+				float fx = plan.wx[x];
+				float top = scratch.a0[x] + (scratch.a1[x] - scratch.a0[x]) * fx;
+				float bottom = scratch.b0[x] + (scratch.b1[x] - scratch.b0[x]) * fx;
+				row[x] = top + (bottom - top) * fy;
+			}
+
+			int offset = y * width;
+			if (bytes != null) {
+				for (int x = 0; x < width; x++) {
+					bytes[offset + x] = (byte) (int) (row[x] + 0.5f);
+				}
+			} else {
+				System.arraycopy(row, 0, floats, offset, width);
+			}
+		}
+	}
+
+	private static Plan prepare(int imageWidth, int imageHeight, Rectangle region, int width, int height,
+			Scratch scratch) {
+
+		int sourceWidth = region == null ? imageWidth : region.width;
+		int sourceHeight = region == null ? imageHeight : region.height;
+
+		if (sourceWidth <= 0 || sourceHeight <= 0) {
+			throw new IllegalArgumentException("Cannot normalize an empty image");
+		}
+
+		if (region != null && !new Rectangle(imageWidth, imageHeight).contains(region)) {
+			throw new IllegalArgumentException(region + " is not inside the image");
+		}
+
+		scratch.ensure(width);
+
+		long key = ((long) sourceWidth << 48) | ((long) sourceHeight << 32) | ((long) width << 16) | height;
+		Plan plan = PLANS.get(key);
+
+		if (plan == null) {
+			if (PLANS.size() >= MAX_PLANS) {
+				PLANS.clear();
+			}
+			plan = new Plan(sourceWidth, sourceHeight, width, height);
+			PLANS.put(key, plan);
+		}
+
+		return plan;
+	}
+
+	private static Source sourceOf(BufferedImage image, Rectangle region) {
+
+		int left = region == null ? 0 : region.x;
+		int top = region == null ? 0 : region.y;
+
+		Raster raster = image.getRaster();
+
+		if (raster.getDataBuffer() instanceof DataBufferByte && raster.getSampleModel() instanceof ComponentSampleModel) {
+
+			ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+
+			if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+				return new ByteGraySource(raster, model, left, top);
+			}
+
+			if (image.getType() == BufferedImage.TYPE_3BYTE_BGR || image.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+				return new ByteColorSource(raster, model, left, top);
+			}
+		}
+
+		if (raster.getDataBuffer() instanceof DataBufferInt
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+				&& (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+			return new IntRgbSource(raster, (SinglePixelPackedSampleModel) raster.getSampleModel(), left, top);
+		}
+
+		return new GenericSource(image, left, top);
+	}
+
+	// Where the first pixel of the raster starts in its data array, before any
+	// band offset
+	private static int pixelOffset(Raster raster, int scanline, int pixelStride) {
+		return raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * scanline
+				- raster.getSampleModelTranslateX() * pixelStride;
+	}
+
+	// The weights Java2D uses when drawing color into a gray image
+	private static int luma(int red, int green, int blue) {
+		return (77 * red + 150 * green + 29 * blue + 128) >> 8;
+	}
+
+	// The fixed-point weights OpenCV converts 8-bit BGR to gray with
+	private static int cvLuma(int red, int green, int blue) {
+		return (4899 * red + 9617 * green + 1868 * blue + (1 << 13)) >> 14;
+	}
+}
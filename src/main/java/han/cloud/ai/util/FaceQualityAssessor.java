@@ -0,0 +1,298 @@
+package han.cloud.ai.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import han.cloud.ai.metrics.FaceMetrics;
+import han.cloud.ai.metrics.Stage;
+import han.cloud.ai.model.FaceQuality;
+
+/**
+ * <p>
+ * This class scores detected faces, so that those too blurred, too small or
+ * too badly exposed to ever match can be skipped before recognition.
+ *
+ * <p>
+ * A face is scored on its gray pixels in standard size, in pure Java and in two
+ * passes: the variance of its Laplacian measures its sharpness, and its gray
+ * level histogram its exposure. Its size is that of its region in the photo
+ * relative to the standard face size, since a face normalized from a tiny
+ * region is mostly interpolation. A face is acceptable when all three reach the
+ * minimums of the assessor.
+ *
+ * <p>
+ * An assessor is immutable and can be shared by any number of threads.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class FaceQualityAssessor {
+
+	/**
+	 * Scores every face but rejects none
+	 */
+	public static final FaceQualityAssessor ANY = new FaceQualityAssessor(0, 0, 0);
+
+	/**
+	 * Rejects the faces whose Laplacian variance is below 40, whose region is
+	 * under a third of the standard size, or whose exposure is below 0.2
+	 */
+	public static final FaceQualityAssessor DEFAULT = new FaceQualityAssessor(40, 1 / 3.0, 0.2);
+
+	// The sharpness scoring 0.5 in the overall score
+	private static final double SHARPNESS_MIDPOINT = 100;
+
+	// Gray levels at or beyond which a pixel counts as clipped
+	private static final int DARK = 8;
+	private static final int BRIGHT = 247;
+
+	// The range of the middle 90% of the gray levels below which contrast lowers
+	// the exposure
+	private static final int FULL_RANGE = 64;
+
+	/*
+	 * The buffers a thread scores its faces with
+	 */
+	private static final class Scratch {
+
+		private final int[] histogram = new int[256];
+		private final byte[] face = new byte[FaceConstants.columns];
+		private final ByteBuffer buffer = ByteBuffer.wrap(face);
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private final double minSharpness;
+	private final double minSize;
+	private final double minExposure;
+
+	private FaceQualityAssessor(double minSharpness, double minSize, double minExposure) {
+		this.minSharpness = minSharpness;
+		this.minSize = minSize;
+		this.minExposure = minExposure;
+	}
+
+	/**
+	 * Returns an assessor with the minimums of this one but the sharpness
+	 *
+	 * @param sharpness
+	 *            The minimal variance of the Laplacian of an acceptable face
+	 * @return A new assessor
+	 */
+	public FaceQualityAssessor withMinSharpness(double sharpness) {
+		if (sharpness < 0) {
+			throw new IllegalArgumentException("The minimal sharpness must not be negative: " + sharpness);
+		}
+		return new FaceQualityAssessor(sharpness, minSize, minExposure);
+	}
+
+	/**
+	 * Returns an assessor with the minimums of this one but the size
+	 *
+	 * @param size
+	 *            The minimal size of an acceptable face relative to the standard
+	 *            face size, from 0 to 1
+	 * @return A new assessor
+	 */
+	public FaceQualityAssessor withMinSize(double size) {
+		if (size < 0 || size > 1) {
+			throw new IllegalArgumentException("The minimal size must be from 0 to 1: " + size);
+		}
+		return new FaceQualityAssessor(minSharpness, size, minExposure);
+	}
+
+	/**
+	 * Returns an assessor with the minimums of this one but the exposure
+	 *
+	 * @param exposure
+	 *            The minimal exposure of an acceptable face, from 0 to 1
+	 * @return A new assessor
+	 */
+	public FaceQualityAssessor withMinExposure(double exposure) {
+		if (exposure < 0 || exposure > 1) {
+			throw new IllegalArgumentException("The minimal exposure must be from 0 to 1: " + exposure);
+		}
+		return new FaceQualityAssessor(minSharpness, minSize, exposure);
+	}
+
+	/**
+	 * Scores a gray face in standard size
+	 *
+	 * @param face
+	 *            The pixels of the face, row by row
+	 * @param region
+	 *            The region the face was normalized from, in the coordinates of
+	 *            the photo; null if unknown, in which case the size is not scored
+	 * @return The quality of the face
+	 */
+	public FaceQuality assess(byte[] face, Rectangle region) {
+		return assess(face, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT, region);
+	}
+
+	/**
+	 * Scores a face image, such as one about to be recognized, whose own size is
+	 * scored as that of its region
+	 *
+	 * @param face
+	 *            The face
+	 * @return The quality of the face
+	 * @see #assess(BufferedImage, Rectangle)
+	 */
+	public FaceQuality assess(BufferedImage face) {
+		return assess(face, new Rectangle(face.getWidth(), face.getHeight()));
+	}
+
+	/**
+	 * Scores a face image cut from a photo
+	 * <p>
+	 * A gray face in standard size is read as is; any other image, including a
+	 * color face in standard size, is normalized first.
+	 *
+	 * @param face
+	 *            The face
+	 * @param region
+	 *            The region the face was cut from, in the coordinates of the
+	 *            photo; null if unknown, in which case the size is not scored
+	 * @return The quality of the face
+	 */
+	public FaceQuality assess(BufferedImage face, Rectangle region) {
+
+		Scratch scratch = SCRATCH.get();
+		byte[] pixels = scratch.face;
+
+		if (face.getType() == BufferedImage.TYPE_BYTE_GRAY && face.getWidth() == FaceConstants.FACE_WIDTH
+				&& face.getHeight() == FaceConstants.FACE_HEIGHT) {
+			scratch.buffer.clear();
+			ImageTool.copyGrayBytes(face, scratch.buffer);
+		} else {
+			FaceNormalizer.normalize(face, null, pixels, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
+		}
+
+		return assess(pixels, region);
+	}
+
+	/**
+	 * Scores a gray face of any size
+	 *
+	 * @param face
+	 *            The pixels of the face, row by row
+	 * @param width
+	 *            The width of the face
+	 * @param height
+	 *            The height of the face
+	 * @param region
+	 *            The region the face was normalized from, in the coordinates of
+	 *            the photo; null if unknown, in which case the size is not scored
+	 * @return The quality of the face
+	 */
+	public FaceQuality assess(byte[] face, int width, int height, Rectangle region) {
+
+		if (face.length < width * height) {
+			throw new IllegalArgumentException("Expected " + width * height + " pixels but got " + face.length);
+		}
+
+		long start = FaceMetrics.start();
+
+		double sharpness = laplacianVariance(face, width, height);
+		double size = region == null ? 1
+				: Math.min(1, Math.min(region.width / (double) FaceConstants.FACE_WIDTH,
+						region.height / (double) FaceConstants.FACE_HEIGHT));
+		double exposure = exposure(face, width * height);
+
+		double score = Math.cbrt(sharpness / (sharpness + SHARPNESS_MIDPOINT) * size * exposure);
+		boolean acceptable = sharpness >= minSharpness && size >= minSize && exposure >= minExposure;
+
+		FaceMetrics.stop(Stage.QUALITY, start);
+
+		return new FaceQuality(sharpness, size, exposure, score, acceptable);
+	}
+
+	// The variance of the 4-neighbour Laplacian over the interior of the face
+	private static double laplacianVariance(byte[] face, int width, int height) {
+
+		if (width < 3 || height < 3) {
+			return 0;
+		}
+
+		long sum = 0;
+		long squares = 0;
+
+		for (int y = 1; y < height - 1; y++) {
+			int row = y * width;
+			for (int x = 1; x < width - 1; x++) {
+				int i = row + x;
+				int laplacian = 4 * (face[i] & 0xFF) - (face[i - 1] & 0xFF) - (face[i + 1] & 0xFF)
+						- (face[i - width] & 0xFF) - (face[i + width] & 0xFF);
+				sum += laplacian;
+				squares += laplacian * laplacian;
+			}
+		}
+
+		double n = (width - 2) * (double) (height - 2);
+		double mean = sum / n;
+		return squares / n - mean * mean;
+	}
+
+	/*
+	 * The product of the share of pixels not clipped, the closeness of the mean
+	 * to mid gray and the contrast, each from 0 to 1
+	 */
+	private static double exposure(byte[] face, int pixels) {
+
+		int[] histogram = SCRATCH.get().histogram;
+		Arrays.fill(histogram, 0);
+
+		long sum = 0;
+		for (int i = 0; i < pixels; i++) {
+			int level = face[i] & 0xFF;
+			histogram[level]++;
+			sum += level;
+		}
+
+		int clipped = 0;
+		for (int level = 0; level <= DARK; level++) {
+			clipped += histogram[level];
+		}
+		for (int level = BRIGHT; level < 256; level++) {
+			clipped += histogram[level];
+		}
+
+		double mean = sum / (double) pixels;
+		int range = percentile(histogram, pixels * 0.95) - percentile(histogram, pixels * 0.05);
+
+		return (1 - clipped / (double) pixels) * (1 - Math.abs(mean - 127.5) / 127.5)
+				* Math.min(1, range / (double) FULL_RANGE);
+	}
+
+	// The lowest gray level with at least count pixels at or below it
+	private static int percentile(int[] histogram, double count) {
+		int seen = 0;
+		for (int level = 0; level < 256; level++) {
+			seen += histogram[level];
+			if (seen >= count) {
+				return level;
+			}
+		}
+		return 255;
+	}
+
+	public double getMinSharpness() {
+		return minSharpness;
+	}
+
+	public double getMinSize() {
+		return minSize;
+	}
+
+	public double getMinExposure() {
+		return minExposure;
+	}
+
+	@Override
+	public String toString() {
+		return "FaceQualityAssessor [minSharpness=" + minSharpness + ", minSize=" + minSize + ", minExposure="
+				+ minExposure + "]";
+	}
+}
@@ -0,0 +1,227 @@
+package han.cloud.ai.util;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+import static org.bytedeco.javacpp.opencv_imgcodecs.IMREAD_GRAYSCALE;
+import static org.bytedeco.javacpp.opencv_imgcodecs.imdecode;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+
+/**
+ * <p>
+ * This class decodes encoded images, such as JPEG or PNG bytes, straight into
+ * gray with OpenCV's {@code imdecode}, without going through
+ * {@link javax.imageio.ImageIO} and a color {@link java.awt.image.BufferedImage}.
+ *
+ * <p>
+ * The image may be reduced to 1/2, 1/4 or 1/8 of its size right after it is
+ * decoded, averaging the pixels it drops, when it is going to be scaled down
+ * anyway. The {@code IMREAD_REDUCED_GRAYSCALE} flags would let JPEG decode at
+ * the reduced size directly, but the {@code imdecode} of the bundled OpenCV
+ * ignores them. Each thread decodes into its own native buffers, which are kept
+ * from one call to the next: the {@link Mat} and {@link IplImage} returned are
+ * only valid until the next decode on the same thread and must not be released
+ * by the caller.
+ *
+ * @author Jiayun Han
+ *
+ */
+public final class GrayDecoder {
+
+	/*
+	 * The native buffers a thread decodes with
+	 */
+	private static final class Scratch {
+
+		private final Mat full = new Mat();
+		private final Mat gray = new Mat();
+		private final Size none = new Size();
+		private BytePointer encoded = new BytePointer(0L);
+
+		private IplImage intel;
+		private long intelData;
+		private int intelWidth;
+		private int intelHeight;
+
+		private Mat decode(ByteBuffer source, int reduction) {
+
+			checkReduction(reduction);
+
+			BytePointer pointer;
+
+			if (source.isDirect()) {
+				pointer = new BytePointer(source);
+			} else {
+				int length = source.remaining();
+				if (encoded.capacity() < length) {
+					encoded.close();
+					encoded = new BytePointer(Math.max(length, 2 * encoded.capacity()));
+				}
+				byte[] array = source.array();
+				encoded.position(0).put(array, source.arrayOffset() + source.position(), length);
+				pointer = encoded.position(0);
+			}
+
+			Mat decoded = reduction == 1 ? gray : full;
+			try (Mat buffer = new Mat(1, source.remaining(), CV_8UC1, pointer)) {
+				imdecode(buffer, IMREAD_GRAYSCALE, decoded);
+			}
+
+			if (decoded.empty()) {
+				throw new IllegalArgumentException("Cannot decode the image");
+			}
+
+			if (reduction != 1) {
+				double factor = 1.0 / reduction;
+				resize(full, gray, none, factor, factor, INTER_AREA);
+			}
+
+			return gray;
+		}
+
+		private IplImage intel() {
+
+			long data = gray.data().address();
+
+			if (intel == null || intelData != data || intelWidth != gray.cols() || intelHeight != gray.rows()) {
+				if (intel != null) {
+					intel.close();
+				}
+				intel = new IplImage(gray);
+				intelData = data;
+				intelWidth = gray.cols();
+				intelHeight = gray.rows();
+			}
+
+			return intel;
+		}
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private GrayDecoder() {
+	}
+
+	/**
+	 * Decodes {@code encoded} into gray
+	 *
+	 * @param encoded
+	 *            The encoded image, from its position to its limit, which are left
+	 *            untouched
+	 * @param reduction
+	 *            1 to keep the full image; 2, 4 or 8 to reduce it to that
+	 *            fraction of its width and height
+	 * @return The gray image, owned by the calling thread and overwritten by its
+	 *         next decode
+	 * @throws IllegalArgumentException
+	 *             if the image cannot be decoded or the reduction is not supported
+	 */
+	public static Mat decode(ByteBuffer encoded, int reduction) {
+		return SCRATCH.get().decode(encoded, reduction);
+	}
+
+	/**
+	 * @see #decode(ByteBuffer, int)
+	 */
+	public static Mat decode(byte[] encoded, int reduction) {
+		return decode(ByteBuffer.wrap(encoded), reduction);
+	}
+
+	/**
+	 * Decodes {@code encoded} into gray, for the {@code cv} functions of OpenCV
+	 *
+	 * @return A header over the decoded gray image, owned by the calling thread
+	 *         and overwritten by its next decode
+	 * @see #decode(ByteBuffer, int)
+	 */
+	public static IplImage decodeIntel(ByteBuffer encoded, int reduction) {
+		Scratch scratch = SCRATCH.get();
+		scratch.decode(encoded, reduction);
+		return scratch.intel();
+	}
+
+	/**
+	 * Returns the last image the calling thread decoded as a header for the
+	 * {@code cv} functions of OpenCV
+	 *
+	 * @return A header over the gray image last returned by
+	 *         {@link #decode(ByteBuffer, int)} on this thread
+	 */
+	public static IplImage intel() {
+		return SCRATCH.get().intel();
+	}
+
+	/**
+	 * Decodes {@code encoded} and normalizes {@code region} of it into
+	 * {@code target}
+	 *
+	 * @param encoded
+	 *            The encoded image
+	 * @param reduction
+	 *            The fraction to reduce the image to
+	 * @param region
+	 *            The region of the face in the full image; null for the whole
+	 *            image
+	 * @param target
+	 *            The array to hold the {@code width * height} gray pixels, row by
+	 *            row
+	 * @param width
+	 *            The width of the normalized face
+	 * @param height
+	 *            The height of the normalized face
+	 * @return {@code target}
+	 * @see FaceNormalizer#normalize(java.awt.image.BufferedImage, Rectangle,
+	 *      byte[], int, int)
+	 */
+	public static byte[] normalize(ByteBuffer encoded, int reduction, Rectangle region, byte[] target, int width,
+			int height) {
+
+		Mat gray = decode(encoded, reduction);
+		Rectangle reduced = region == null ? null : reduce(region, reduction, gray.cols(), gray.rows());
+
+		return normalize(gray, reduced, target, width, height);
+	}
+
+	/**
+	 * Normalizes {@code region} of a decoded gray image into {@code target}
+	 *
+	 * @param gray
+	 *            The gray image, as returned by {@link #decode(ByteBuffer, int)}
+	 * @param region
+	 *            The region of the face in {@code gray}; null for the whole image
+	 * @param target
+	 *            The array to hold the {@code width * height} gray pixels, row by
+	 *            row
+	 * @param width
+	 *            The width of the normalized face
+	 * @param height
+	 *            The height of the normalized face
+	 * @return {@code target}
+	 */
+	public static byte[] normalize(Mat gray, Rectangle region, byte[] target, int width, int height) {
+		ByteBuffer pixels = gray.createBuffer();
+		return FaceNormalizer.normalize(pixels, gray.cols(), gray.rows(), (int) gray.step(), region, target, width,
+				height);
+	}
+
+	// The region of the full image in the image reduced to 1/reduction, clipped
+	// to it
+	private static Rectangle reduce(Rectangle region, int reduction, int width, int height) {
+		Rectangle reduced = new Rectangle(region.x / reduction, region.y / reduction,
+				Math.max(1, region.width / reduction), Math.max(1, region.height / reduction));
+		return reduced.intersection(new Rectangle(width, height));
+	}
+
+	private static void checkReduction(int reduction) {
+		if (reduction != 1 && reduction != 2 && reduction != 4 && reduction != 8) {
+			throw new IllegalArgumentException("Expected a reduction of 1, 2, 4 or 8 but got " + reduction);
+		}
+	}
+}
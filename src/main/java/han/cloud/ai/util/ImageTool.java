@@ -5,13 +5,16 @@ import static org.bytedeco.javacpp.opencv_core.cvCreateImage;
 import static org.bytedeco.javacpp.opencv_imgproc.CV_BGR2GRAY;
 import static org.bytedeco.javacpp.opencv_imgproc.cvCvtColor;
 
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.awt.image.RasterFormatException;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.bytedeco.javacpp.opencv_core.IplImage;
 import org.bytedeco.javacv.CanvasFrame;
@@ -27,14 +30,25 @@ import org.bytedeco.javacv.OpenCVFrameConverter;
  */
 public class ImageTool {
 
-	private static final OpenCVFrameConverter.ToIplImage CONVERTER = new OpenCVFrameConverter.ToIplImage();
+	// A converter caches the header it returns, so each thread has its own
+	private static final ThreadLocal<OpenCVFrameConverter.ToIplImage> CONVERTER = ThreadLocal
+			.withInitial(OpenCVFrameConverter.ToIplImage::new);
 
 	public static Frame toJavaCvFrame(IplImage intelImage) {
-		return CONVERTER.convert(intelImage);
+		return CONVERTER.get().convert(intelImage);
 	}
 
+	/**
+	 * Returns a header over the pixels of {@code frame}, without copying them
+	 * <p>
+	 * The header is reused by the next conversion on the same thread.
+	 * 
+	 * @param frame
+	 *            The frame, such as one grabbed from a video
+	 * @return A header over the pixels of {@code frame}
+	 */
 	public static IplImage toIplImage(Frame frame) {
-		return CONVERTER.convert(frame);
+		return CONVERTER.get().convert(frame);
 	}
 
 	public static IplImage toIntelImage(BufferedImage bufferedImage) {
@@ -92,6 +106,60 @@ public class ImageTool {
 		return toPixels(image, image.getWidth(), image.getHeight());
 	}
 
+	/**
+	 * Copies the gray samples of {@code image} into {@code target}, row by row,
+	 * starting at the target's current position.
+	 * <p>
+	 * A {@link BufferedImage#TYPE_BYTE_GRAY} image, including a sub-image of one,
+	 * is copied straight from its backing array without creating any garbage.
+	 * 
+	 * @param image
+	 *            The gray image whose samples to be copied
+	 * @param target
+	 *            The buffer to copy to, with at least {@code width * height} bytes
+	 *            remaining
+	 * @throws java.nio.BufferOverflowException
+	 *             if {@code target} does not have enough room
+	 */
+	public static void copyGrayBytes(BufferedImage image, ByteBuffer target) {
+
+		Raster raster = image.getRaster();
+		int width = raster.getWidth();
+		int height = raster.getHeight();
+
+		if (raster.getDataBuffer() instanceof DataBufferByte
+				&& raster.getSampleModel() instanceof ComponentSampleModel
+				&& raster.getNumBands() == 1) {
+
+			ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+
+			if (model.getPixelStride() == 1) {
+
+				byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+				int scanline = model.getScanlineStride();
+				int offset = raster.getDataBuffer().getOffset() + model.getOffset(
+						-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+
+				if (scanline == width) {
+					target.put(data, offset, width * height);
+				} else {
+					for (int y = 0; y < height; y++) {
+						target.put(data, offset + y * scanline, width);
+					}
+				}
+				return;
+			}
+		}
+
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			raster.getSamples(0, y, width, 1, 0, row);
+			for (int x = 0; x < width; x++) {
+				target.put((byte) row[x]);
+			}
+		}
+	}
+
 	public static BufferedImage createImageFromPixels(double[] pixels, int width) {
 
 		BufferedImage image = null;
@@ -131,47 +199,41 @@ public class ImageTool {
 		return grayAndResizeTo(image, FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT);
 	}
 
-	/*
-	 * resize to at least a standard size, then convert to gray scale
+	/**
+	 * Returns the gray faces of standard size of each of {@code images},
+	 * normalized in parallel
+	 * 
+	 * @param images
+	 *            The images to be normalized
+	 * @return The normalized faces, in the order of {@code images}
 	 */
-	public static BufferedImage grayAndResizeTo(BufferedImage image, int desiredWidth, int desiredHeight) {
-
-		int width = image.getWidth();
-		int height = image.getHeight();
-
-		double widthScale = desiredWidth / (double) width;
-		double heightScale = desiredHeight / (double) height;
-		double scale = Math.max(widthScale, heightScale);
-
-		int newWidth = (int) Math.round(width * scale);
-		int newHeight = (int) Math.round(height * scale);
-
-		BufferedImage grayAndScaled = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_BYTE_GRAY);
-
-		Graphics2D g2 = grayAndScaled.createGraphics();
-		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-		g2.drawImage(image, 0, 0, newWidth, newHeight, 0, 0, width, height, null);
-		g2.dispose();
-
-		return clipToFace(grayAndScaled, desiredWidth, desiredHeight);
+	public static List<BufferedImage> grayAndResizeToFaces(List<BufferedImage> images) {
+		return images.parallelStream() //
+				.map(ImageTool::grayAndResizeToFace) //
+				.collect(Collectors.toList());
 	}
 
-	/*
-	 * Shrink image to FACE_WIDTH*FACE_HEIGHT size, assuming image is face size or
-	 * bigger
+	/**
+	 * Returns {@code image} scaled to cover the desired size, center-cropped to it
+	 * and converted to gray scale
+	 * 
+	 * @param image
+	 *            The image to be normalized
+	 * @param desiredWidth
+	 *            The width of the returned image
+	 * @param desiredHeight
+	 *            The height of the returned image
+	 * @return A {@link BufferedImage#TYPE_BYTE_GRAY} image of the desired size
+	 * @throws IllegalArgumentException
+	 *             if {@code image} is empty
+	 * @see FaceNormalizer
 	 */
-	private static BufferedImage clipToFace(BufferedImage image, int desiredWidth, int desiredHeight) {
-
-		int xOffset = (image.getWidth() - desiredWidth) / 2;
-		int yOffset = (image.getHeight() - desiredHeight) / 2;
-
-		BufferedImage face = null;
+	public static BufferedImage grayAndResizeTo(BufferedImage image, int desiredWidth, int desiredHeight) {
 
-		try {
-			face = image.getSubimage(xOffset, yOffset, desiredWidth, desiredHeight);
-		} catch (RasterFormatException e) {
-		}
+		BufferedImage face = new BufferedImage(desiredWidth, desiredHeight, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = ((DataBufferByte) face.getRaster().getDataBuffer()).getData();
 
+		FaceNormalizer.normalize(image, null, pixels, desiredWidth, desiredHeight);
 		return face;
 	}
 }
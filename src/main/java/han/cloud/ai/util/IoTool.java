@@ -9,6 +9,12 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.imageio.ImageIO;
 
@@ -53,6 +59,62 @@ public final class IoTool {
 	}
 	
 
+	/**
+	 * Decodes the image file at {@code path}
+	 * 
+	 * @param path
+	 *            The image file
+	 * @return The decoded image
+	 * @throws IOException
+	 *             if the file cannot be read or is not in a supported format
+	 */
+	public static BufferedImage readImage(Path path) throws IOException {
+		BufferedImage image = ImageIO.read(path.toFile());
+		if (image == null) {
+			throw new IOException(path + " is not an image in a supported format");
+		}
+		return image;
+	}
+
+	/**
+	 * Returns the image files under {@code directory} whose format ImageIO can
+	 * read, in the order of their paths
+	 * 
+	 * @param directory
+	 *            The directory to search, including its subdirectories
+	 * @return The sorted paths of the image files
+	 * @throws IOException
+	 *             if the directory cannot be listed
+	 */
+	public static List<Path> listImages(Path directory) throws IOException {
+
+		Set<String> suffixes = Arrays.stream(ImageIO.getReaderFileSuffixes()) //
+				.map(suffix -> suffix.toLowerCase(Locale.ROOT)) //
+				.collect(Collectors.toSet());
+
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files //
+					.filter(Files::isRegularFile) //
+					.filter(file -> suffixes.contains(extension(file))) //
+					.sorted() //
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Returns the extension of {@code file} in lower case
+	 * 
+	 * @param file
+	 *            The file whose extension to be returned
+	 * @return The extension of {@code file} in lower case, or an empty string if
+	 *         it has none
+	 */
+	public static String extension(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+	}
+
 	public static BufferedImage readImageFromClassPath(Path path) {
 		return readImageFromClassPath(path.toString());
 	}
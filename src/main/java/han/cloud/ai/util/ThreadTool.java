@@ -0,0 +1,28 @@
+package han.cloud.ai.util;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * A convenience class for cooperating with thread interruption.
+ * 
+ * @author Jiayun Han
+ *
+ */
+public final class ThreadTool {
+
+	private ThreadTool() {
+	}
+
+	/**
+	 * Throws if the current thread has been interrupted, which is how a cancelled
+	 * asynchronous task asks a long scan to stop. The interrupt status is kept.
+	 * 
+	 * @throws CancellationException
+	 *             if the current thread has been interrupted
+	 */
+	public static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("The face task was cancelled");
+		}
+	}
+}
@@ -0,0 +1,81 @@
+"""
+Out-of-process worker for han.cloud.ai.face.PythonWorkerPool.
+
+Reads batches of recognition requests from stdin and writes their distances
+to stdout, both big-endian:
+
+    batch    := MAGIC:int32 count:int32 height:int32 width:int32 request*count
+    request  := id:int32 n:int32 probe:uint8[height*width] gallery:uint8[n*height*width]
+    response := MAGIC:int32 count:int32 (id:int32 n:int32 distance:float64[n])*count
+
+Usage: python recognition_worker.py <face_recognition dir>
+"""
+import struct
+import sys
+
+import numpy
+
+MAGIC = 0x48465242  # HFRB
+MAX_DISTANCE = numpy.finfo(numpy.float64).max
+
+
+def read_exactly(stream, size):
+    data = bytearray()
+    while len(data) < size:
+        chunk = stream.read(size - len(data))
+        if not chunk:
+            raise EOFError()
+        data.extend(chunk)
+    return bytes(data)
+
+
+def to_rgb(gray):
+    return numpy.ascontiguousarray(numpy.broadcast_to(gray[..., None], gray.shape + (3,)))
+
+
+def compare_all(main, probe, gallery):
+    rgb = to_rgb(probe)
+    distances = numpy.empty(len(gallery), dtype='>f8')
+    for i in range(len(gallery)):
+        try:
+            distances[i] = float(main.compare_faces_by_image(rgb, to_rgb(gallery[i])))
+        except Exception:
+            distances[i] = MAX_DISTANCE
+    return distances
+
+
+def serve(main, stdin, stdout):
+    while True:
+        try:
+            header = read_exactly(stdin, 16)
+        except EOFError:
+            return
+
+        magic, count, height, width = struct.unpack('>iiii', header)
+        if magic != MAGIC:
+            raise ValueError('Bad frame magic %x' % magic)
+
+        face_size = height * width
+        response = [struct.pack('>ii', MAGIC, count)]
+
+        for _ in range(count):
+            request_id, n = struct.unpack('>ii', read_exactly(stdin, 8))
+            probe = numpy.frombuffer(read_exactly(stdin, face_size), dtype=numpy.uint8).reshape(height, width)
+            gallery = numpy.frombuffer(read_exactly(stdin, n * face_size), dtype=numpy.uint8).reshape(n, height, width)
+
+            response.append(struct.pack('>ii', request_id, n))
+            response.append(compare_all(main, probe, gallery).tobytes())
+
+        stdout.write(b''.join(response))
+        stdout.flush()
+
+
+if __name__ == '__main__':
+    sys.path.append(sys.argv[1])
+
+    stdin = sys.stdin.buffer
+    stdout = sys.stdout.buffer
+    sys.stdout = sys.stderr  # keep stray prints off the protocol stream
+
+    import main
+    serve(main, stdin, stdout)
@@ -0,0 +1,103 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.FaceQuality;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+import han.cloud.ai.util.FaceConstants;
+
+public class CascadeFaceRecognizerTest {
+
+	private static final FaceQuality QUALITY = new FaceQuality(120, 1, 0.8, 0.7, true);
+
+	/*
+	 * Finds the first face with the same pixels as the probe, in a match carrying
+	 * a version and a quality
+	 */
+	private static final FaceRecognizer SAME_PIXELS = new FaceRecognizer() {
+
+		@Override
+		public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face) {
+			return recognize(faces, face, ScanLimit.NONE);
+		}
+
+		@Override
+		public MatchInfo recognize(List<BufferedImage> faces, BufferedImage face, ScanLimit limit) {
+
+			MatchInfo matchInfo = new MatchInfo(Double.MAX_VALUE, -1, true, false);
+			for (int i = 0; i < faces.size(); i++) {
+				if (Arrays.equals(pixels(faces.get(i)), pixels(face))) {
+					matchInfo = new MatchInfo(0.5, i, true, limit.accepts(0.5));
+					break;
+				}
+			}
+
+			matchInfo.setVersion(7);
+			matchInfo.setQuality(QUALITY);
+			return matchInfo;
+		}
+	};
+
+	@Test
+	public void mapsTheFineMatchBackToTheGallery() {
+
+		List<BufferedImage> gallery = faces(40);
+		CascadeFaceRecognizer recognizer = new CascadeFaceRecognizer(EigenFaceModel.train(gallery), SAME_PIXELS, 5);
+
+		for (int i = 0; i < gallery.size(); i++) {
+
+			MatchInfo match = recognizer.recognize(gallery, gallery.get(i), ScanLimit.accepting(1));
+
+			assertEquals(i, match.getIndex());
+			assertEquals(0.5, match.getDistance(), 0);
+			assertTrue(match.isComplete());
+			assertTrue(match.isAccepted());
+			assertEquals(7, match.getVersion());
+			assertSame(QUALITY, match.getQuality());
+		}
+	}
+
+	@Test
+	public void stopsBothStagesAtTheDeadline() {
+
+		List<BufferedImage> gallery = faces(40);
+		CascadeFaceRecognizer recognizer = new CascadeFaceRecognizer(EigenFaceModel.train(gallery), SAME_PIXELS, 5);
+
+		MatchInfo match = recognizer.recognize(gallery, gallery.get(3), ScanLimit.within(0, TimeUnit.NANOSECONDS));
+
+		assertEquals(-1, match.getIndex());
+		assertFalse(match.isComplete());
+		assertEquals(7, match.getVersion());
+	}
+
+	private static List<BufferedImage> faces(int count) {
+		Random random = new Random(32);
+		List<BufferedImage> faces = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+					BufferedImage.TYPE_BYTE_GRAY);
+			random.nextBytes(pixels(face));
+			faces.add(face);
+		}
+		return faces;
+	}
+
+	private static byte[] pixels(BufferedImage face) {
+		return ((DataBufferByte) face.getRaster().getDataBuffer()).getData();
+	}
+}
@@ -0,0 +1,204 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.FaceConstants;
+
+/*
+ * Runs a Caffe network without weights, which averages 4x4 blocks of a 16x16
+ * gray input into a 16-dimensional embedding
+ */
+public class DnnFaceRecognizerTest {
+
+	private static final String NETWORK = String.join("\n", //
+			"name: \"block-average\"", //
+			"input: \"data\"", //
+			"input_shape { dim: 1 dim: 1 dim: 16 dim: 16 }", //
+			"layer {", //
+			"  name: \"pool\"", //
+			"  type: \"Pooling\"", //
+			"  bottom: \"data\"", //
+			"  top: \"pool\"", //
+			"  pooling_param { pool: AVE kernel_size: 4 stride: 4 }", //
+			"}", "");
+
+	private static final int BATCH_SIZE = 3;
+
+	@ClassRule
+	public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+	private static String model;
+
+	@BeforeClass
+	public static void writeModel() throws Exception {
+		File file = FOLDER.newFile("block-average.prototxt");
+		Files.write(file.toPath(), NETWORK.getBytes(StandardCharsets.US_ASCII));
+		model = file.getPath();
+	}
+
+	@Test
+	public void encodesUnitEmbeddingsOfTheBlockAverages() {
+
+		try (DnnFaceRecognizer recognizer = recognizer(1)) {
+
+			float[] flat = recognizer.encode(face(77));
+			float[] expected = new float[16];
+			Arrays.fill(expected, 0.25f);
+			assertArrayEquals(expected, flat, 1e-6f);
+
+			float[] encoding = recognizer.encode(face(new Random(30)));
+			double norm = 0;
+			for (float value : encoding) {
+				norm += value * value;
+			}
+			assertEquals(16, encoding.length);
+			assertEquals(1, norm, 1e-5);
+		}
+	}
+
+	@Test
+	public void encodesAcrossBatchesAsOneByOne() {
+
+		List<BufferedImage> faces = faces(new Random(31), 3 * BATCH_SIZE + 1);
+
+		try (DnnFaceRecognizer recognizer = recognizer(1)) {
+
+			float[][] encodings = recognizer.encode(faces);
+			assertEquals(faces.size(), encodings.length);
+			for (int i = 0; i < faces.size(); i++) {
+				assertArrayEquals(recognizer.encode(faces.get(i)), encodings[i], 0);
+			}
+
+			for (int i = 0; i < faces.size(); i++) {
+				MatchInfo match = recognizer.recognize(faces, faces.get(i));
+				assertEquals(i, match.getIndex());
+				assertEquals(0, match.getDistance(), 0);
+				assertTrue(match.isComplete());
+			}
+		}
+	}
+
+	@Test
+	public void sharesTheBoundedPoolOfNetworks() throws Exception {
+
+		List<BufferedImage> faces = faces(new Random(32), 2 * BATCH_SIZE + 1);
+		int threads = 6;
+
+		try (DnnFaceRecognizer recognizer = recognizer(2)) {
+
+			float[][] expected = recognizer.encode(faces);
+
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<?>> workers = new ArrayList<>();
+				for (int t = 0; t < threads; t++) {
+					workers.add(executor.submit(() -> {
+						for (int round = 0; round < 20; round++) {
+							float[][] encodings = recognizer.encode(faces);
+							for (int i = 0; i < faces.size(); i++) {
+								assertArrayEquals(expected[i], encodings[i], 0);
+							}
+						}
+						return null;
+					}));
+				}
+
+				for (Future<?> worker : workers) {
+					worker.get();
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+
+			assertTrue(recognizer.getLoaded() <= recognizer.getPoolSize());
+		}
+	}
+
+	@Test
+	public void stopsWhenTheThreadIsInterrupted() {
+
+		List<BufferedImage> faces = faces(new Random(33), 2 * BATCH_SIZE);
+
+		try (DnnFaceRecognizer recognizer = recognizer(1)) {
+
+			Thread.currentThread().interrupt();
+			try {
+				recognizer.recognize(faces, faces.get(0));
+				fail("The recognition was not cancelled");
+			} catch (CancellationException e) {
+				assertTrue(Thread.interrupted());
+			}
+
+			// the network was not lost
+			assertEquals(0, recognizer.recognize(faces, faces.get(0)).getIndex());
+			assertEquals(1, recognizer.getLoaded());
+		}
+	}
+
+	@Test
+	public void failsOnceClosed() {
+
+		DnnFaceRecognizer recognizer = recognizer(2);
+		BufferedImage face = face(new Random(34));
+		recognizer.encode(face);
+
+		recognizer.close();
+		recognizer.close();
+
+		try {
+			recognizer.encode(face);
+			fail("The closed recognizer encoded a face");
+		} catch (IllegalStateException e) {
+			assertEquals("The recognizer is closed", e.getMessage());
+		}
+	}
+
+	private static DnnFaceRecognizer recognizer(int poolSize) {
+		return new DnnFaceRecognizer(model, 16, 16, 1, 1 / 255.0, 0, BATCH_SIZE, poolSize);
+	}
+
+	private static List<BufferedImage> faces(Random random, int count) {
+		List<BufferedImage> faces = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			faces.add(face(random));
+		}
+		return faces;
+	}
+
+	private static BufferedImage face(Random random) {
+		BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+				BufferedImage.TYPE_BYTE_GRAY);
+		random.nextBytes(((DataBufferByte) face.getRaster().getDataBuffer()).getData());
+		return face;
+	}
+
+	private static BufferedImage face(int level) {
+		BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+				BufferedImage.TYPE_BYTE_GRAY);
+		Arrays.fill(((DataBufferByte) face.getRaster().getDataBuffer()).getData(), (byte) level);
+		return face;
+	}
+}
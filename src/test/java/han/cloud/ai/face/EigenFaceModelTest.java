@@ -0,0 +1,340 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.model.ScanLimit;
+import han.cloud.ai.util.FaceConstants;
+
+/*
+ * Checks the pruned scans against a brute-force one. The gallery weights are a
+ * few gray levels of the first pixels, so that many faces tie.
+ */
+public class EigenFaceModelTest {
+
+	private static final int BLOCK_ROWS = 1024;
+
+	private static final ScanLimit BOUNDED = ScanLimit.within(1, TimeUnit.HOURS);
+
+	@Test
+	public void recognizesTheClosestFaceLikeAFullScan() {
+
+		for (int dimension : new int[] { 1, 3, 7, 8, 9, 20 }) {
+
+			Random random = new Random(dimension);
+			List<BufferedImage> gallery = faces(random, 300, dimension, 3);
+			EigenFaceModel model = EigenFaceModel.build(space(dimension), FaceSources.of(gallery));
+
+			for (int i = 0; i < 50; i++) {
+				double[] probe = probe(model, random, dimension, 3);
+				assertMatches(bruteForce(model, probe, model.size()), model.recognize(probe));
+			}
+		}
+	}
+
+	@Test
+	public void recognizesLikeAFullScanAcrossBlocks() {
+
+		int dimension = 12;
+		Random random = new Random(12);
+		List<BufferedImage> gallery = faces(random, 2 * BLOCK_ROWS + 500, dimension, 2);
+
+		// the same face early in the first block and in the second
+		gallery.set(BLOCK_ROWS + 100, gallery.get(100));
+
+		EigenFaceModel model = EigenFaceModel.build(space(dimension), FaceSources.of(gallery));
+
+		for (int i = 0; i < 50; i++) {
+			double[] probe = probe(model, random, dimension, 2);
+			MatchInfo expected = bruteForce(model, probe, model.size());
+			assertMatches(expected, model.recognize(probe));
+			assertMatches(expected, model.recognize(probe, BOUNDED));
+		}
+
+		double[] tie = model.getWeights(BLOCK_ROWS + 100);
+		MatchInfo first = model.recognize(tie, BOUNDED);
+		assertMatches(bruteForce(model, tie, model.size()), first);
+		assertTrue(first.getIndex() <= 100);
+	}
+
+	@Test
+	public void stopsAfterTheBlockWithAnAcceptableFace() {
+
+		int dimension = 12;
+		Random random = new Random(24);
+		List<BufferedImage> gallery = faces(random, 2 * BLOCK_ROWS + 500, dimension, 2);
+		EigenFaceModel model = EigenFaceModel.build(space(dimension), FaceSources.of(gallery));
+
+		for (int i = 0; i < 50; i++) {
+
+			double[] probe = probe(model, random, dimension, 2);
+			double accept = Math.sqrt(squaredDistance(model.getWeights(random.nextInt(model.size())), probe));
+			ScanLimit limit = BOUNDED.andAccepting(accept);
+
+			int first = 0;
+			while (squaredDistance(model.getWeights(first), probe) > accept * accept) {
+				first++;
+			}
+			int end = Math.min(model.size(), (first / BLOCK_ROWS + 1) * BLOCK_ROWS);
+
+			MatchInfo expected = bruteForce(model, probe, end);
+			MatchInfo actual = model.recognize(probe, limit);
+
+			assertMatches(expected, actual);
+			assertEquals(end == model.size(), actual.isComplete());
+			assertTrue(actual.isAccepted());
+		}
+
+		// off the gray levels of the gallery, so that no face is acceptable
+		double[] probe = probe(model, random, dimension, 2);
+		probe[0] += 0.01;
+
+		MatchInfo none = model.recognize(probe, BOUNDED.andAccepting(0.001));
+		assertMatches(bruteForce(model, probe, model.size()), none);
+		assertTrue(none.isComplete());
+		assertFalse(none.isAccepted());
+	}
+
+	@Test
+	public void shortlistsTheClosestFacesLikeAFullScan() {
+
+		for (int dimension : new int[] { 3, 8, 12 }) {
+
+			Random random = new Random(dimension);
+			List<BufferedImage> gallery = faces(random, BLOCK_ROWS + 200, dimension, 2);
+			EigenFaceModel model = EigenFaceModel.build(space(dimension), FaceSources.of(gallery));
+
+			for (int i = 0; i < 20; i++) {
+
+				BufferedImage face = face(random, dimension, 2);
+				double[] probe = model.getSpace().project(face);
+				double[] sums = IntStream.range(0, model.size()) //
+						.mapToDouble(row -> squaredDistance(model.getWeights(row), probe)) //
+						.toArray();
+
+				int[] expected = IntStream.range(0, model.size()) //
+						.boxed() //
+						.sorted((a, b) -> sums[a] != sums[b] ? Double.compare(sums[a], sums[b]) //
+								: Integer.compare(a, b)) //
+						.limit(25) //
+						.mapToInt(Integer::intValue) //
+						.toArray();
+
+				assertArrayEquals(expected, model.shortlist(face, 25));
+				assertArrayEquals(expected, model.shortlist(face, 25, BOUNDED));
+			}
+		}
+	}
+
+	@Test
+	public void shortlistsNothingOnceTheDeadlineHasPassed() {
+
+		Random random = new Random(32);
+		EigenFaceModel model = EigenFaceModel.build(space(8), FaceSources.of(faces(random, BLOCK_ROWS + 200, 8, 2)));
+
+		ScanLimit expired = ScanLimit.within(0, TimeUnit.NANOSECONDS);
+		assertEquals(0, model.shortlist(face(random, 8, 2), 25, expired).length);
+	}
+
+	@Test
+	public void projectsGalleryFacesAndProbesAlike() {
+
+		Random random = new Random(46);
+		List<BufferedImage> gallery = noise(random, 10);
+
+		EigenFaceModel model = EigenFaceModel.train(gallery);
+		EigenSpace space = model.getSpace();
+		int dimension = space.getDimension();
+
+		double[][] pixels = new double[6][];
+		double[][] batch = new double[6][dimension];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = EigenSpace.toPixels(gallery.get(i));
+		}
+		space.project(pixels, pixels.length, batch);
+
+		for (int row = 0; row < gallery.size(); row++) {
+
+			double[] weights = model.getWeights(row);
+			assertArrayEquals(weights, space.project(gallery.get(row)), 0);
+			assertArrayEquals(weights, space.project(EigenSpace.toPixels(gallery.get(row)), new double[dimension]), 0);
+			if (row < batch.length) {
+				assertArrayEquals(weights, batch[row], 0);
+			}
+
+			MatchInfo match = model.recognize(gallery.get(row));
+			assertEquals(row, match.getIndex());
+			assertEquals(0, match.getDistance(), 0);
+		}
+	}
+
+	@Test
+	public void streamsTheExactSpaceWhileTheSketchHoldsTheCorpus() {
+
+		Random random = new Random(38);
+		List<BufferedImage> gallery = noise(random, 40);
+		EigenFaceModel exact = EigenFaceModel.train(gallery);
+
+		// 2 * 39 sketch rows hold all 40 faces, so the sketch never shrinks
+		EigenSpace space = new StreamingEigenTrainer(39, 39, 16).train(FaceSources.of(gallery));
+		EigenFaceModel streamed = EigenFaceModel.build(space, FaceSources.of(gallery));
+
+		assertEquals(exact.getSpace().getDimension(), space.getDimension());
+		double[] expected = exact.getSpace().getEigenValues();
+		double[] actual = space.getEigenValues();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i], expected[i] * 1e-9);
+		}
+
+		List<BufferedImage> probes = new ArrayList<>(gallery.subList(0, 10));
+		probes.addAll(noise(random, 20));
+
+		for (BufferedImage probe : probes) {
+			MatchInfo match = exact.recognize(probe);
+			MatchInfo streamedMatch = streamed.recognize(probe);
+			assertEquals(match.getIndex(), streamedMatch.getIndex());
+			assertEquals(match.getDistance(), streamedMatch.getDistance(), 1e-9 * (1 + match.getDistance()));
+		}
+	}
+
+	@Test
+	public void keepsTheLeadingEigenValuesWhenTheSketchShrinks() {
+
+		int patterns = 4;
+		Random random = new Random(380);
+
+		byte[][] bases = new byte[patterns][FaceConstants.columns];
+		for (byte[] base : bases) {
+			for (int p = 0; p < base.length; p++) {
+				base[p] = (byte) random.nextInt(30);
+			}
+		}
+
+		// a few strong patterns over a weak noise
+		List<BufferedImage> gallery = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+					BufferedImage.TYPE_BYTE_GRAY);
+			byte[] pixels = ((DataBufferByte) face.getRaster().getDataBuffer()).getData();
+			double[] weights = random.doubles(patterns).toArray();
+			for (int p = 0; p < pixels.length; p++) {
+				double level = 60 + random.nextInt(4);
+				for (int k = 0; k < patterns; k++) {
+					level += weights[k] * bases[k][p];
+				}
+				pixels[p] = (byte) level;
+			}
+			gallery.add(face);
+		}
+
+		// 150 faces through a sketch of 2 * 12 rows
+		StreamingEigenTrainer trainer = new StreamingEigenTrainer(patterns, 12, 32);
+		EigenSpace space = trainer.train(FaceSources.of(gallery));
+		double[] expected = EigenFaceModel.train(gallery).getSpace().getEigenValues();
+		double[] actual = space.getEigenValues();
+
+		assertEquals(patterns, actual.length);
+		for (int i = 0; i < patterns; i++) {
+			// a Frequent Directions sketch only ever underestimates
+			assertTrue(actual[i] <= expected[i] * (1 + 1e-9));
+			assertEquals(expected[i], actual[i], expected[i] * 0.05);
+		}
+	}
+
+	private static void assertMatches(MatchInfo expected, MatchInfo actual) {
+		assertEquals(expected.getIndex(), actual.getIndex());
+		assertEquals(expected.getDistance(), actual.getDistance(), 0);
+	}
+
+	// The closest of the first rows, the lowest row among equals
+	private static MatchInfo bruteForce(EigenFaceModel model, double[] probe, int rows) {
+
+		int best = -1;
+		double bestSum = Double.MAX_VALUE;
+
+		for (int row = 0; row < rows; row++) {
+			double sum = squaredDistance(model.getWeights(row), probe);
+			if (sum < bestSum) {
+				bestSum = sum;
+				best = row;
+			}
+		}
+
+		return new MatchInfo(Math.sqrt(bestSum), best, true, false);
+	}
+
+	private static double squaredDistance(double[] a, double[] b) {
+		double sum = 0;
+		for (int col = 0; col < a.length; col++) {
+			double value = a[col] - b[col];
+			sum += value * value;
+		}
+		return sum;
+	}
+
+	// A space whose weights are the first pixels, scaled by the brightest one
+	private static EigenSpace space(int dimension) {
+
+		int pixels = FaceConstants.columns;
+		double[] components = new double[dimension * pixels];
+		for (int i = 0; i < dimension; i++) {
+			components[i * pixels + i] = 1;
+		}
+
+		double[] eigenValues = new double[dimension];
+		Arrays.fill(eigenValues, 1);
+
+		return new EigenSpace(new double[pixels], components, eigenValues);
+	}
+
+	private static double[] probe(EigenFaceModel model, Random random, int dimension, int levels) {
+		return model.getSpace().project(face(random, dimension, levels));
+	}
+
+	private static List<BufferedImage> noise(Random random, int count) {
+		List<BufferedImage> faces = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+					BufferedImage.TYPE_BYTE_GRAY);
+			random.nextBytes(((DataBufferByte) face.getRaster().getDataBuffer()).getData());
+			faces.add(face);
+		}
+		return faces;
+	}
+
+	private static List<BufferedImage> faces(Random random, int count, int dimension, int levels) {
+		List<BufferedImage> faces = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			faces.add(face(random, dimension, levels));
+		}
+		return faces;
+	}
+
+	private static BufferedImage face(Random random, int dimension, int levels) {
+
+		BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+				BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = ((DataBufferByte) face.getRaster().getDataBuffer()).getData();
+
+		for (int i = 0; i < dimension; i++) {
+			pixels[i] = (byte) (random.nextInt(levels) * 40);
+		}
+		pixels[pixels.length - 1] = (byte) 255;
+
+		return face;
+	}
+}
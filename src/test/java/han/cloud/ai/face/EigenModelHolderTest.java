@@ -0,0 +1,152 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.FaceConstants;
+
+/*
+ * Publishes a small model over and over while readers recognize against it,
+ * each published with a resource that counts how often it is closed
+ */
+public class EigenModelHolderTest {
+
+	private static final int READERS = 4;
+	private static final int PUBLISHES = 200;
+
+	/*
+	 * A resource that counts its closes
+	 */
+	private static final class Resource implements AutoCloseable {
+
+		private final AtomicInteger closes = new AtomicInteger();
+
+		@Override
+		public void close() {
+			closes.incrementAndGet();
+		}
+
+		private boolean isClosed() {
+			return closes.get() > 0;
+		}
+	}
+
+	@Test
+	public void closesTheResourceOnceAfterTheLastReaderAlthoughClosedTwice() {
+
+		Resource resource = new Resource();
+		EigenModelHolder holder = new EigenModelHolder(EigenFaceModel.train(faces(new Random(47), 3)), resource);
+
+		EigenModelHolder.Snapshot first = holder.acquire();
+		EigenModelHolder.Snapshot second = holder.acquire();
+		holder.publish(first.getModel());
+
+		first.close();
+		first.close();
+		assertFalse(resource.isClosed());
+
+		second.close();
+		assertEquals(1, resource.closes.get());
+
+		second.close();
+		holder.close();
+		assertEquals(1, resource.closes.get());
+	}
+
+	@Test
+	public void readsIncreasingVersionsWhileModelsArePublished() throws Exception {
+
+		Random random = new Random(470);
+		List<BufferedImage> gallery = faces(random, 3);
+		EigenFaceModel model = EigenFaceModel.train(gallery);
+
+		List<Resource> resources = new ArrayList<>();
+		resources.add(new Resource());
+		EigenModelHolder holder = new EigenModelHolder(model, resources.get(0));
+
+		AtomicBoolean publishing = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(READERS);
+
+		try {
+			List<Future<?>> readers = new ArrayList<>();
+			for (int t = 0; t < READERS; t++) {
+				int offset = t;
+				readers.add(executor.submit(() -> {
+
+					long last = 0;
+					for (int round = 0; publishing.get() || round < 100; round++) {
+
+						MatchInfo match = holder.recognize(gallery.get((offset + round) % gallery.size()));
+						assertTrue(match.getVersion() >= last);
+						last = match.getVersion();
+
+						EigenModelHolder.Snapshot snapshot = holder.acquire();
+						assertTrue(snapshot.getVersion() >= last);
+						last = snapshot.getVersion();
+
+						Resource resource = (Resource) snapshot.getResource();
+						assertFalse(resource.isClosed());
+						snapshot.getModel().recognize(gallery.get(0));
+						assertFalse(resource.isClosed());
+
+						snapshot.close();
+						if (round % 3 == 0) {
+							snapshot.close();
+						}
+					}
+					return null;
+				}));
+			}
+
+			for (int i = 0; i < PUBLISHES; i++) {
+				Resource resource = new Resource();
+				resources.add(resource);
+				assertEquals(i + 2, holder.publish(model, resource));
+			}
+			publishing.set(false);
+
+			for (Future<?> reader : readers) {
+				reader.get();
+			}
+		} finally {
+			publishing.set(false);
+			executor.shutdownNow();
+		}
+
+		// every replaced model has been closed by its last reader
+		for (Resource resource : resources.subList(0, PUBLISHES)) {
+			assertEquals(1, resource.closes.get());
+		}
+
+		Resource current = resources.get(PUBLISHES);
+		assertFalse(current.isClosed());
+		holder.close();
+		assertEquals(1, current.closes.get());
+	}
+
+	private static List<BufferedImage> faces(Random random, int count) {
+		List<BufferedImage> faces = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+					BufferedImage.TYPE_BYTE_GRAY);
+			random.nextBytes(((DataBufferByte) face.getRaster().getDataBuffer()).getData());
+			faces.add(face);
+		}
+		return faces;
+	}
+}
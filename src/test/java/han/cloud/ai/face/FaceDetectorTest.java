@@ -0,0 +1,91 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/*
+ * Detects with a stand-in cascade that finds bright squares on a dark
+ * background
+ */
+public class FaceDetectorTest {
+
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 20;
+
+	@Test
+	public void detectsOnManyThreadsAsOnOne() throws Exception {
+
+		FaceDetector detector = detector();
+
+		Random random = new Random(49);
+		List<BufferedImage> images = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			images.add(squares(random, 120 + 16 * i, 96 + 12 * i));
+		}
+
+		List<List<Rectangle>> expected = new ArrayList<>();
+		for (BufferedImage image : images) {
+			List<Rectangle> faces = detector.findFaces(image, -1);
+			assertFalse(faces.isEmpty());
+			expected.add(faces);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> workers = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				int offset = t;
+				workers.add(executor.submit(() -> {
+					for (int round = 0; round < ROUNDS; round++) {
+						int i = (offset + round) % images.size();
+						assertEquals(expected.get(i), detector.findFaces(images.get(i), -1));
+					}
+					return null;
+				}));
+			}
+
+			for (Future<?> worker : workers) {
+				worker.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static FaceDetector detector() throws Exception {
+		return new FaceDetector(
+				new File(FaceDetectorTest.class.getResource("bright_square_cascade.xml").toURI()).getPath());
+	}
+
+	// A dark image with a few white squares of different sizes
+	static BufferedImage squares(Random random, int width, int height) {
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.DARK_GRAY);
+		graphics.fillRect(0, 0, width, height);
+		graphics.setColor(Color.WHITE);
+
+		for (int i = 0; i < 3; i++) {
+			int side = 24 + random.nextInt(Math.min(width, height) / 4);
+			graphics.fillRect(random.nextInt(width - side), random.nextInt(height - side), side, side);
+		}
+
+		graphics.dispose();
+		return image;
+	}
+}
@@ -0,0 +1,117 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import han.cloud.ai.face.ifs.FaceEncoder;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.FaceConstants;
+
+public class FaceEncodingStoreTest {
+
+	private static final int DIMENSION = 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Encodes a face as its first pixels, counting the calls
+	private final AtomicInteger encoded = new AtomicInteger();
+	private final FaceEncoder encoder = face -> {
+		encoded.incrementAndGet();
+		byte[] pixels = pixels(face);
+		float[] encoding = new float[DIMENSION];
+		for (int i = 0; i < DIMENSION; i++) {
+			encoding[i] = pixels[i] & 0xFF;
+		}
+		return encoding;
+	};
+
+	@Test
+	public void encodesOnlyNewOrChangedFaces() {
+
+		FaceEncodingStore store = new FaceEncodingStore(DIMENSION);
+
+		assertTrue(store.put("a", face(1), encoder));
+		assertTrue(store.put("a", face(1), encoder));
+		assertEquals(1, encoded.get());
+
+		assertTrue(store.put("a", face(2), encoder));
+		assertEquals(2, encoded.get());
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void removesTheEmbeddingOfAChangedFaceThatCannotBeEncoded() {
+
+		FaceEncodingStore store = new FaceEncodingStore(DIMENSION);
+		store.put("a", face(1), encoder);
+		store.put("b", face(2), encoder);
+
+		assertFalse(store.put("a", face(3), face -> null));
+
+		assertFalse(store.contains("a"));
+		assertEquals(Arrays.asList("b"), store.ids());
+		assertEquals("b", store.id(store.nearest(encoding(face(1))).getIndex()));
+	}
+
+	@Test
+	public void savesAndLoadsTheSameEmbeddings() throws Exception {
+
+		FaceEncodingStore store = new FaceEncodingStore(DIMENSION);
+		for (int i = 0; i < 40; i++) {
+			store.put("face-" + i, face(i), encoder);
+		}
+		store.remove("face-7");
+
+		Path path = folder.getRoot().toPath().resolve("store.hfes");
+		store.save(path);
+		FaceEncodingStore loaded = FaceEncodingStore.load(path);
+
+		assertEquals(DIMENSION, loaded.dimension());
+		assertEquals(store.ids(), loaded.ids());
+
+		for (int i = 0; i < 40; i++) {
+			float[] probe = encoding(face(i));
+			MatchInfo expected = store.nearest(probe);
+			MatchInfo actual = loaded.nearest(probe);
+			assertEquals(store.id(expected.getIndex()), loaded.id(actual.getIndex()));
+			assertEquals(expected.getDistance(), actual.getDistance(), 0);
+		}
+
+		// the fingerprints survive too: an unchanged face is not encoded again
+		int before = encoded.get();
+		assertTrue(loaded.put("face-3", face(3), encoder));
+		assertEquals(before, encoded.get());
+		assertNull(loaded.id(loaded.size()));
+	}
+
+	private float[] encoding(BufferedImage face) {
+		float[] encoding = encoder.encode(face);
+		encoded.decrementAndGet();
+		return encoding;
+	}
+
+	private static BufferedImage face(long seed) {
+		BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+				BufferedImage.TYPE_BYTE_GRAY);
+		new Random(seed).nextBytes(pixels(face));
+		return face;
+	}
+
+	private static byte[] pixels(BufferedImage face) {
+		return ((DataBufferByte) face.getRaster().getDataBuffer()).getData();
+	}
+}
@@ -0,0 +1,117 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import han.cloud.ai.face.ifs.FaceRecognizer;
+import han.cloud.ai.model.MatchInfo;
+import han.cloud.ai.util.FaceConstants;
+
+public class GalleryDeduplicatorTest {
+
+	// Finds the first face with the same pixels as the probe
+	private static final FaceRecognizer SAME_PIXELS = (faces, face) -> {
+		for (int i = 0; i < faces.size(); i++) {
+			if (Arrays.equals(pixels(faces.get(i)), pixels(face))) {
+				return new MatchInfo(0.25, i, true, false);
+			}
+		}
+		return new MatchInfo(Double.MAX_VALUE, -1, true, false);
+	};
+
+	@Test
+	public void mapsEveryFaceToTheFirstFaceOfItsCluster() {
+
+		BufferedImage a = face(1);
+		BufferedImage b = face(2);
+		BufferedImage c = face(3);
+		List<BufferedImage> gallery = Arrays.asList(a, b, copy(a), c, copy(b), copy(a));
+
+		DeduplicatedGallery deduplicated = new GalleryDeduplicator(1e-6).deduplicate(gallery);
+
+		assertEquals(3, deduplicated.size());
+		assertEquals(6, deduplicated.originalSize());
+
+		assertSame(a, deduplicated.getFaces().get(0));
+		assertSame(b, deduplicated.getFaces().get(1));
+		assertSame(c, deduplicated.getFaces().get(2));
+
+		assertEquals(0, deduplicated.originalIndex(0));
+		assertEquals(1, deduplicated.originalIndex(1));
+		assertEquals(3, deduplicated.originalIndex(2));
+		assertEquals(-1, deduplicated.originalIndex(-1));
+
+		assertArrayEquals(new int[] { 0, 2, 5 }, deduplicated.members(0));
+		assertArrayEquals(new int[] { 1, 4 }, deduplicated.members(1));
+		assertArrayEquals(new int[] { 3 }, deduplicated.members(2));
+
+		int[] expected = { 0, 1, 0, 2, 1, 0 };
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], deduplicated.representativeOf(i));
+		}
+	}
+
+	@Test
+	public void returnsMatchesIndexingTheOriginalGallery() {
+
+		BufferedImage a = face(1);
+		BufferedImage b = face(2);
+		BufferedImage c = face(3);
+		List<BufferedImage> gallery = Arrays.asList(a, copy(a), b, copy(b), copy(a), c);
+
+		DeduplicatedGallery deduplicated = new GalleryDeduplicator(1e-6).deduplicate(gallery);
+
+		MatchInfo match = deduplicated.recognize(SAME_PIXELS, copy(c));
+		assertEquals(5, match.getIndex());
+		assertEquals(0.25, match.getDistance(), 0);
+		assertTrue(match.isComplete());
+		assertFalse(match.isAccepted());
+
+		assertEquals(0, deduplicated.recognize(SAME_PIXELS, copy(a)).getIndex());
+		assertEquals(2, deduplicated.recognize(SAME_PIXELS, b).getIndex());
+		assertEquals(-1, deduplicated.recognize(SAME_PIXELS, face(4)).getIndex());
+	}
+
+	@Test
+	public void keepsExactCopiesApartAtZeroThreshold() {
+
+		BufferedImage a = face(1);
+		List<BufferedImage> gallery = Arrays.asList(a, copy(a), face(2));
+
+		DeduplicatedGallery deduplicated = new GalleryDeduplicator(0).deduplicate(gallery);
+
+		assertEquals(3, deduplicated.size());
+		for (int i = 0; i < gallery.size(); i++) {
+			assertEquals(i, deduplicated.originalIndex(i));
+			assertEquals(i, deduplicated.representativeOf(i));
+		}
+	}
+
+	private static BufferedImage face(long seed) {
+		BufferedImage face = new BufferedImage(FaceConstants.FACE_WIDTH, FaceConstants.FACE_HEIGHT,
+				BufferedImage.TYPE_BYTE_GRAY);
+		new Random(seed).nextBytes(pixels(face));
+		return face;
+	}
+
+	private static BufferedImage copy(BufferedImage face) {
+		BufferedImage copy = new BufferedImage(face.getWidth(), face.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+		System.arraycopy(pixels(face), 0, pixels(copy), 0, pixels(face).length);
+		return copy;
+	}
+
+	private static byte[] pixels(BufferedImage face) {
+		return ((DataBufferByte) face.getRaster().getDataBuffer()).getData();
+	}
+}
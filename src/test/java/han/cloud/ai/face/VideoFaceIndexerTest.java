@@ -0,0 +1,177 @@
+package han.cloud.ai.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Indexes a clip of two scenes, each a white square wiggling over a plain
+ * background, with the stand-in cascade of FaceDetectorTest
+ */
+public class VideoFaceIndexerTest {
+
+	private static final int FRAMES = 100;
+	private static final int KEY_FRAME_INTERVAL = 25;
+
+	@ClassRule
+	public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+	private static String clip;
+
+	@BeforeClass
+	public static void recordClip() throws Exception {
+
+		clip = FOLDER.newFile("clip.mp4").getPath();
+
+		FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(clip, 160, 120);
+		recorder.setVideoCodec(avcodec.AV_CODEC_ID_MPEG4);
+		recorder.setFormat("mp4");
+		recorder.setFrameRate(25);
+		recorder.setGopSize(KEY_FRAME_INTERVAL);
+		recorder.setVideoQuality(2);
+
+		Java2DFrameConverter converter = new Java2DFrameConverter();
+		try {
+			recorder.start();
+			for (int i = 0; i < FRAMES; i++) {
+				BufferedImage image = new BufferedImage(160, 120, BufferedImage.TYPE_3BYTE_BGR);
+				Graphics2D graphics = image.createGraphics();
+				graphics.setColor(i < FRAMES / 2 ? Color.BLACK : Color.GRAY);
+				graphics.fillRect(0, 0, 160, 120);
+				graphics.setColor(Color.WHITE);
+				graphics.fillRect(50 + i % 2, 30, 48, 48);
+				graphics.dispose();
+				recorder.record(converter.convert(image));
+			}
+			recorder.stop();
+		} finally {
+			recorder.release();
+		}
+	}
+
+	@Test
+	public void samplesTheFramesOfEachMode() throws Exception {
+
+		try (VideoFaceIndexer indexer = new VideoFaceIndexer(FaceDetectorTest.detector(), 2, -1)) {
+
+			Set<Long> numbers = ConcurrentHashMap.newKeySet();
+			AtomicLong faces = new AtomicLong();
+			VideoFaceIndexer.Summary all = indexer.index(clip, VideoSampling.everyFrame(), found -> {
+				numbers.add(found.getFrameNumber());
+				faces.addAndGet(found.size());
+			}).get();
+
+			assertTrue(all.getFrames() >= FRAMES - 1);
+			assertEquals(all.getFrames(), all.getSampled());
+			assertEquals(all.getSampled(), numbers.size());
+			assertEquals(faces.get(), all.getFaces());
+
+			numbers.clear();
+			VideoFaceIndexer.Summary tenth = indexer
+					.index(clip, VideoSampling.every(10), found -> numbers.add(found.getFrameNumber())).get();
+
+			assertEquals(all.getFrames(), tenth.getFrames());
+			assertEquals((all.getFrames() + 9) / 10, tenth.getSampled());
+			assertTrue(numbers.stream().allMatch(number -> number % 10 == 0));
+
+			VideoFaceIndexer.Summary keys = indexer.index(clip, VideoSampling.keyFrames(), found -> {
+			}).get();
+
+			assertEquals(FRAMES / KEY_FRAME_INTERVAL, keys.getFrames());
+			assertEquals(keys.getFrames(), keys.getSampled());
+
+			numbers.clear();
+			VideoFaceIndexer.Summary scenes = indexer
+					.index(clip, VideoSampling.sceneChanges(10), found -> numbers.add(found.getFrameNumber())).get();
+
+			assertEquals(all.getFrames(), scenes.getFrames());
+			assertEquals(2, scenes.getSampled());
+			assertTrue(numbers.contains(0L));
+		}
+	}
+
+	@Test
+	public void failsTheVideoWhenTheConsumerThrows() throws Exception {
+
+		RuntimeException failure = new IllegalStateException("The consumer failed");
+
+		try (VideoFaceIndexer indexer = new VideoFaceIndexer(FaceDetectorTest.detector(), 2, -1)) {
+			indexer.index(clip, VideoSampling.everyFrame(), found -> {
+				throw failure;
+			}).get();
+			fail("The video did not fail");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void givesBackTheImagesAndStopsTheDecoderOnClose() throws Exception {
+
+		VideoFaceIndexer indexer = new VideoFaceIndexer(FaceDetectorTest.detector(), 1, -1);
+		CountDownLatch consuming = new CountDownLatch(1);
+
+		// holds the only worker, so that the next frames wait in the queue
+		CompletableFuture<VideoFaceIndexer.Summary> result = indexer.index(clip, VideoSampling.everyFrame(),
+				found -> {
+					consuming.countDown();
+					try {
+						new CountDownLatch(1).await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+
+		assertTrue(consuming.await(30, TimeUnit.SECONDS));
+		List<Thread> decoders = decoders();
+		assertFalse(decoders.isEmpty());
+
+		// well within the timeout of close, which only a lost image would reach
+		long start = System.nanoTime();
+		indexer.close();
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+
+		for (Thread decoder : decoders) {
+			assertFalse(decoder.getName(), decoder.isAlive());
+		}
+
+		try {
+			result.get();
+			fail("The video did not fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		assertTrue(indexer.index(clip, VideoSampling.everyFrame(), found -> {
+		}).isCompletedExceptionally());
+	}
+
+	private static List<Thread> decoders() {
+		return Thread.getAllStackTraces().keySet().stream() //
+				.filter(thread -> thread.getName().startsWith("video-decoder-") && thread.isAlive()) //
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,149 @@
+package han.cloud.ai.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+import han.cloud.ai.model.FaceQuality;
+
+/*
+ * Scores a face made of a horizontal gradient and fine noise, and the same face
+ * blurred, which keeps the gradient but loses the noise
+ */
+public class FaceQualityAssessorTest {
+
+	private static final int WIDTH = FaceConstants.FACE_WIDTH;
+	private static final int HEIGHT = FaceConstants.FACE_HEIGHT;
+
+	private static final Rectangle FULL_SIZE = new Rectangle(WIDTH, HEIGHT);
+
+	@Test
+	public void acceptsASharpWellExposedFace() {
+
+		FaceQuality quality = FaceQualityAssessor.DEFAULT.assess(sharp(), FULL_SIZE);
+
+		assertTrue(quality.getSharpness() > 1000);
+		assertEquals(1, quality.getSize(), 0);
+		assertTrue(quality.getExposure() > 0.5);
+		assertTrue(quality.isAcceptable());
+	}
+
+	@Test
+	public void rejectsABlurredFace() {
+
+		FaceQuality quality = FaceQualityAssessor.DEFAULT.assess(blur(sharp(), 4), FULL_SIZE);
+
+		assertTrue(quality.getSharpness() < FaceQualityAssessor.DEFAULT.getMinSharpness());
+		assertTrue(quality.getExposure() >= FaceQualityAssessor.DEFAULT.getMinExposure());
+		assertFalse(quality.isAcceptable());
+
+		assertTrue(FaceQualityAssessor.DEFAULT.withMinSharpness(0).assess(blur(sharp(), 4), FULL_SIZE)
+				.isAcceptable());
+	}
+
+	@Test
+	public void rejectsASmallRegion() {
+
+		FaceQuality quality = FaceQualityAssessor.DEFAULT.assess(sharp(), new Rectangle(WIDTH / 4, HEIGHT / 4));
+
+		assertTrue(quality.getSize() < FaceQualityAssessor.DEFAULT.getMinSize());
+		assertFalse(quality.isAcceptable());
+	}
+
+	@Test
+	public void rejectsADarkFace() {
+
+		byte[] face = sharp();
+		for (int i = 0; i < face.length; i++) {
+			face[i] = (byte) ((face[i] & 0xFF) / 16);
+		}
+
+		FaceQuality quality = FaceQualityAssessor.DEFAULT.assess(face, FULL_SIZE);
+
+		assertTrue(quality.getExposure() < FaceQualityAssessor.DEFAULT.getMinExposure());
+		assertFalse(quality.isAcceptable());
+	}
+
+	@Test
+	public void scoresTheGrayOfAColorFace() {
+
+		// flat red and blue, so that only the gray shows the sharp green
+		byte[] green = sharp();
+		BufferedImage color = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				color.setRGB(x, y, 128 << 16 | (green[y * WIDTH + x] & 0xFF) << 8 | 128);
+			}
+		}
+
+		byte[] gray = FaceNormalizer.normalize(color);
+		FaceQuality expected = FaceQualityAssessor.DEFAULT.assess(gray, FULL_SIZE);
+		FaceQuality quality = FaceQualityAssessor.DEFAULT.assess(color);
+
+		assertEquals(expected.getSharpness(), quality.getSharpness(), 0);
+		assertEquals(expected.getExposure(), quality.getExposure(), 0);
+		assertTrue(quality.isAcceptable());
+	}
+
+	@Test
+	public void scoresTheSizeOfTheGivenRegion() {
+
+		BufferedImage face = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = sharp();
+		face.getRaster().setDataElements(0, 0, WIDTH, HEIGHT, pixels);
+
+		assertTrue(FaceQualityAssessor.DEFAULT.assess(face).isAcceptable());
+		assertEquals(FaceQualityAssessor.DEFAULT.assess(pixels, FULL_SIZE).getSharpness(),
+				FaceQualityAssessor.DEFAULT.assess(face).getSharpness(), 0);
+
+		FaceQuality small = FaceQualityAssessor.DEFAULT.assess(face, new Rectangle(WIDTH / 4, HEIGHT / 4));
+		assertTrue(small.getSize() < FaceQualityAssessor.DEFAULT.getMinSize());
+		assertFalse(small.isAcceptable());
+	}
+
+	// A gradient from gray level 48 to 208 with noise of up to 40 levels
+	private static byte[] sharp() {
+
+		Random random = new Random(50);
+		byte[] face = new byte[WIDTH * HEIGHT];
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int level = 48 + 160 * x / (WIDTH - 1) + random.nextInt(81) - 40;
+				face[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, level));
+			}
+		}
+
+		return face;
+	}
+
+	// A box blur over the pixels within radius, clamped at the borders
+	private static byte[] blur(byte[] face, int radius) {
+
+		byte[] blurred = new byte[face.length];
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+
+				int sum = 0;
+				for (int dy = -radius; dy <= radius; dy++) {
+					int row = Math.max(0, Math.min(HEIGHT - 1, y + dy)) * WIDTH;
+					for (int dx = -radius; dx <= radius; dx++) {
+						sum += face[row + Math.max(0, Math.min(WIDTH - 1, x + dx))] & 0xFF;
+					}
+				}
+
+				int side = 2 * radius + 1;
+				blurred[y * WIDTH + x] = (byte) Math.round(sum / (float) (side * side));
+			}
+		}
+
+		return blurred;
+	}
+}